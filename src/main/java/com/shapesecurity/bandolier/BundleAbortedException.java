@@ -0,0 +1,54 @@
+/*
+ * Copyright 2016 Shape Security, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.shapesecurity.bandolier;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Thrown when a bundle is stopped before it is complete, because it exceeds one of the limits set in its
+ * {@link BundlerOptions}, runs past its timeout or is cancelled. Unlike a
+ * {@link com.shapesecurity.bandolier.loader.ModuleLoaderException}, this does not mean that a module is
+ * invalid or missing.
+ */
+public class BundleAbortedException extends RuntimeException {
+	public enum Reason {
+		/** more modules than {@link BundlerOptions#withMaxModules} */
+		MODULE_COUNT,
+		/** more source than {@link BundlerOptions#withMaxSourceBytes} in total */
+		SOURCE_BYTES,
+		/** a module larger than {@link BundlerOptions#withMaxFileBytes} */
+		FILE_BYTES,
+		/** still bundling after {@link BundlerOptions#withTimeout} */
+		TIMEOUT,
+		/** the {@link CancellationToken} was cancelled */
+		CANCELLED,
+		/** the thread that started the bundle was interrupted */
+		INTERRUPTED
+	}
+
+	@NotNull
+	private final Reason reason;
+
+	BundleAbortedException(@NotNull Reason reason, @NotNull String message) {
+		super("Bundle aborted: " + message);
+		this.reason = reason;
+	}
+
+	@NotNull
+	public Reason getReason() {
+		return this.reason;
+	}
+}
@@ -0,0 +1,95 @@
+/*
+ * Copyright 2016 Shape Security, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.shapesecurity.bandolier;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Enforces the limits of a single bundle: the number and size of the modules it loads, its timeout and its
+ * cancellation, either through a {@link CancellationToken} or by interrupting the thread that started it.
+ * Modules are accounted for by the thread loading them, {@link #check} may be called from any thread.
+ */
+final class BundleBudget {
+	@NotNull
+	private final BundlerOptions options;
+	@NotNull
+	private final Thread thread;
+	// in System.nanoTime, if the bundle has a timeout
+	private final long deadline;
+
+	private int modules = 0;
+	private long sourceBytes = 0;
+
+	BundleBudget(@NotNull BundlerOptions options) {
+		this.options = options;
+		this.thread = Thread.currentThread();
+		this.deadline = System.nanoTime() + options.timeoutNanos().orJust(0L);
+	}
+
+	/**
+	 * Accounts for a module that has been loaded, before it is parsed.
+	 * @param path   the path of the module
+	 * @param source the source of the module
+	 * @throws BundleAbortedException when a limit is exceeded, or the bundle has timed out or been cancelled
+	 */
+	void addModule(@NotNull String path, @NotNull String source) {
+		this.check();
+		long bytes = utf8Length(source);
+		if (bytes > this.options.maxFileBytes()) {
+			throw new BundleAbortedException(BundleAbortedException.Reason.FILE_BYTES,
+				path + " has " + bytes + " bytes, the limit is " + this.options.maxFileBytes());
+		}
+		if (++this.modules > this.options.maxModules()) {
+			throw new BundleAbortedException(BundleAbortedException.Reason.MODULE_COUNT,
+				"loading " + path + " exceeds the limit of " + this.options.maxModules() + " modules");
+		}
+		this.sourceBytes += bytes;
+		if (this.sourceBytes > this.options.maxSourceBytes()) {
+			throw new BundleAbortedException(BundleAbortedException.Reason.SOURCE_BYTES,
+				"loading " + path + " exceeds the limit of " + this.options.maxSourceBytes() + " bytes of source");
+		}
+	}
+
+	/**
+	 * @throws BundleAbortedException when the bundle has timed out or been cancelled
+	 */
+	void check() {
+		if (this.thread.isInterrupted()) {
+			throw new BundleAbortedException(BundleAbortedException.Reason.INTERRUPTED, "the bundling thread was interrupted");
+		}
+		if (this.options.cancellation().isJust() && this.options.cancellation().fromJust().isCancelled()) {
+			throw new BundleAbortedException(BundleAbortedException.Reason.CANCELLED, "the bundle was cancelled");
+		}
+		if (this.options.timeoutNanos().isJust() && System.nanoTime() - this.deadline >= 0) {
+			throw new BundleAbortedException(BundleAbortedException.Reason.TIMEOUT,
+				"the bundle took longer than " + this.options.timeoutNanos().fromJust() / 1000000 + "ms");
+		}
+	}
+
+	private static long utf8Length(@NotNull String source) {
+		long length = source.length();
+		for (int i = 0; i < source.length(); ++i) {
+			char c = source.charAt(i);
+			if (c >= 0x800) {
+				// surrogate pairs are two chars for four bytes
+				length += Character.isSurrogate(c) ? 1 : 2;
+			} else if (c >= 0x80) {
+				length += 1;
+			}
+		}
+		return length;
+	}
+}
@@ -20,6 +20,7 @@ import com.shapesecurity.bandolier.loader.FileSystemResolver;
 import com.shapesecurity.bandolier.loader.IResolver;
 import com.shapesecurity.bandolier.loader.IResourceLoader;
 import com.shapesecurity.bandolier.loader.ModuleLoaderException;
+import com.shapesecurity.functional.F;
 import com.shapesecurity.functional.data.ImmutableList;
 import com.shapesecurity.functional.data.Maybe;
 import com.shapesecurity.shift.ast.ArrayExpression;
@@ -27,6 +28,7 @@ import com.shapesecurity.shift.ast.AssignmentExpression;
 import com.shapesecurity.shift.ast.BinaryExpression;
 import com.shapesecurity.shift.ast.BindingBindingWithDefault;
 import com.shapesecurity.shift.ast.BindingIdentifier;
+import com.shapesecurity.shift.ast.Block;
 import com.shapesecurity.shift.ast.CallExpression;
 import com.shapesecurity.shift.ast.ComputedMemberExpression;
 import com.shapesecurity.shift.ast.ConditionalExpression;
@@ -43,7 +45,9 @@ import com.shapesecurity.shift.ast.FunctionExpression;
 import com.shapesecurity.shift.ast.IdentifierExpression;
 import com.shapesecurity.shift.ast.IfStatement;
 import com.shapesecurity.shift.ast.Import;
+import com.shapesecurity.shift.ast.ImportDeclaration;
 import com.shapesecurity.shift.ast.ImportNamespace;
+import com.shapesecurity.shift.ast.ImportSpecifier;
 import com.shapesecurity.shift.ast.LiteralBooleanExpression;
 import com.shapesecurity.shift.ast.LiteralNumericExpression;
 import com.shapesecurity.shift.ast.LiteralStringExpression;
@@ -60,6 +64,7 @@ import com.shapesecurity.shift.ast.StaticMemberExpression;
 import com.shapesecurity.shift.ast.StaticPropertyName;
 import com.shapesecurity.shift.ast.ThisExpression;
 import com.shapesecurity.shift.ast.ThrowStatement;
+import com.shapesecurity.shift.ast.TryFinallyStatement;
 import com.shapesecurity.shift.ast.UnaryExpression;
 import com.shapesecurity.shift.ast.VariableDeclaration;
 import com.shapesecurity.shift.ast.VariableDeclarationKind;
@@ -67,21 +72,54 @@ import com.shapesecurity.shift.ast.VariableDeclarationStatement;
 import com.shapesecurity.shift.ast.VariableDeclarator;
 import com.shapesecurity.shift.ast.operators.BinaryOperator;
 import com.shapesecurity.shift.ast.operators.UnaryOperator;
+import com.shapesecurity.shift.codegen.CodeGen;
 import com.shapesecurity.shift.parser.JsError;
 import com.shapesecurity.shift.parser.Parser;
+import com.shapesecurity.shift.scope.Scope;
+import com.shapesecurity.shift.scope.ScopeAnalyzer;
 
 import org.jetbrains.annotations.NotNull;
 
 import java.io.IOException;
+import java.io.Writer;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.LinkedList;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
 import java.util.stream.Collectors;
 
 public class Bundler {
 
+	// stands in for the module definitions when generating the code around them
+	private static final String MODULES_MARKER = "__bandolier_modules__";
+
+	/**
+	 * The global that the runtime of a bundle built with {@link BundlerOptions#withProfiling} records into: the
+	 * <code>order</code> in which module ids were first required, and the <code>self</code> and
+	 * <code>total</code> milliseconds spent evaluating each module in <code>modules</code>, by id.
+	 */
+	public static final String PROFILE_GLOBAL = "__bandolierProfile";
+
+	/**
+	 * The global that the runtime of a bundle built with {@link BundlerOptions#withHotReplacement} exposes its
+	 * <code>require</code> function as, for the updates generated by {@link HotBundle} to define modules and
+	 * evict them from the cache.
+	 */
+	public static final String HOT_GLOBAL = "__bandolierHot";
+
+	// the length of the hashes used as stable module ids, before any collision
+	private static final int STABLE_ID_LENGTH = 8;
+
 	/**
 	 * Bundles the module at the specified path using the default resolver and loaders
 	 * @param filePath path to the module
@@ -103,11 +141,31 @@ public class Bundler {
 	 * @throws ModuleLoaderException when the module fails to load
 	 */
 	public static @NotNull Script bundle(@NotNull Path filePath, @NotNull IResolver resolver, @NotNull IResourceLoader loader) throws ModuleLoaderException {
+		return bundle(filePath, resolver, loader, BundlerOptions.DEFAULT);
+	}
+
+	/**
+	 * Bundles the module specified by the given path and its dependencies and returns the resulting
+	 * Script.
+	 *
+	 * @param filePath is the path to the input entry point module.
+	 * @param resolver how to resolve the path
+	 * @param loader   how to load modules
+	 * @param options  how to build the bundle
+	 * @return the resulting script
+	 * @throws ModuleLoaderException when the module fails to load
+	 * @throws BundleAbortedException when the bundle exceeds a limit set in the options, times out or is cancelled
+	 */
+	public static @NotNull Script bundle(@NotNull Path filePath, @NotNull IResolver resolver, @NotNull IResourceLoader loader, @NotNull BundlerOptions options) throws ModuleLoaderException {
+		BundleBudget budget = new BundleBudget(options);
+		String mod;
 		try {
-			return bundleString(loader.loadResource(filePath), filePath, resolver, loader);
+			mod = loader.loadResource(filePath);
 		} catch (IOException e) {
+			budget.check();
 			throw new ModuleLoaderException(filePath.toString(), e);
 		}
+		return bundleString(mod, filePath, resolver, loader, options, budget);
 	}
 
 	/**
@@ -121,32 +179,566 @@ public class Bundler {
 	 * @throws ModuleLoaderException
 	 */
 	public static @NotNull Script bundleString(@NotNull String mod, @NotNull Path filePath, @NotNull IResolver resolver, @NotNull IResourceLoader loader) throws ModuleLoaderException {
+		return bundleString(mod, filePath, resolver, loader, BundlerOptions.DEFAULT);
+	}
+
+	/**
+	 * Bundles the module provided as a string and along with its dependencies and returns the resulting
+	 * Script.
+	 * @param mod the string of the module
+	 * @param filePath path to the module
+	 * @param resolver how to resolve paths
+	 * @param loader how to load modules
+	 * @param options how to build the bundle
+	 * @return the resulting script
+	 * @throws ModuleLoaderException
+	 * @throws BundleAbortedException when the bundle exceeds a limit set in the options, times out or is cancelled
+	 */
+	public static @NotNull Script bundleString(@NotNull String mod, @NotNull Path filePath, @NotNull IResolver resolver, @NotNull IResourceLoader loader, @NotNull BundlerOptions options) throws ModuleLoaderException {
+		return bundleString(mod, filePath, resolver, loader, options, new BundleBudget(options));
+	}
+
+	private static @NotNull Script bundleString(@NotNull String mod, @NotNull Path filePath, @NotNull IResolver resolver, @NotNull IResourceLoader loader, @NotNull BundlerOptions options, @NotNull BundleBudget budget) throws ModuleLoaderException {
+		ModuleGraph graph = assignIds(loadGraph(mod, filePath, resolver, loader, options, false, needsSourceHashes(options), budget), options, budget);
+		ExpressionStatement bundled = bundleModules(graph, options, budget);
+		Script script = new Script(ImmutableList.empty(), ImmutableList.of(bundled));
+		return options.minify() ? Minifier.minify(script, true, graph.renameRuntime) : script;
+	}
+
+	/**
+	 * Bundles the module specified by the given path and its dependencies and returns the compact code of the
+	 * resulting script, generating the code of each module on the executor. The result is the same as
+	 * <code>CodeGen.codeGen(bundle(filePath, resolver, loader, options))</code>.
+	 *
+	 * @param filePath is the path to the input entry point module.
+	 * @param resolver how to resolve the path
+	 * @param loader   how to load modules
+	 * @param options  how to build the bundle
+	 * @param executor transforms and generates code for modules in parallel
+	 * @return the code of the resulting script
+	 * @throws ModuleLoaderException when the module fails to load
+	 * @throws BundleAbortedException when the bundle exceeds a limit set in the options, times out or is cancelled
+	 */
+	public static @NotNull String bundleToString(@NotNull Path filePath, @NotNull IResolver resolver, @NotNull IResourceLoader loader, @NotNull BundlerOptions options, @NotNull Executor executor)
+		throws ModuleLoaderException {
+		BundleBudget budget = new BundleBudget(options);
+		String mod;
+		try {
+			mod = loader.loadResource(filePath);
+		} catch (IOException e) {
+			budget.check();
+			throw new ModuleLoaderException(filePath.toString(), e);
+		}
+		LoadedGraph loaded = loadGraph(mod, filePath, resolver, loader, options, true, needsSourceHashes(options), budget);
+		ModuleGraph graph = assignIds(loaded, options, budget);
+		return assemble(graph, options, budget, generateDefinitions(graph, options, budget, executor));
+	}
+
+	/**
+	 * Loads, parses and resolves the module specified by the given path and its dependencies once, so that
+	 * several bundles can be generated from them, see {@link LoadedGraph#bundleToString}. Only the options
+	 * that control loading apply: side effects overrides, prefetching, raw passthrough and the limits,
+	 * timeout and cancellation of loading.
+	 *
+	 * @param filePath is the path to the input entry point module.
+	 * @param resolver how to resolve the path
+	 * @param loader   how to load modules
+	 * @param options  how to load modules
+	 * @return the loaded modules
+	 * @throws ModuleLoaderException when the module fails to load
+	 * @throws BundleAbortedException when loading exceeds a limit set in the options, times out or is cancelled
+	 */
+	public static @NotNull LoadedGraph loadGraph(@NotNull Path filePath, @NotNull IResolver resolver, @NotNull IResourceLoader loader, @NotNull BundlerOptions options)
+		throws ModuleLoaderException {
+		BundleBudget budget = new BundleBudget(options);
+		String mod;
+		try {
+			mod = loader.loadResource(filePath);
+		} catch (IOException e) {
+			budget.check();
+			throw new ModuleLoaderException(filePath.toString(), e);
+		}
+		return loadGraph(mod, filePath, resolver, loader, options, true, true, budget);
+	}
+
+	/**
+	 * Loads the module specified by the given path and its dependencies once and generates a bundle for each
+	 * variant, for example a debug and a production build. The code of all the variants is generated on the
+	 * executor at once, and every variant shares the parsed modules.
+	 *
+	 * @param filePath is the path to the input entry point module.
+	 * @param resolver how to resolve the path
+	 * @param loader   how to load modules
+	 * @param options  how to load modules, see {@link #loadGraph}
+	 * @param variants the options of each bundle by name, options that control loading are ignored
+	 * @param executor transforms and generates code for modules in parallel
+	 * @return the code of each bundle by name
+	 * @throws ModuleLoaderException when the module fails to load
+	 * @throws BundleAbortedException when a bundle exceeds a limit set in its options, times out or is cancelled
+	 */
+	public static @NotNull Map<String, String> bundleVariants(
+		@NotNull Path filePath,
+		@NotNull IResolver resolver,
+		@NotNull IResourceLoader loader,
+		@NotNull BundlerOptions options,
+		@NotNull Map<String, BundlerOptions> variants,
+		@NotNull Executor executor) throws ModuleLoaderException {
+		LoadedGraph loaded = loadGraph(filePath, resolver, loader, options);
+		Map<String, BundleBudget> budgets = new HashMap<>();
+		Map<String, ModuleGraph> graphs = new HashMap<>();
+		Map<String, List<CompletableFuture<String>>> definitions = new HashMap<>();
+		variants.forEach((name, variant) -> {
+			BundleBudget budget = new BundleBudget(variant);
+			ModuleGraph graph = assignIds(loaded, variant, budget);
+			budgets.put(name, budget);
+			graphs.put(name, graph);
+			definitions.put(name, generateDefinitions(graph, variant, budget, executor));
+		});
+		Map<String, String> bundles = new HashMap<>();
+		variants.forEach((name, variant) -> bundles.put(name, assemble(graphs.get(name), variant, budgets.get(name), definitions.get(name))));
+		return bundles;
+	}
+
+	// generates the compact code of a bundle from modules that have already been loaded
+	static @NotNull String bundleToString(@NotNull LoadedGraph loaded, @NotNull BundlerOptions options, @NotNull Executor executor) {
+		BundleBudget budget = new BundleBudget(options);
+		ModuleGraph graph = assignIds(loaded, options, budget);
+		return assemble(graph, options, budget, generateDefinitions(graph, options, budget, executor));
+	}
+
+	// generates the compact code of the bundle of a hot replacement session, recording the definition key of
+	// each module for later updates
+	static @NotNull String hotBundle(@NotNull LoadedGraph loaded, @NotNull BundlerOptions options, @NotNull Executor executor, @NotNull Map<String, String> definitionKeys) {
+		BundleBudget budget = new BundleBudget(options);
+		ModuleGraph graph = assignIds(loaded, options, budget);
+		String code = assemble(graph, options, budget, generateDefinitions(graph, options, budget, executor));
+		definitionKeys.clear();
+		graph.modules.keySet().forEach(id -> definitionKeys.put(id, graph.definitionKey(id, options)));
+		return code;
+	}
+
+	// generates the compact code of an update to a running hot replacement bundle, which defines the modules
+	// whose definitions changed since the definition keys were recorded and reruns them along with every
+	// module that imports them, directly or not. Nothing if no module changed.
+	static @NotNull Maybe<String> hotUpdate(@NotNull LoadedGraph loaded, @NotNull BundlerOptions options, @NotNull Executor executor, @NotNull Map<String, String> definitionKeys) {
+		BundleBudget budget = new BundleBudget(options);
+		ModuleGraph graph = assignIds(loaded, options, budget);
+		Map<String, String> keys = new HashMap<>();
+		graph.modules.keySet().forEach(id -> keys.put(id, graph.definitionKey(id, options)));
+		List<String> changed = graph.modules.keySet().stream()
+			.filter(id -> !keys.get(id).equals(definitionKeys.get(id)))
+			.sorted()
+			.collect(Collectors.toList());
+		if (changed.isEmpty()) {
+			return Maybe.empty();
+		}
+
+		Map<String, Set<String>> importers = new HashMap<>();
+		graph.modules.forEach((id, module) -> {
+			for (String dependency : collectDirectDependencies(module)) {
+				importers.computeIfAbsent(graph.importPathGensymMap.get(dependency), d -> new HashSet<>()).add(id);
+			}
+		});
+		Set<String> invalidated = new HashSet<>();
+		LinkedList<String> toInvalidate = new LinkedList<>(changed);
+		while (!toInvalidate.isEmpty()) {
+			String id = toInvalidate.remove();
+			if (invalidated.add(id)) {
+				toInvalidate.addAll(importers.getOrDefault(id, Collections.emptySet()));
+			}
+		}
+
+		// (function(require){"use strict";MODULES;return require.hot("entry",["invalidated",...])}(this.__bandolierHot))
+		// module ids are numbers or hashes and need no escaping
+		Script wrapperScript = new Script(ImmutableList.empty(), runtimeStatements("(function(require){\"use strict\";" +
+			MODULES_MARKER + ";return require.hot(\"" + graph.entryId + "\",[" +
+			invalidated.stream().sorted().map(id -> "\"" + id + "\"").collect(Collectors.joining(",")) +
+			"])}(this." + HOT_GLOBAL + "))"));
+		String wrapper = CodeGen.codeGen(options.minify() ? Minifier.minify(wrapperScript, true, graph.renameRuntime) : wrapperScript);
+		int modulesStart = wrapper.indexOf(MODULES_MARKER + ";");
+		StringBuilder code = new StringBuilder(wrapper.substring(0, modulesStart));
+		for (CompletableFuture<String> definition : generateDefinitions(graph, changed, options, budget, executor)) {
+			budget.check();
+			code.append(join(definition)).append(';');
+		}
+		code.append(wrapper.substring(modulesStart + MODULES_MARKER.length() + 1));
+		definitionKeys.clear();
+		definitionKeys.putAll(keys);
+		return Maybe.of(code.toString());
+	}
+
+	// starts generating the definition of each module on the executor, or takes it from the code cache
+	private static @NotNull List<CompletableFuture<String>> generateDefinitions(@NotNull ModuleGraph graph, @NotNull BundlerOptions options, @NotNull BundleBudget budget, @NotNull Executor executor) {
+		return generateDefinitions(graph, graph.modules.keySet(), options, budget, executor);
+	}
+
+	private static @NotNull List<CompletableFuture<String>> generateDefinitions(@NotNull ModuleGraph graph, @NotNull Iterable<String> ids, @NotNull BundlerOptions options, @NotNull BundleBudget budget, @NotNull Executor executor) {
+		List<CompletableFuture<String>> definitions = new ArrayList<>();
+		for (String id : ids) {
+			Module module = graph.modules.get(id);
+			if (graph.rawSources.containsKey(id)) {
+				definitions.add(CompletableFuture.completedFuture(rawDefinition(id, graph.rawSources.get(id), options, graph.renameRuntime)));
+				continue;
+			}
+			Maybe<String> key = graph.cacheKey(id, options);
+			Maybe<String> cached = key.bind(k -> options.codeCache().fromJust().get(k));
+			if (cached.isJust()) {
+				definitions.add(CompletableFuture.completedFuture(cached.fromJust()));
+				continue;
+			}
+			definitions.add(CompletableFuture.supplyAsync(() -> {
+				budget.check();
+				String code = generateDefinition(id, graph.importMappingRewriter.rewrite(module), options, graph.renameRuntime);
+				key.foreach(k -> options.codeCache().fromJust().put(k, code));
+				return code;
+			}, executor));
+		}
+		return definitions;
+	}
+
+	// waits for the definitions of the modules and wraps them in the runtime
+	private static @NotNull String assemble(@NotNull ModuleGraph graph, @NotNull BundlerOptions options, @NotNull BundleBudget budget, @NotNull List<CompletableFuture<String>> definitions) {
+		String[] wrapper = wrapperCode(graph.entryId, options, graph.renameRuntime);
+		StringBuilder code = new StringBuilder(wrapper[0]);
+		for (CompletableFuture<String> definition : definitions) {
+			budget.check();
+			code.append(join(definition)).append(';');
+		}
+		code.append(wrapper[1]);
+		return code.toString();
+	}
+
+	// waits for a definition, rethrowing the exception it failed with
+	private static @NotNull String join(@NotNull CompletableFuture<String> definition) {
+		try {
+			return definition.join();
+		} catch (CompletionException e) {
+			if (e.getCause() instanceof RuntimeException) {
+				throw (RuntimeException) e.getCause();
+			}
+			throw e;
+		}
+	}
+
+	// the compact code before and after the module definitions, each definition is followed by a semicolon
+	private static @NotNull String[] wrapperCode(@NotNull String rootPath, @NotNull BundlerOptions options, boolean renameRuntime) {
+		Script script = new Script(ImmutableList.empty(), ImmutableList.of(
+			anonymousFunctionCall(rootPath, ImmutableList.of(new ExpressionStatement(new IdentifierExpression(MODULES_MARKER))), options)));
+		String wrapper = CodeGen.codeGen(options.minify() ? Minifier.minify(script, true, renameRuntime) : script);
+		int modulesStart = wrapper.indexOf(MODULES_MARKER + ";");
+		return new String[] { wrapper.substring(0, modulesStart), wrapper.substring(modulesStart + MODULES_MARKER.length() + 1) };
+	}
+
+	// the compact code of the definition of a module whose imports have been mapped to ids
+	private static @NotNull String generateDefinition(@NotNull String id, @NotNull Module module, @NotNull BundlerOptions options, boolean renameRuntime) {
+		Statement definition = requireDefineStatement(id, ImportExportTransformer.transformModule(module));
+		if (options.minify()) {
+			definition = Minifier.minify(definition, true, renameRuntime);
+		}
+		return CodeGen.codeGen(new Script(ImmutableList.empty(), ImmutableList.of(definition)));
+	}
+
+	// the compact code of the definition of a module that is bundled from its source text
+	private static @NotNull String rawDefinition(@NotNull String id, @NotNull String source, @NotNull BundlerOptions options, boolean renameRuntime) {
+		Statement definition = requireDefineStatement(id, new Module(ImmutableList.empty(), ImmutableList.empty()));
+		String prologue = "";
+		if (options.minify()) {
+			// the source refers to the parameters by name, and to the runtime by the names it has before minification
+			definition = Minifier.minify(definition, false, renameRuntime);
+			if (renameRuntime) {
+				prologue = "var global=" + Minifier.RUNTIME_NAMES.get("global") + ",require=" + Minifier.RUNTIME_NAMES.get("require") + ";";
+			}
+		}
+		String empty = CodeGen.codeGen(new Script(ImmutableList.empty(), ImmutableList.of(definition)));
+		// the source may end with a line comment
+		return empty.substring(0, empty.length() - "})".length()) + prologue + source + "\n})";
+	}
+
+	// whether a module has no import or export declarations and can be bundled without parsing it
+	private static boolean isRaw(@NotNull String path, @NotNull String source, @NotNull BundlerOptions options) throws ModuleLoaderException {
+		if (!options.rawPassthrough() || ImportScanner.mayHaveModuleSyntax(source)) {
+			return false;
+		}
+		if (options.validateRawModules()) {
+			try {
+				Parser.parseModule(source);
+			} catch (JsError e) {
+				throw new ModuleLoaderException(path, e);
+			}
+		}
+		return true;
+	}
+
+	// loads, parses and resolves the module graph, modules without imports or exports are kept as source text
+	// if allowed by the options
+	private static @NotNull LoadedGraph loadGraph(@NotNull String mod, @NotNull Path filePath, @NotNull IResolver resolver, @NotNull IResourceLoader loader, @NotNull BundlerOptions options, boolean allowRaw, boolean hashSources, @NotNull BundleBudget budget) throws ModuleLoaderException {
+		Maybe<ImportPrefetcher> prefetcher = options.prefetchExecutor().map(executor -> new ImportPrefetcher(resolver, loader, options, executor, budget));
 		try {
+			budget.addModule(filePath.toString(), mod);
+			prefetcher.foreach(p -> p.prefetchImports(filePath.toString(), mod));
 			Module module = Parser.parseModule(mod);
-			Map<String, Module> modules = loadDependencies(module, filePath, resolver, loader);
+			Map<String, String> sourceHashes = new HashMap<>();
+			if (hashSources) {
+				sourceHashes.put(filePath.toString(), ModuleDeduplicator.sourceHash(mod));
+			}
+			Map<String, String> rawSources = new HashMap<>();
+			Set<String> runtimeNameUsers = new HashSet<>();
+			if (Minifier.mayUseRuntimeNames(mod)) {
+				runtimeNameUsers.add(filePath.toString());
+			}
+			Map<String, Module> modules = loadDependencies(module, filePath, resolver, loader, prefetcher, options, hashSources ? Maybe.of(sourceHashes) : Maybe.empty(), allowRaw ? Maybe.of(rawSources) : Maybe.empty(), runtimeNameUsers, budget);
+			return new LoadedGraph(filePath.toString(), modules, sourceHashes, rawSources, !runtimeNameUsers.isEmpty(), loader);
+		} catch (JsError e) {
+			throw new ModuleLoaderException(filePath.toString(), e);
+		} finally {
+			prefetcher.foreach(ImportPrefetcher::close);
+		}
+	}
+
+	// deduplicates and inlines the loaded modules as set by the options and assigns each bundled module an id
+	private static @NotNull ModuleGraph assignIds(@NotNull LoadedGraph loaded, @NotNull BundlerOptions options, @NotNull BundleBudget budget) {
+		Map<String, Module> modules = loaded.modules;
+		Map<String, String> sourceHashes = loaded.sourceHashes;
+		Map<String, String> rawSources = loaded.rawSources;
+
+		Map<String, String> canonicalPaths = new HashMap<>();
+		budget.check();
+		if (options.deduplicate()) {
+			canonicalPaths.putAll(new ModuleDeduplicator(loaded.loader).deduplicate(modules, sourceHashes, loaded.entryPath));
+			Map<String, List<String>> duplicates = ModuleDeduplicator.duplicates(canonicalPaths);
+			options.duplicatesListener().foreach(listener -> listener.accept(duplicates));
+		} else {
+			modules.keySet().forEach(absPath -> canonicalPaths.put(absPath, absPath));
+		}
 
-			// rather than bundle with absolute paths (a potential information leak) create a mapping
-			// of absolute paths to a unique name
-			Map<String, String> importPathGensymMap = new HashMap<>();
+		if (options.inlineConstants()) {
+			budget.check();
+			Map<String, Module> inlined = ConstantInliner.inline(modules, canonicalPaths, loaded.entryPath);
+			Map<String, String> inlinedHashes = new HashMap<>(sourceHashes);
+			inlined.forEach((absPath, m) -> {
+				// the generated code of a module now depends on the modules it inlines from
+				if (m != loaded.modules.get(absPath) && inlinedHashes.containsKey(absPath)) {
+					inlinedHashes.put(absPath, ModuleDeduplicator.sourceHash(inlinedHashes.get(absPath) + "\0" + CodeGen.codeGen(m)));
+				}
+			});
+			modules = inlined;
+			sourceHashes = inlinedHashes;
+		}
+
+		// rather than bundle with absolute paths (a potential information leak) create a mapping
+		// of absolute paths to a unique name, duplicate modules share the name of the module they are a
+		// copy of
+		Map<String, String> importPathGensymMap = new HashMap<>();
+		if (options.stableIds()) {
+			// sorted so that colliding hashes are extended the same way in every build
+			Set<String> usedIds = new HashSet<>();
+			modules.keySet().stream().filter(absPath -> canonicalPaths.get(absPath).equals(absPath)).sorted()
+				.forEach(absPath -> importPathGensymMap.put(absPath, stableId(absPath, usedIds)));
+		} else {
 			Integer moduleCount = 0;
 			for (String absPath : modules.keySet()) {
-				importPathGensymMap.put(absPath, (++moduleCount).toString());
+				if (canonicalPaths.get(absPath).equals(absPath)) {
+					importPathGensymMap.put(absPath, (++moduleCount).toString());
+				}
 			}
-			ImportMappingRewriter importMappingRewriter = new ImportMappingRewriter(importPathGensymMap);
+		}
+		for (String absPath : modules.keySet()) {
+			importPathGensymMap.put(absPath, importPathGensymMap.get(canonicalPaths.get(absPath)));
+		}
 
-			Map<String, Module> importMappedModules = new HashMap<>();
-			modules.forEach((absPath, m) -> {
-				importMappedModules.put(importPathGensymMap.get(absPath), importMappingRewriter.rewrite(m));
-			});
+		Map<String, Module> bundledModules = new HashMap<>();
+		Map<String, String> bundledSourceHashes = new HashMap<>();
+		Map<String, String> bundledRawSources = new HashMap<>();
+		Map<String, String> bundledPaths = new HashMap<>();
+		for (Map.Entry<String, Module> entry : modules.entrySet()) {
+			String absPath = entry.getKey();
+			if (canonicalPaths.get(absPath).equals(absPath)) {
+				String id = importPathGensymMap.get(absPath);
+				bundledModules.put(id, entry.getValue());
+				bundledPaths.put(id, absPath);
+				if (sourceHashes.containsKey(absPath)) {
+					bundledSourceHashes.put(id, sourceHashes.get(absPath));
+				}
+				if (rawSources.containsKey(absPath)) {
+					bundledRawSources.put(id, rawSources.get(absPath));
+				}
+			}
+		}
 
-			ExpressionStatement bundled = bundleModules(importPathGensymMap.get(filePath.toString()), importMappedModules);
-			return new Script(ImmutableList.empty(), ImmutableList.of(bundled));
-		} catch (JsError e) {
-			throw new ModuleLoaderException(filePath.toString(), e);
+		options.moduleIdsListener().foreach(listener -> listener.accept(bundledPaths));
+		// hot updates may add modules that use the names, and a hot bundle cannot rename its runtime later
+		boolean renameRuntime = !loaded.usesRuntimeNames && !options.hotReplacement();
+		return new ModuleGraph(importPathGensymMap.get(loaded.entryPath), bundledModules, bundledSourceHashes, bundledRawSources, importPathGensymMap, renameRuntime);
+	}
+
+	// the shortest prefix of the hash of a module path, of at least STABLE_ID_LENGTH characters, that is not
+	// yet used as an id
+	private static @NotNull String stableId(@NotNull String absPath, @NotNull Set<String> usedIds) {
+		String hash = ModuleDeduplicator.sourceHash(absPath);
+		for (int length = STABLE_ID_LENGTH; length <= hash.length(); ++length) {
+			if (usedIds.add(hash.substring(0, length))) {
+				return hash.substring(0, length);
+			}
 		}
+		// the same path twice
+		throw new IllegalArgumentException(absPath);
 	}
 
+	private static boolean needsSourceHashes(@NotNull BundlerOptions options) {
+		return options.deduplicate() || options.codeCache().isJust();
+	}
 
+	private static final class ModuleGraph {
+		@NotNull
+		final String entryId;
+		// from module id to module, imports are still absolute paths
+		@NotNull
+		final Map<String, Module> modules;
+		// from module id to the hash of its source, if needed
+		@NotNull
+		final Map<String, String> sourceHashes;
+		// from module id to the source of modules bundled without parsing, whose modules are empty
+		@NotNull
+		final Map<String, String> rawSources;
+		@NotNull
+		final Map<String, String> importPathGensymMap;
+		@NotNull
+		final ImportMappingRewriter importMappingRewriter;
+		// whether the runtime is renamed when minifying, it is not if a module may use the names
+		final boolean renameRuntime;
+
+		ModuleGraph(@NotNull String entryId, @NotNull Map<String, Module> modules, @NotNull Map<String, String> sourceHashes, @NotNull Map<String, String> rawSources, @NotNull Map<String, String> importPathGensymMap, boolean renameRuntime) {
+			this.entryId = entryId;
+			this.modules = modules;
+			this.sourceHashes = sourceHashes;
+			this.rawSources = rawSources;
+			this.importPathGensymMap = importPathGensymMap;
+			this.importMappingRewriter = new ImportMappingRewriter(importPathGensymMap);
+			this.renameRuntime = renameRuntime;
+		}
+
+		@NotNull
+		Maybe<String> cacheKey(@NotNull String id, @NotNull BundlerOptions options) {
+			if (options.codeCache().isNothing()) {
+				return Maybe.empty();
+			}
+			return Maybe.of(this.definitionKey(id, options));
+		}
+
+		// changes whenever the generated definition of the module changes, needs source hashes
+		@NotNull
+		String definitionKey(@NotNull String id, @NotNull BundlerOptions options) {
+			return GeneratedCodeCache.key(this.sourceHashes.get(id), id, collectDirectDependencies(this.modules.get(id)), this.importPathGensymMap, options.minify(), this.renameRuntime);
+		}
+	}
+
+	/**
+	 * Bundles the module specified by the given path and its dependencies, writing each module to the output
+	 * as soon as it has been transformed. Unlike {@link #bundle}, only the syntax tree of the module being
+	 * processed is kept in memory along with a table of module ids, so memory use is bounded by the largest
+	 * module rather than by the whole program. The output is the compact code that {@link CodeGen#codeGen}
+	 * would generate for the bundled script, with modules numbered in the order they are found unless module ids
+	 * are {@link BundlerOptions#withStableIds stable}.
+	 *
+	 * Deduplication and constant inlining need the whole module graph and are not applied in this mode. If a
+	 * module fails to load, part of the bundle will already have been written.
+	 *
+	 * @param filePath is the path to the input entry point module.
+	 * @param resolver how to resolve the path
+	 * @param loader   how to load modules
+	 * @param options  how to build the bundle
+	 * @param out      receives the bundle
+	 * @throws ModuleLoaderException when a module fails to load
+	 * @throws IOException when the bundle cannot be written
+	 * @throws BundleAbortedException when the bundle exceeds a limit set in the options, times out or is cancelled
+	 */
+	public static void bundleToWriter(@NotNull Path filePath, @NotNull IResolver resolver, @NotNull IResourceLoader loader, @NotNull BundlerOptions options, @NotNull Writer out)
+		throws ModuleLoaderException, IOException {
+		Map<String, String> importPathGensymMap = new HashMap<>();
+		LinkedList<String> toLoad = new LinkedList<>();
+		String entryId = options.stableIds() ? stableId(filePath.toString(), new HashSet<>()) : "1";
+		importPathGensymMap.put(filePath.toString(), entryId);
+		toLoad.add(filePath.toString());
+
+		BundleBudget budget = new BundleBudget(options);
+		// modules are only seen after the runtime has been written, so its names are kept
+		String[] wrapper = wrapperCode(entryId, options, false);
+		out.write(wrapper[0]);
+
+		Maybe<ImportPrefetcher> prefetcher = options.prefetchExecutor().map(executor -> new ImportPrefetcher(resolver, loader, options, executor, budget));
+		try {
+			streamModules(toLoad, importPathGensymMap, resolver, loader, prefetcher, options, budget, out);
+		} finally {
+			prefetcher.foreach(ImportPrefetcher::close);
+		}
+
+		out.write(wrapper[1]);
+
+		options.moduleIdsListener().foreach(listener -> {
+			Map<String, String> paths = new HashMap<>();
+			importPathGensymMap.forEach((absPath, id) -> paths.put(id, absPath));
+			listener.accept(paths);
+		});
+	}
+
+	private static void streamModules(
+		@NotNull LinkedList<String> toLoad,
+		@NotNull Map<String, String> importPathGensymMap,
+		@NotNull IResolver resolver,
+		@NotNull IResourceLoader loader,
+		@NotNull Maybe<ImportPrefetcher> prefetcher,
+		@NotNull BundlerOptions options,
+		@NotNull BundleBudget budget,
+		@NotNull Writer out) throws ModuleLoaderException, IOException {
+		// imports resolved while prefetching are not resolved again
+		ImportResolvingRewriter rewriter = new ImportResolvingRewriter(prefetcher.isJust() ? prefetcher.fromJust().resolver() : resolver);
+		ImportMappingRewriter importMappingRewriter = new ImportMappingRewriter(importPathGensymMap);
+		Set<String> usedIds = new HashSet<>(importPathGensymMap.values());
+		while (!toLoad.isEmpty()) {
+			String absPath = toLoad.remove();
+			String id = importPathGensymMap.get(absPath);
+			String source;
+			try {
+				source = loadSource(absPath, loader, prefetcher);
+			} catch (IOException e) {
+				budget.check();
+				throw new ModuleLoaderException(absPath, e);
+			}
+			budget.addModule(absPath, source);
+			if (!JsonModule.isJson(absPath) && isRaw(absPath, source, options)) {
+				out.write(rawDefinition(id, source, options, false));
+				out.write(';');
+				continue;
+			}
+			Module module;
+			try {
+				module = parseModule(absPath, source);
+			} catch (JsError e) {
+				throw new ModuleLoaderException(absPath, e);
+			}
+			module = pruneUnusedImports(rewriter.rewrite(module, Paths.get(absPath).getParent()), resolver, options);
+			// dependencies are numbered before the module is mapped, so that every import has an id
+			ImmutableList<String> dependencies = collectDirectDependencies(module);
+			for (String dependency : dependencies) {
+				if (!importPathGensymMap.containsKey(dependency)) {
+					importPathGensymMap.put(dependency, options.stableIds() ? stableId(dependency, usedIds) : Integer.toString(importPathGensymMap.size() + 1));
+					toLoad.add(dependency);
+				}
+			}
+			Maybe<String> key = options.codeCache().map(cache ->
+				GeneratedCodeCache.key(ModuleDeduplicator.sourceHash(source), id, dependencies, importPathGensymMap, options.minify(), false));
+			Maybe<String> cached = key.bind(k -> options.codeCache().fromJust().get(k));
+			String code;
+			if (cached.isJust()) {
+				code = cached.fromJust();
+			} else {
+				code = generateDefinition(id, importMappingRewriter.rewrite(module), options, false);
+				key.foreach(k -> options.codeCache().fromJust().put(k, code));
+			}
+			out.write(code);
+			out.write(';');
+		}
+	}
 
 	/**
 	 * Recursively loads all the modules referenced by the input module.
@@ -154,16 +746,24 @@ public class Bundler {
 	 * @param filePath is the path to the input module.
 	 * @param resolver how to resolve the path
 	 * @param loader   how to load
+	 * @param prefetcher loads modules ahead of the parser, if prefetching
+	 * @param options  which imports may be pruned
+	 * @param sourceHashes receives the source hash of each loaded module, if needed
+	 * @param rawSources receives the source of modules that are loaded as empty modules and bundled as they are,
+	 *                   if allowed
+	 * @param runtimeNameUsers receives the paths of modules whose source may use the names of the minified runtime
+	 * @param budget   accounts for every loaded module
 	 * @return is a map from module names (path to modules) to the loaded modules.
 	 * @throws ModuleLoaderException when the module fails to load
 	 */
-	private static @NotNull Map<String, Module> loadDependencies(@NotNull Module module, @NotNull Path filePath, @NotNull IResolver resolver, @NotNull IResourceLoader loader)
+	private static @NotNull Map<String, Module> loadDependencies(@NotNull Module module, @NotNull Path filePath, @NotNull IResolver resolver, @NotNull IResourceLoader loader, @NotNull Maybe<ImportPrefetcher> prefetcher, @NotNull BundlerOptions options, @NotNull Maybe<Map<String, String>> sourceHashes, @NotNull Maybe<Map<String, String>> rawSources, @NotNull Set<String> runtimeNameUsers, @NotNull BundleBudget budget)
 		throws ModuleLoaderException {
 
 		Map<String, Module> loadedModules = new HashMap<>();
 		LinkedList<String> toLoad = new LinkedList<>();
-		ImportResolvingRewriter rewriter = new ImportResolvingRewriter(resolver);
-		Module rewritten = rewriter.rewrite(module, filePath.getParent());
+		// imports resolved while prefetching are not resolved again
+		ImportResolvingRewriter rewriter = new ImportResolvingRewriter(prefetcher.isJust() ? prefetcher.fromJust().resolver() : resolver);
+		Module rewritten = pruneUnusedImports(rewriter.rewrite(module, filePath.getParent()), resolver, options);
 		loadedModules.put(filePath.toString(), rewritten);
 		toLoad.add(filePath.toString());
 
@@ -172,11 +772,24 @@ public class Bundler {
 			for (String dependency : collectDirectDependencies(loadedModules.get(root))) {
 				if (!loadedModules.containsKey(dependency)) {
 					try {
-						module = Parser.parseModule(loader.loadResource(Paths.get(dependency)));
+						String source = loadSource(dependency, loader, prefetcher);
+						budget.addModule(dependency, source);
+						sourceHashes.foreach(hashes -> hashes.put(dependency, ModuleDeduplicator.sourceHash(source)));
+						if (Minifier.mayUseRuntimeNames(source)) {
+							runtimeNameUsers.add(dependency);
+						}
+						if (rawSources.isJust() && !JsonModule.isJson(dependency) && isRaw(dependency, source, options)) {
+							rawSources.fromJust().put(dependency, source);
+							loadedModules.put(dependency, new Module(ImmutableList.empty(), ImmutableList.empty()));
+							continue;
+						}
+						module = parseModule(dependency, source);
 					} catch (IOException | JsError e) {
+						// loaders may fail with an IOException when interrupted
+						budget.check();
 						throw new ModuleLoaderException(dependency, e);
 					}
-					rewritten = rewriter.rewrite(module, Paths.get(dependency).getParent());
+					rewritten = pruneUnusedImports(rewriter.rewrite(module, Paths.get(dependency).getParent()), resolver, options);
 					loadedModules.put(dependency, rewritten);
 					toLoad.add(dependency);
 				}
@@ -186,6 +799,69 @@ public class Bundler {
 		return loadedModules;
 	}
 
+	/**
+	 * Removes imports of side effect free modules that do not bind anything the module uses, so that the
+	 * imported module (and anything only it depends on) is never loaded. Re-exports are always kept.
+	 *
+	 * @param module a module whose imports have already been resolved
+	 * @param resolver reports which modules have side effects
+	 * @param options may override what the resolver reports
+	 * @return the module without its unused imports
+	 */
+	static @NotNull Module pruneUnusedImports(@NotNull Module module, @NotNull IResolver resolver, @NotNull BundlerOptions options) {
+		ImmutableList<ImportDeclaration> candidates = module.items
+			.filter(s -> s instanceof ImportDeclaration)
+			.map(s -> (ImportDeclaration) s)
+			.filter(s -> !hasSideEffects(s.getModuleSpecifier(), resolver, options));
+		if (candidates.isEmpty()) {
+			return module;
+		}
+
+		Scope moduleScope = ScopeAnalyzer.analyze(module).children.maybeHead().fromJust();
+		Set<String> locallyExported = new HashSet<>();
+		module.items.foreach(s -> {
+			if (s instanceof ExportFrom && ((ExportFrom) s).getModuleSpecifier().isNothing()) {
+				((ExportFrom) s).getNamedExports().foreach(e -> locallyExported.add(e.getName().orJust(e.getExportedName())));
+			}
+		});
+		// the scope analyzer does not declare namespace imports, references to those pass through the module scope
+		F<BindingIdentifier, Boolean> isUsed = binding -> locallyExported.contains(binding.getName()) ||
+			moduleScope.lookupVariable(binding.getName()).maybe(
+				moduleScope.through.get(binding.getName()).isJust(), v -> v.references.isNotEmpty());
+
+		Set<ImportDeclaration> unused = Collections.newSetFromMap(new IdentityHashMap<>());
+		candidates.foreach(declaration -> {
+			ImmutableList<BindingIdentifier> bindings;
+			if (declaration instanceof Import) {
+				bindings = ((Import) declaration).getNamedImports().map(ImportSpecifier::getBinding)
+					.append(((Import) declaration).getDefaultBinding().toList());
+			} else {
+				bindings = ((ImportNamespace) declaration).getDefaultBinding().toList()
+					.cons(((ImportNamespace) declaration).getNamespaceBinding());
+			}
+			if (!bindings.exists(isUsed)) {
+				unused.add(declaration);
+			}
+		});
+		if (unused.isEmpty()) {
+			return module;
+		}
+		return new Module(module.directives, module.items.filter(s -> !unused.contains(s)));
+	}
+
+	private static @NotNull Module parseModule(@NotNull String path, @NotNull String source) throws JsError, ModuleLoaderException {
+		return JsonModule.isJson(path) ? JsonModule.toModule(path, source) : Parser.parseModule(source);
+	}
+
+	private static @NotNull String loadSource(@NotNull String path, @NotNull IResourceLoader loader, @NotNull Maybe<ImportPrefetcher> prefetcher) throws IOException {
+		return prefetcher.isJust() ? prefetcher.fromJust().load(path) : loader.loadResource(Paths.get(path));
+	}
+
+	static boolean hasSideEffects(@NotNull String path, @NotNull IResolver resolver, @NotNull BundlerOptions options) {
+		Maybe<Boolean> override = options.sideEffectsOverride(path);
+		return override.isJust() ? override.fromJust() : resolver.hasSideEffects(path);
+	}
+
 	public static ImmutableList<String> collectDirectDependencies(@NotNull Module m) {
 		return m.items.bind(s -> {
 			if (s instanceof Import) {
@@ -202,16 +878,22 @@ public class Bundler {
 	}
 
 	@NotNull
-	private static ExpressionStatement bundleModules(@NotNull String filePath, @NotNull Map<String, Module> modules) {
-		return anonymousFunctionCall(filePath, modules);
+	private static ExpressionStatement bundleModules(@NotNull ModuleGraph graph, @NotNull BundlerOptions options, @NotNull BundleBudget budget) {
+		ImmutableList<Statement> requireStatements = ImmutableList.from(
+			graph.modules.entrySet().stream().map(x -> {
+				budget.check();
+				Node reduced = ImportExportTransformer.transformModule(graph.importMappingRewriter.rewrite(x.getValue()));
+				return (Statement) requireDefineStatement(x.getKey(), (Module) reduced);
+			}).collect(Collectors.toList()));
+		return anonymousFunctionCall(graph.entryId, requireStatements, options);
 	}
 
 	/* The following functions create the wrapping (mostly static) code in the output script. */
 
 	//(function(global){ ... }.call(this, this));
-	private static ExpressionStatement anonymousFunctionCall(String rootPath, Map<String, Module> modules) {
+	private static ExpressionStatement anonymousFunctionCall(String rootPath, ImmutableList<Statement> requireStatements, BundlerOptions options) {
 		StaticMemberExpression anonymousCall =
-			new StaticMemberExpression("call", anonymousFunctionExpression(rootPath, modules));
+			new StaticMemberExpression("call", anonymousFunctionExpression(rootPath, requireStatements, options));
 		ImmutableList<SpreadElementExpression> params = ImmutableList.of(new ThisExpression(), new ThisExpression());
 		CallExpression callExpression = new CallExpression(anonymousCall, params);
 
@@ -219,22 +901,23 @@ public class Bundler {
 	}
 
 	// function(global) {...}
-	private static FunctionExpression anonymousFunctionExpression(String rootPath, Map<String, Module> modules) {
+	private static FunctionExpression anonymousFunctionExpression(String rootPath, ImmutableList<Statement> requireStatements, BundlerOptions options) {
 		BindingIdentifier globalIden = new BindingIdentifier("global");
 		FormalParameters params = new FormalParameters(ImmutableList.of(globalIden), Maybe.empty());
 
-		LinkedList<Statement> requireStatements =
-			modules.entrySet().stream().map(x -> {
-				Node reduced = ImportExportTransformer.transformModule(x.getValue());
-				return requireDefineStatement(x.getKey(), (Module) reduced);
-			}).collect(Collectors.toCollection(LinkedList::new));
-		ImmutableList<Statement> statements = ImmutableList.from(requireStatements);
+		ImmutableList<Statement> statements = requireStatements;
 		statements = statements.append(ImmutableList.of(requireCall(rootPath)));
+		if (options.hotReplacement()) {
+			statements = hotDefinitions().append(statements);
+		}
 		statements = statements.cons(requireDefineDefinition());
 		statements = statements.cons(requireResolveDefinition());
 		statements = statements.cons(initializeRequireCache());
 		statements = statements.cons(initializeRequireModules());
-		statements = statements.cons(requireFunctionDeclaration());
+		if (options.profile()) {
+			statements = statements.cons(profileDeclaration());
+		}
+		statements = statements.cons(requireFunctionDeclaration(options));
 
 		FunctionBody body = new FunctionBody(ImmutableList.of(new Directive("use strict")), statements);
 
@@ -242,7 +925,7 @@ public class Bundler {
 	}
 
 	//function require(file,parentModule){ ... }
-	private static FunctionDeclaration requireFunctionDeclaration() {
+	private static FunctionDeclaration requireFunctionDeclaration(BundlerOptions options) {
 		BindingIdentifier requireIden = new BindingIdentifier("require");
 		BindingIdentifier fileParamIden = new BindingIdentifier("file");
 		BindingIdentifier parentModuleIden = new BindingIdentifier("parentModule");
@@ -252,9 +935,9 @@ public class Bundler {
 		ImmutableList<Statement> statements = ImmutableList.empty();
 		statements = statements.cons(returnRequire());
 		statements = statements.cons(moduleLoaded());
-		statements = statements.cons(resolvedCall());
+		statements = options.profile() ? profiledResolvedCall().append(statements) : statements.cons(resolvedCall());
 		statements = statements.cons(cacheExports());
-		statements = statements.cons(dirnameDeclaration());
+		statements = statements.cons(options.minify() ? emptyDirnameDeclaration() : dirnameDeclaration());
 		statements = statements.cons(checkParentModuleIf());
 		statements = statements.cons(moduleObjectDeclaration());
 		statements = statements.cons(checkResolvedIf());
@@ -386,6 +1069,12 @@ public class Bundler {
 		return new VariableDeclarationStatement(declaration);
 	}
 
+	// var dirname="";
+	// where module ids never have a directory, and may be numbers
+	private static Statement emptyDirnameDeclaration() {
+		return runtimeStatements("var dirname=\"\";").maybeHead().fromJust();
+	}
+
 	// require.cache[file]=module$.exports;
 	private static ExpressionStatement cacheExports() {
 		IdentifierExpression requireIden = new IdentifierExpression("require");
@@ -417,6 +1106,49 @@ public class Bundler {
 		return new ExpressionStatement(callExpression);
 	}
 
+	// var start$=profile$.now(),outer$=profile$.nested;
+	// profile$.order.push(file);
+	// profile$.nested=0;
+	// try{resolved.call(void 0,module$,module$.exports,dirname,file)}finally{
+	//    var total$=profile$.now()-start$;
+	//    profile$.modules[file]={self:total$-profile$.nested,total:total$};
+	//    profile$.nested=outer$+total$;
+	// }
+	// where nested accumulates the total time of the modules required while evaluating a module
+	private static ImmutableList<Statement> profiledResolvedCall() {
+		ImmutableList<Statement> before = runtimeStatements(
+			"var start$=profile$.now(),outer$=profile$.nested;profile$.order.push(file);profile$.nested=0;");
+		ImmutableList<Statement> after = runtimeStatements(
+			"var total$=profile$.now()-start$;profile$.modules[file]={self:total$-profile$.nested,total:total$};profile$.nested=outer$+total$;");
+		TryFinallyStatement timed = new TryFinallyStatement(new Block(ImmutableList.of(resolvedCall())), Maybe.empty(), new Block(after));
+		return before.append(ImmutableList.of(timed));
+	}
+
+	// var profile$=global.__bandolierProfile={order:[],modules:{},nested:0,
+	//    now:typeof performance!=="undefined"&&performance.now?function(){return performance.now()}:Date.now};
+	private static Statement profileDeclaration() {
+		return runtimeStatements("var profile$=global." + PROFILE_GLOBAL + "={order:[],modules:{},nested:0," +
+			"now:typeof performance!==\"undefined\"&&performance.now?function(){return performance.now()}:Date.now};").maybeHead().fromJust();
+	}
+
+	// require.hot=function(entry,invalidated){
+	//    for(var i=0;i<invalidated.length;++i)delete require.cache[invalidated[i]];return require(entry)};
+	// global.__bandolierHot=require;
+	private static ImmutableList<Statement> hotDefinitions() {
+		return runtimeStatements("require.hot=function(entry,invalidated){" +
+			"for(var i=0;i<invalidated.length;++i)delete require.cache[invalidated[i]];return require(entry)};" +
+			"global." + HOT_GLOBAL + "=require;");
+	}
+
+	// the statements of runtime code that is simpler to write as source than as a syntax tree
+	private static ImmutableList<Statement> runtimeStatements(String source) {
+		try {
+			return Parser.parseScript(source).getStatements();
+		} catch (JsError e) {
+			throw new AssertionError(e);
+		}
+	}
+
 	// module$.loaded=true;
 	private static ExpressionStatement moduleLoaded() {
 		IdentifierExpression moduleIden = new IdentifierExpression("module$");
@@ -0,0 +1,429 @@
+/*
+ * Copyright 2016 Shape Security, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.shapesecurity.bandolier;
+
+import com.shapesecurity.functional.data.ImmutableList;
+import com.shapesecurity.functional.data.Maybe;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.nio.file.FileSystems;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Options controlling how a bundle is built. Instances are immutable, each <code>with</code> method returns
+ * an updated copy.
+ */
+public class BundlerOptions implements Cloneable {
+	@NotNull
+	public static final BundlerOptions DEFAULT = new BundlerOptions();
+
+	@NotNull
+	private ImmutableList<SideEffectsOverride> sideEffectsOverrides = ImmutableList.empty();
+
+	private boolean deduplicate = false;
+
+	@NotNull
+	private Maybe<Consumer<Map<String, List<String>>>> duplicatesListener = Maybe.empty();
+
+	@NotNull
+	private Maybe<GeneratedCodeCache> codeCache = Maybe.empty();
+
+	@NotNull
+	private Maybe<Executor> prefetchExecutor = Maybe.empty();
+
+	private boolean rawPassthrough = false;
+
+	private boolean validateRawModules = false;
+
+	private boolean profile = false;
+
+	private boolean inlineConstants = false;
+
+	private boolean minify = false;
+
+	private boolean stableIds = false;
+
+	private boolean hotReplacement = false;
+
+	@NotNull
+	private Maybe<Consumer<Map<String, String>>> moduleIdsListener = Maybe.empty();
+
+	private int maxModules = Integer.MAX_VALUE;
+
+	private long maxSourceBytes = Long.MAX_VALUE;
+
+	private long maxFileBytes = Long.MAX_VALUE;
+
+	@NotNull
+	private Maybe<Long> timeoutNanos = Maybe.empty();
+
+	@NotNull
+	private Maybe<CancellationToken> cancellation = Maybe.empty();
+
+	/**
+	 * Overrides whether modules with a path matching the glob may have side effects, regardless of what the
+	 * resolver (for example a <code>package.json</code> <code>sideEffects</code> field) reports. Later
+	 * overrides take precedence over earlier ones.
+	 * @param glob a {@link java.nio.file.FileSystem#getPathMatcher glob} matched against resolved module paths
+	 * @param hasSideEffects false if unused imports of matching modules may be dropped from the bundle
+	 * @return the updated options
+	 */
+	@NotNull
+	public BundlerOptions withSideEffects(@NotNull String glob, boolean hasSideEffects) {
+		BundlerOptions copy = this.copy();
+		copy.sideEffectsOverrides =
+			this.sideEffectsOverrides.cons(new SideEffectsOverride(FileSystems.getDefault().getPathMatcher("glob:" + glob), hasSideEffects));
+		return copy;
+	}
+
+	@NotNull
+	Maybe<Boolean> sideEffectsOverride(@NotNull String path) {
+		return this.sideEffectsOverrides
+			.find(o -> o.matcher.matches(Paths.get(path)))
+			.map(o -> o.hasSideEffects);
+	}
+
+	/**
+	 * Bundles a single copy of modules that are duplicated in the module graph, see {@link ModuleDeduplicator}.
+	 * Note that duplicated modules will then share their state.
+	 * @param deduplicate whether to remove duplicate modules
+	 * @return the updated options
+	 */
+	@NotNull
+	public BundlerOptions withDeduplication(boolean deduplicate) {
+		BundlerOptions copy = this.copy();
+		copy.deduplicate = deduplicate;
+		return copy;
+	}
+
+	/**
+	 * Reports the duplicates removed from each bundle built with these options.
+	 * @param listener receives a map from each bundled module to the paths of its removed duplicates
+	 * @return the updated options
+	 */
+	@NotNull
+	public BundlerOptions withDuplicatesListener(@NotNull Consumer<Map<String, List<String>>> listener) {
+		BundlerOptions copy = this.copy();
+		copy.duplicatesListener = Maybe.of(listener);
+		return copy;
+	}
+
+	/**
+	 * Reuses the generated code of modules that have not changed since an earlier bundle. Only applies when
+	 * generating code directly, with {@link Bundler#bundleToString} or {@link Bundler#bundleToWriter}.
+	 * @param cache holds the generated code of modules, usually shared by successive builds
+	 * @return the updated options
+	 */
+	@NotNull
+	public BundlerOptions withCodeCache(@NotNull GeneratedCodeCache cache) {
+		BundlerOptions copy = this.copy();
+		copy.codeCache = Maybe.of(cache);
+		return copy;
+	}
+
+	/**
+	 * Loads the modules a module imports while it is still being parsed, overlapping file system or network
+	 * latency with parsing. See {@link ImportScanner}. The resolver and loader must be thread-safe.
+	 * @param executor resolves and loads modules ahead of the parser
+	 * @return the updated options
+	 */
+	@NotNull
+	public BundlerOptions withPrefetch(@NotNull Executor executor) {
+		BundlerOptions copy = this.copy();
+		copy.prefetchExecutor = Maybe.of(executor);
+		return copy;
+	}
+
+	/**
+	 * Bundles modules without any <code>import</code> or <code>export</code> words (for example ES5 scripts in
+	 * <code>node_modules</code>) as they are, without parsing them or generating their code. Only applies when
+	 * generating code directly, with {@link Bundler#bundleToString} or {@link Bundler#bundleToWriter}, and never
+	 * to the entry point. Syntax errors in such modules are not reported unless they are also validated.
+	 * @param passthrough whether to bundle modules without module syntax as they are
+	 * @return the updated options
+	 * @see #withRawValidation
+	 */
+	@NotNull
+	public BundlerOptions withRawPassthrough(boolean passthrough) {
+		BundlerOptions copy = this.copy();
+		copy.rawPassthrough = passthrough;
+		return copy;
+	}
+
+	/**
+	 * Parses modules that are bundled as they are to report syntax errors, which still skips transforming them
+	 * and generating their code.
+	 * @param validate whether to parse modules bundled as they are
+	 * @return the updated options
+	 * @see #withRawPassthrough
+	 */
+	@NotNull
+	public BundlerOptions withRawValidation(boolean validate) {
+		BundlerOptions copy = this.copy();
+		copy.validateRawModules = validate;
+		return copy;
+	}
+
+	/**
+	 * Inlines constants with literal values and small functions of their parameters into the modules that
+	 * import them, and removes exports that are no longer imported, see {@link ConstantInliner}. Like
+	 * deduplication, this needs the whole module graph and is not applied by {@link Bundler#bundleToWriter}.
+	 * @param inline whether to inline trivial exports
+	 * @return the updated options
+	 */
+	@NotNull
+	public BundlerOptions withConstantInlining(boolean inline) {
+		BundlerOptions copy = this.copy();
+		copy.inlineConstants = inline;
+		return copy;
+	}
+
+	/**
+	 * Instruments the runtime of the bundle to record how long each module takes to evaluate, see
+	 * {@link Bundler#PROFILE_GLOBAL}. Modules are recorded by id, use {@link #withModuleIdsListener} to map them
+	 * back to paths. Bundles built without profiling have no instrumentation.
+	 * @param profile whether to instrument the runtime
+	 * @return the updated options
+	 */
+	@NotNull
+	public BundlerOptions withProfiling(boolean profile) {
+		BundlerOptions copy = this.copy();
+		copy.profile = profile;
+		return copy;
+	}
+
+	/**
+	 * Shortens the code of the bundle for production: variables declared in modules and in the runtime are
+	 * renamed to short names, and module ids are written as numbers, see {@link Minifier}. Modules bundled as
+	 * they are keep their names. Modules that refer to a global named <code>r$</code>, <code>g$</code> or
+	 * <code>p$</code> refer to the runtime instead.
+	 * @param minify whether to shorten the names in the bundle
+	 * @return the updated options
+	 */
+	@NotNull
+	public BundlerOptions withMinification(boolean minify) {
+		BundlerOptions copy = this.copy();
+		copy.minify = minify;
+		return copy;
+	}
+
+	/**
+	 * Identifies modules by a hash of their path rather than by their position in the module graph, so a module
+	 * keeps its id when other modules are added, removed or reordered between builds.
+	 * @param stable whether to derive module ids from module paths
+	 * @return the updated options
+	 */
+	@NotNull
+	public BundlerOptions withStableIds(boolean stable) {
+		BundlerOptions copy = this.copy();
+		copy.stableIds = stable;
+		return copy;
+	}
+
+	/**
+	 * Adds a hook to the runtime of the bundle that updates built with {@link HotBundle} use to replace changed
+	 * modules without reloading the bundle, see {@link Bundler#HOT_GLOBAL}. Implies {@link #withStableIds stable
+	 * ids}, which updates rely on to refer to the modules of the running bundle.
+	 * @param hot whether to add the hot replacement hook
+	 * @return the updated options
+	 */
+	@NotNull
+	public BundlerOptions withHotReplacement(boolean hot) {
+		BundlerOptions copy = this.copy();
+		copy.hotReplacement = hot;
+		return copy;
+	}
+
+	/**
+	 * Reports the id given to each module in each bundle built with these options.
+	 * @param listener receives a map from module ids to the paths of the bundled modules
+	 * @return the updated options
+	 */
+	@NotNull
+	public BundlerOptions withModuleIdsListener(@NotNull Consumer<Map<String, String>> listener) {
+		BundlerOptions copy = this.copy();
+		copy.moduleIdsListener = Maybe.of(listener);
+		return copy;
+	}
+
+	/**
+	 * Limits the number of modules in a bundle, including the entry point and modules bundled as they are.
+	 * Bundles with more modules fail with a {@link BundleAbortedException}.
+	 * @param maxModules the maximum number of modules
+	 * @return the updated options
+	 */
+	@NotNull
+	public BundlerOptions withMaxModules(int maxModules) {
+		BundlerOptions copy = this.copy();
+		copy.maxModules = maxModules;
+		return copy;
+	}
+
+	/**
+	 * Limits the total size of the sources of a bundle, in UTF-8 bytes. Bundles with more source fail with a
+	 * {@link BundleAbortedException}.
+	 * @param maxBytes the maximum size of all sources
+	 * @return the updated options
+	 */
+	@NotNull
+	public BundlerOptions withMaxSourceBytes(long maxBytes) {
+		BundlerOptions copy = this.copy();
+		copy.maxSourceBytes = maxBytes;
+		return copy;
+	}
+
+	/**
+	 * Limits the size of the source of each module, in UTF-8 bytes. Bundles with a larger module fail with a
+	 * {@link BundleAbortedException} as soon as it is loaded, before it is parsed.
+	 * @param maxBytes the maximum size of a source
+	 * @return the updated options
+	 */
+	@NotNull
+	public BundlerOptions withMaxFileBytes(long maxBytes) {
+		BundlerOptions copy = this.copy();
+		copy.maxFileBytes = maxBytes;
+		return copy;
+	}
+
+	/**
+	 * Fails bundles that take longer than the timeout with a {@link BundleAbortedException}. The time is
+	 * checked between modules while loading, transforming and generating code, so a bundle can overrun its
+	 * timeout by the time taken to load or process a single module.
+	 * @param timeout the longest a bundle may take, measured from the call that builds it
+	 * @param unit    the unit of the timeout
+	 * @return the updated options
+	 */
+	@NotNull
+	public BundlerOptions withTimeout(long timeout, @NotNull TimeUnit unit) {
+		BundlerOptions copy = this.copy();
+		copy.timeoutNanos = Maybe.of(unit.toNanos(timeout));
+		return copy;
+	}
+
+	/**
+	 * Fails bundles with a {@link BundleAbortedException} once the token is cancelled. Bundles also fail
+	 * when the thread that started them is interrupted, whether or not they have a token.
+	 * @param token cancels the bundles built with these options
+	 * @return the updated options
+	 */
+	@NotNull
+	public BundlerOptions withCancellation(@NotNull CancellationToken token) {
+		BundlerOptions copy = this.copy();
+		copy.cancellation = Maybe.of(token);
+		return copy;
+	}
+
+	boolean deduplicate() {
+		return this.deduplicate;
+	}
+
+	@NotNull
+	Maybe<Consumer<Map<String, List<String>>>> duplicatesListener() {
+		return this.duplicatesListener;
+	}
+
+	@NotNull
+	Maybe<GeneratedCodeCache> codeCache() {
+		return this.codeCache;
+	}
+
+	boolean rawPassthrough() {
+		return this.rawPassthrough;
+	}
+
+	boolean validateRawModules() {
+		return this.validateRawModules;
+	}
+
+	boolean inlineConstants() {
+		return this.inlineConstants;
+	}
+
+	boolean profile() {
+		return this.profile;
+	}
+
+	boolean minify() {
+		return this.minify;
+	}
+
+	boolean stableIds() {
+		return this.stableIds || this.hotReplacement;
+	}
+
+	boolean hotReplacement() {
+		return this.hotReplacement;
+	}
+
+	@NotNull
+	Maybe<Consumer<Map<String, String>>> moduleIdsListener() {
+		return this.moduleIdsListener;
+	}
+
+	int maxModules() {
+		return this.maxModules;
+	}
+
+	long maxSourceBytes() {
+		return this.maxSourceBytes;
+	}
+
+	long maxFileBytes() {
+		return this.maxFileBytes;
+	}
+
+	@NotNull
+	Maybe<Long> timeoutNanos() {
+		return this.timeoutNanos;
+	}
+
+	@NotNull
+	Maybe<CancellationToken> cancellation() {
+		return this.cancellation;
+	}
+
+	@NotNull
+	Maybe<Executor> prefetchExecutor() {
+		return this.prefetchExecutor;
+	}
+
+	@NotNull
+	private BundlerOptions copy() {
+		try {
+			return (BundlerOptions) super.clone();
+		} catch (CloneNotSupportedException e) {
+			throw new AssertionError(e);
+		}
+	}
+
+	private static class SideEffectsOverride {
+		@NotNull
+		final PathMatcher matcher;
+		final boolean hasSideEffects;
+
+		SideEffectsOverride(@NotNull PathMatcher matcher, boolean hasSideEffects) {
+			this.matcher = matcher;
+			this.hasSideEffects = hasSideEffects;
+		}
+	}
+}
@@ -0,0 +1,180 @@
+/*
+ * Copyright 2016 Shape Security, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.shapesecurity.bandolier;
+
+import com.shapesecurity.bandolier.loader.IResolver;
+import com.shapesecurity.bandolier.loader.IResourceLoader;
+import com.shapesecurity.shift.ast.Script;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.nio.file.Path;
+import java.util.Objects;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Bundles modules on an executor for services that build bundles on demand. Identical requests made while a
+ * bundle is being built share its result instead of building it again, and the executor bounds how many
+ * bundles are built at once.
+ *
+ * Requests are identical when they have the same entry path, the same resolver, loader and options
+ * instances and equal fingerprints. A fingerprint identifies the state of the sources (for example a
+ * version or content hash of a request payload), so that a request for changed sources never receives a
+ * bundle of the old ones. Results are not kept once built. Every request gets its own future, cancelling it
+ * does not stop the bundle for the other requests sharing it.
+ *
+ * Resolvers and loaders passed to the service are used from several threads at once and must be thread-safe,
+ * as all resolvers and loaders in {@link com.shapesecurity.bandolier.loader} are.
+ */
+public class BundlerService implements AutoCloseable {
+
+	@NotNull
+	private final ExecutorService executor;
+
+	@NotNull
+	private final ConcurrentHashMap<Request, CompletableFuture<Script>> inFlight = new ConcurrentHashMap<>();
+
+	/**
+	 * Creates a service with its own thread pool, which sheds requests once its queue is full.
+	 * @param threads       the maximum number of bundles built at once
+	 * @param queueCapacity the maximum number of distinct requests waiting for a thread
+	 */
+	public BundlerService(int threads, int queueCapacity) {
+		this(new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(queueCapacity)));
+	}
+
+	/**
+	 * @param executor builds the bundles, requests it rejects fail with a {@link RejectedExecutionException}
+	 */
+	public BundlerService(@NotNull ExecutorService executor) {
+		this.executor = executor;
+	}
+
+	/**
+	 * Bundles a module, or joins a bundle of the same module that is already being built.
+	 * @param filePath    path to the module
+	 * @param resolver    how to resolve paths
+	 * @param loader      how to load modules
+	 * @param options     options controlling the bundle
+	 * @param fingerprint identifies the version of the sources, or null if they do not change
+	 * @return the bundle, failing with a {@link ModuleLoaderException} when a module fails to load, a
+	 * {@link BundleAbortedException} when it exceeds a limit set in the options, times out or is cancelled, or a
+	 * {@link RejectedExecutionException} when the service is overloaded
+	 */
+	@NotNull
+	public CompletableFuture<Script> bundle(
+		@NotNull Path filePath,
+		@NotNull IResolver resolver,
+		@NotNull IResourceLoader loader,
+		@NotNull BundlerOptions options,
+		@Nullable Object fingerprint) {
+		Request request = new Request(filePath.toAbsolutePath().normalize(), resolver, loader, options, fingerprint);
+		CompletableFuture<Script> future = new CompletableFuture<>();
+		CompletableFuture<Script> existing = this.inFlight.putIfAbsent(request, future);
+		if (existing != null) {
+			return forCaller(existing);
+		}
+		try {
+			this.executor.execute(() -> {
+				// requests made once the bundle is complete build it again, in case the sources have changed
+				Script script;
+				try {
+					script = Bundler.bundle(request.filePath, resolver, loader, options);
+				} catch (Throwable e) {
+					this.inFlight.remove(request, future);
+					future.completeExceptionally(e);
+					return;
+				}
+				this.inFlight.remove(request, future);
+				future.complete(script);
+			});
+		} catch (RejectedExecutionException e) {
+			this.inFlight.remove(request, future);
+			future.completeExceptionally(e);
+		}
+		return forCaller(future);
+	}
+
+	// each caller gets its own future, so that cancelling or completing it does not affect the other callers
+	@NotNull
+	private static CompletableFuture<Script> forCaller(@NotNull CompletableFuture<Script> shared) {
+		return shared.thenApply(script -> script);
+	}
+
+	/**
+	 * Bundles a module with the default options and no fingerprint.
+	 * @see #bundle(Path, IResolver, IResourceLoader, BundlerOptions, Object)
+	 */
+	@NotNull
+	public CompletableFuture<Script> bundle(@NotNull Path filePath, @NotNull IResolver resolver, @NotNull IResourceLoader loader) {
+		return this.bundle(filePath, resolver, loader, BundlerOptions.DEFAULT, null);
+	}
+
+	/**
+	 * Stops accepting requests. Bundles already requested are still built.
+	 */
+	@Override
+	public void close() {
+		this.executor.shutdown();
+	}
+
+	private static final class Request {
+		@NotNull
+		final Path filePath;
+		@NotNull
+		final IResolver resolver;
+		@NotNull
+		final IResourceLoader loader;
+		@NotNull
+		final BundlerOptions options;
+		@Nullable
+		final Object fingerprint;
+
+		Request(@NotNull Path filePath, @NotNull IResolver resolver, @NotNull IResourceLoader loader, @NotNull BundlerOptions options, @Nullable Object fingerprint) {
+			this.filePath = filePath;
+			this.resolver = resolver;
+			this.loader = loader;
+			this.options = options;
+			this.fingerprint = fingerprint;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (!(o instanceof Request)) {
+				return false;
+			}
+			Request other = (Request) o;
+			return this.filePath.equals(other.filePath)
+				&& this.resolver == other.resolver
+				&& this.loader == other.loader
+				&& this.options == other.options
+				&& Objects.equals(this.fingerprint, other.fingerprint);
+		}
+
+		@Override
+		public int hashCode() {
+			return Objects.hash(this.filePath, System.identityHashCode(this.resolver), System.identityHashCode(this.loader),
+				System.identityHashCode(this.options), this.fingerprint);
+		}
+	}
+}
@@ -0,0 +1,36 @@
+/*
+ * Copyright 2016 Shape Security, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.shapesecurity.bandolier;
+
+/**
+ * Cancels the bundles built with options that hold it, see {@link BundlerOptions#withCancellation}. Bundling
+ * checks the token between modules while loading, transforming and generating code, and fails with a
+ * {@link BundleAbortedException} once it is cancelled. A token cannot be reset.
+ */
+public final class CancellationToken {
+	private volatile boolean cancelled = false;
+
+	/**
+	 * Cancels every bundle using this token, including bundles started later.
+	 */
+	public void cancel() {
+		this.cancelled = true;
+	}
+
+	public boolean isCancelled() {
+		return this.cancelled;
+	}
+}
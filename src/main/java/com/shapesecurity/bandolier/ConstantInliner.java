@@ -0,0 +1,503 @@
+/*
+ * Copyright 2016 Shape Security, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.shapesecurity.bandolier;
+
+import com.shapesecurity.functional.data.ImmutableList;
+import com.shapesecurity.functional.data.Maybe;
+import com.shapesecurity.shift.ast.BinaryExpression;
+import com.shapesecurity.shift.ast.BindingBindingWithDefault;
+import com.shapesecurity.shift.ast.BindingIdentifier;
+import com.shapesecurity.shift.ast.CallExpression;
+import com.shapesecurity.shift.ast.ConditionalExpression;
+import com.shapesecurity.shift.ast.Export;
+import com.shapesecurity.shift.ast.ExportAllFrom;
+import com.shapesecurity.shift.ast.ExportFrom;
+import com.shapesecurity.shift.ast.ExportSpecifier;
+import com.shapesecurity.shift.ast.Expression;
+import com.shapesecurity.shift.ast.FunctionDeclaration;
+import com.shapesecurity.shift.ast.IdentifierExpression;
+import com.shapesecurity.shift.ast.Import;
+import com.shapesecurity.shift.ast.ImportDeclarationExportDeclarationStatement;
+import com.shapesecurity.shift.ast.ImportNamespace;
+import com.shapesecurity.shift.ast.ImportSpecifier;
+import com.shapesecurity.shift.ast.LiteralBooleanExpression;
+import com.shapesecurity.shift.ast.LiteralInfinityExpression;
+import com.shapesecurity.shift.ast.LiteralNullExpression;
+import com.shapesecurity.shift.ast.LiteralNumericExpression;
+import com.shapesecurity.shift.ast.LiteralStringExpression;
+import com.shapesecurity.shift.ast.Module;
+import com.shapesecurity.shift.ast.Node;
+import com.shapesecurity.shift.ast.ReturnStatement;
+import com.shapesecurity.shift.ast.UnaryExpression;
+import com.shapesecurity.shift.ast.VariableDeclaration;
+import com.shapesecurity.shift.ast.VariableDeclarationStatement;
+import com.shapesecurity.shift.ast.VariableDeclarator;
+import com.shapesecurity.shift.ast.operators.UnaryOperator;
+import com.shapesecurity.shift.reducer.CloneReducer;
+import com.shapesecurity.shift.scope.Accessibility;
+import com.shapesecurity.shift.scope.Reference;
+import com.shapesecurity.shift.scope.Scope;
+import com.shapesecurity.shift.scope.ScopeAnalyzer;
+import com.shapesecurity.shift.scope.Variable;
+import com.shapesecurity.shift.visitor.Director;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Inlines trivial exports into the modules that import them. References to an imported constant with a
+ * literal value (for example <code>export const DEBUG = false</code>) are replaced by the value, and calls
+ * to an imported function whose body only returns an expression of its parameters (for example
+ * <code>export function square(x) { return x * x; }</code>) are replaced by that expression when every
+ * argument is a literal or an identifier. Imports whose references have all been replaced are removed,
+ * after which exports that nothing imports any more are removed as well, along with their declarations if
+ * the exporting module does not use them itself.
+ *
+ * The entry point and modules that are imported as a namespace or re-exported with <code>export *</code>
+ * keep all of their exports. Modules that call <code>eval</code> are left as they are.
+ */
+final class ConstantInliner {
+	// the largest function body, in nodes, that is copied into its callers
+	static final int FUNCTION_SIZE_LIMIT = 16;
+	// the longest string that is copied into importers
+	static final int STRING_LENGTH_LIMIT = 64;
+
+	private ConstantInliner() {
+	}
+
+	/**
+	 * Inlines the trivial exports of a module graph.
+	 *
+	 * @param modules        maps resolved paths to modules whose imports have been resolved
+	 * @param canonicalPaths maps every module path to the path of the module that is bundled in its place
+	 * @param entryPath      the entry point, whose exports are always kept
+	 * @return the graph with exports inlined, modules that did not change are the same instances
+	 */
+	@NotNull
+	static Map<String, Module> inline(@NotNull Map<String, Module> modules, @NotNull Map<String, String> canonicalPaths, @NotNull String entryPath) {
+		Map<String, Exports> exports = new HashMap<>();
+		modules.forEach((path, module) -> exports.put(path, new Exports(module)));
+
+		Map<String, Module> inlined = new HashMap<>();
+		modules.forEach((path, module) -> inlined.put(path, inlineImports(module, exports.get(path).scope, exports)));
+
+		// only the imports of bundled modules keep exports alive
+		Set<String> allUsed = new HashSet<>();
+		allUsed.add(entryPath);
+		Map<String, Set<String>> used = new HashMap<>();
+		inlined.forEach((path, module) -> {
+			if (!canonicalPaths.get(path).equals(path)) {
+				return;
+			}
+			module.items.foreach(item -> {
+				if (item instanceof Import) {
+					Import declaration = (Import) item;
+					Set<String> names = usedNames(used, canonicalPaths, declaration.moduleSpecifier);
+					declaration.namedImports.foreach(s -> names.add(s.name.orJust(s.binding.name)));
+					if (declaration.defaultBinding.isJust()) {
+						names.add("default");
+					}
+				} else if (item instanceof ImportNamespace) {
+					allUsed.add(canonicalPaths.getOrDefault(((ImportNamespace) item).moduleSpecifier, ((ImportNamespace) item).moduleSpecifier));
+				} else if (item instanceof ExportAllFrom) {
+					allUsed.add(canonicalPaths.getOrDefault(((ExportAllFrom) item).moduleSpecifier, ((ExportAllFrom) item).moduleSpecifier));
+				} else if (item instanceof ExportFrom && ((ExportFrom) item).moduleSpecifier.isJust()) {
+					Set<String> names = usedNames(used, canonicalPaths, ((ExportFrom) item).moduleSpecifier.fromJust());
+					((ExportFrom) item).namedExports.foreach(s -> names.add(s.name.orJust(s.exportedName)));
+				}
+			});
+		});
+
+		inlined.replaceAll((path, module) -> {
+			if (!canonicalPaths.get(path).equals(path) || allUsed.contains(path)) {
+				return module;
+			}
+			return exports.get(path).removeUnused(module, used.getOrDefault(path, new HashSet<>()));
+		});
+		return inlined;
+	}
+
+	@NotNull
+	private static Set<String> usedNames(@NotNull Map<String, Set<String>> used, @NotNull Map<String, String> canonicalPaths, @NotNull String path) {
+		return used.computeIfAbsent(canonicalPaths.getOrDefault(path, path), p -> new HashSet<>());
+	}
+
+	// replaces references to the trivial exports a module imports
+	@NotNull
+	private static Module inlineImports(@NotNull Module module, @NotNull Scope scope, @NotNull Map<String, Exports> exports) {
+		if (scope.dynamic) {
+			return module;
+		}
+		Map<IdentifierExpression, String> bindings = new IdentityHashMap<>();
+		Map<IdentifierExpression, Expression> constants = new IdentityHashMap<>();
+		Map<IdentifierExpression, FunctionDeclaration> functions = new IdentityHashMap<>();
+		Map<String, Integer> readCounts = new HashMap<>();
+		module.items.foreach(item -> {
+			if (!(item instanceof Import) || !exports.containsKey(((Import) item).moduleSpecifier)) {
+				return;
+			}
+			Exports imported = exports.get(((Import) item).moduleSpecifier);
+			for (ImportSpecifier specifier : ((Import) item).namedImports) {
+				String name = specifier.name.orJust(specifier.binding.name);
+				Maybe<Expression> constant = imported.constant(name);
+				Maybe<FunctionDeclaration> function = imported.function(name);
+				Maybe<Variable> variable = scope.lookupVariable(specifier.binding.name);
+				if (constant.isNothing() && function.isNothing() || variable.isNothing() ||
+					variable.fromJust().references.exists(r -> r.accessibility != Accessibility.Read)) {
+					continue;
+				}
+				ImmutableList<Reference> references = variable.fromJust().references;
+				readCounts.put(specifier.binding.name, references.length);
+				references.foreach(r -> r.node.right().foreach(node -> {
+					bindings.put(node, specifier.binding.name);
+					constant.foreach(c -> constants.put(node, c));
+					function.foreach(f -> functions.put(node, f));
+				}));
+			}
+		});
+		if (bindings.isEmpty()) {
+			return module;
+		}
+
+		Inliner inliner = new Inliner(bindings, constants, functions);
+		Module rewritten = (Module) Director.reduceModule(inliner, module);
+		// local export lists are not references, but they still need the imported binding to exist
+		Set<String> reexported = new HashSet<>();
+		module.items.foreach(item -> {
+			if (item instanceof ExportFrom && ((ExportFrom) item).moduleSpecifier.isNothing()) {
+				((ExportFrom) item).namedExports.foreach(s -> reexported.add(s.name.orJust(s.exportedName)));
+			}
+		});
+		Set<String> inlined = new HashSet<>();
+		readCounts.forEach((binding, count) -> {
+			if (!reexported.contains(binding) && inliner.replaced.getOrDefault(binding, 0).equals(count)) {
+				inlined.add(binding);
+			}
+		});
+		if (inlined.isEmpty()) {
+			return rewritten;
+		}
+		// imports without bindings are kept so that the imported module is still evaluated in order
+		return new Module(rewritten.directives, rewritten.items.map(item -> {
+			if (!(item instanceof Import)) {
+				return item;
+			}
+			Import declaration = (Import) item;
+			return new Import(declaration.defaultBinding, declaration.namedImports.filter(s -> !inlined.contains(s.binding.name)), declaration.moduleSpecifier);
+		}));
+	}
+
+	// whether an expression is a literal that can be copied without changing its meaning
+	static boolean isConstant(@NotNull Node node) {
+		if (node instanceof LiteralBooleanExpression || node instanceof LiteralNumericExpression ||
+			node instanceof LiteralNullExpression || node instanceof LiteralInfinityExpression) {
+			return true;
+		} else if (node instanceof LiteralStringExpression) {
+			return ((LiteralStringExpression) node).value.length() <= STRING_LENGTH_LIMIT;
+		} else if (node instanceof UnaryExpression) {
+			return ((UnaryExpression) node).operator != UnaryOperator.Delete && isConstant(((UnaryExpression) node).operand);
+		}
+		return false;
+	}
+
+	// the number of nodes of an expression made of constants, parameters and operators, or -1 if it has
+	// anything else
+	private static int size(@NotNull Expression expression, @NotNull Set<String> parameters) {
+		if (isConstant(expression)) {
+			return 1;
+		} else if (expression instanceof IdentifierExpression) {
+			return parameters.contains(((IdentifierExpression) expression).name) ? 1 : -1;
+		} else if (expression instanceof UnaryExpression) {
+			UnaryExpression unary = (UnaryExpression) expression;
+			return unary.operator == UnaryOperator.Delete ? -1 : sum(1, size(unary.operand, parameters));
+		} else if (expression instanceof BinaryExpression) {
+			BinaryExpression binary = (BinaryExpression) expression;
+			return sum(sum(1, size(binary.left, parameters)), size(binary.right, parameters));
+		} else if (expression instanceof ConditionalExpression) {
+			ConditionalExpression conditional = (ConditionalExpression) expression;
+			return sum(sum(sum(1, size(conditional.test, parameters)), size(conditional.consequent, parameters)), size(conditional.alternate, parameters));
+		}
+		return -1;
+	}
+
+	private static int sum(int a, int b) {
+		return a < 0 || b < 0 ? -1 : a + b;
+	}
+
+	// the names of the parameters of a function that can be inlined, or nothing if it cannot be
+	@NotNull
+	private static Maybe<List<String>> inlinableParameters(@NotNull FunctionDeclaration function) {
+		if (function.isGenerator || function.params.rest.isJust() || function.body.directives.isNotEmpty() ||
+			function.body.statements.length != 1 || !(function.body.statements.maybeHead().fromJust() instanceof ReturnStatement)) {
+			return Maybe.empty();
+		}
+		List<String> parameters = new ArrayList<>();
+		for (BindingBindingWithDefault parameter : function.params.items) {
+			if (!(parameter instanceof BindingIdentifier) || parameters.contains(((BindingIdentifier) parameter).name)) {
+				return Maybe.empty();
+			}
+			parameters.add(((BindingIdentifier) parameter).name);
+		}
+		Maybe<Expression> body = ((ReturnStatement) function.body.statements.maybeHead().fromJust()).expression;
+		if (body.isNothing()) {
+			return Maybe.empty();
+		}
+		int size = size(body.fromJust(), new HashSet<>(parameters));
+		return size >= 0 && size <= FUNCTION_SIZE_LIMIT ? Maybe.of(parameters) : Maybe.empty();
+	}
+
+	@NotNull
+	private static Expression copy(@NotNull Node expression) {
+		return (Expression) Director.reduceExpression(new CloneReducer(), (Expression) expression);
+	}
+
+	// the trivial exports of a module
+	private static final class Exports {
+		@NotNull
+		final Scope scope;
+		// from local names to their literal values
+		@NotNull
+		final Map<String, Expression> constants = new HashMap<>();
+		// from local names to functions that can be inlined
+		@NotNull
+		final Map<String, FunctionDeclaration> functions = new HashMap<>();
+		// from exported names to the local names they export
+		@NotNull
+		final Map<String, String> locals = new HashMap<>();
+
+		Exports(@NotNull Module module) {
+			this.scope = ScopeAnalyzer.analyze(module).children.maybeHead().fromJust();
+			if (this.scope.dynamic) {
+				return;
+			}
+			for (ImportDeclarationExportDeclarationStatement item : module.items) {
+				if (item instanceof Export && ((Export) item).declaration instanceof VariableDeclaration) {
+					VariableDeclaration declaration = (VariableDeclaration) ((Export) item).declaration;
+					declaration.declarators.foreach(d -> name(d).foreach(name -> this.locals.put(name, name)));
+					this.addConstants(declaration);
+				} else if (item instanceof Export && ((Export) item).declaration instanceof FunctionDeclaration) {
+					FunctionDeclaration declaration = (FunctionDeclaration) ((Export) item).declaration;
+					this.locals.put(declaration.name.name, declaration.name.name);
+					this.addFunction(declaration);
+				} else if (item instanceof ExportFrom && ((ExportFrom) item).moduleSpecifier.isNothing()) {
+					((ExportFrom) item).namedExports.foreach(s -> this.locals.put(s.exportedName, s.name.orJust(s.exportedName)));
+				} else if (item instanceof VariableDeclarationStatement) {
+					this.addConstants(((VariableDeclarationStatement) item).declaration);
+				} else if (item instanceof FunctionDeclaration) {
+					this.addFunction((FunctionDeclaration) item);
+				}
+			}
+		}
+
+		// constants are declared once and only written by their declaration
+		private void addConstants(@NotNull VariableDeclaration declaration) {
+			for (VariableDeclarator declarator : declaration.declarators) {
+				if (name(declarator).isNothing() || declarator.init.isNothing() || !isConstant(declarator.init.fromJust())) {
+					continue;
+				}
+				String name = name(declarator).fromJust();
+				Variable variable = this.scope.lookupVariable(name).fromJust();
+				if (variable.declarations.length == 1 && variable.references.filter(r -> r.accessibility != Accessibility.Read).length == 1) {
+					this.constants.put(name, declarator.init.fromJust());
+				}
+			}
+		}
+
+		private void addFunction(@NotNull FunctionDeclaration declaration) {
+			Variable variable = this.scope.lookupVariable(declaration.name.name).fromJust();
+			if (inlinableParameters(declaration).isJust() && variable.declarations.length == 1 &&
+				!variable.references.exists(r -> r.accessibility != Accessibility.Read)) {
+				this.functions.put(declaration.name.name, declaration);
+			}
+		}
+
+		@NotNull
+		Maybe<Expression> constant(@NotNull String exportedName) {
+			return Maybe.fromNullable(this.locals.get(exportedName)).bind(local -> Maybe.fromNullable(this.constants.get(local)));
+		}
+
+		@NotNull
+		Maybe<FunctionDeclaration> function(@NotNull String exportedName) {
+			return Maybe.fromNullable(this.locals.get(exportedName)).bind(local -> Maybe.fromNullable(this.functions.get(local)));
+		}
+
+		// removes the exports of constants and functions that are not used, and their declarations if they
+		// are not used locally either
+		@NotNull
+		Module removeUnused(@NotNull Module module, @NotNull Set<String> used) {
+			Set<String> unused = new HashSet<>(this.constants.keySet());
+			unused.addAll(this.functions.keySet());
+			unused.retainAll(this.locals.values());
+			this.locals.forEach((exported, local) -> {
+				if (used.contains(exported)) {
+					unused.remove(local);
+				}
+			});
+			if (unused.isEmpty()) {
+				return module;
+			}
+			Set<String> removed = new HashSet<>();
+			unused.forEach(local -> {
+				if (!this.scope.lookupVariable(local).fromJust().references.exists(r -> r.accessibility != Accessibility.Write)) {
+					removed.add(local);
+				}
+			});
+
+			return new Module(module.directives, module.items.bind(item -> {
+				if (item instanceof Export && ((Export) item).declaration instanceof VariableDeclaration) {
+					return split(item, (VariableDeclaration) ((Export) item).declaration, true, unused, removed);
+				} else if (item instanceof VariableDeclarationStatement) {
+					return split(item, ((VariableDeclarationStatement) item).declaration, false, unused, removed);
+				} else if (item instanceof Export && ((Export) item).declaration instanceof FunctionDeclaration) {
+					FunctionDeclaration declaration = (FunctionDeclaration) ((Export) item).declaration;
+					if (unused.contains(declaration.name.name)) {
+						return removed.contains(declaration.name.name) ? ImmutableList.empty() : ImmutableList.of(declaration);
+					}
+				} else if (item instanceof FunctionDeclaration && removed.contains(((FunctionDeclaration) item).name.name)) {
+					return ImmutableList.empty();
+				} else if (item instanceof ExportFrom && ((ExportFrom) item).moduleSpecifier.isNothing()) {
+					ImmutableList<ExportSpecifier> specifiers = ((ExportFrom) item).namedExports;
+					ImmutableList<ExportSpecifier> kept = specifiers.filter(s -> !unused.contains(s.name.orJust(s.exportedName)));
+					if (kept.length != specifiers.length) {
+						return kept.isEmpty() ? ImmutableList.empty() : ImmutableList.of(new ExportFrom(kept, Maybe.empty()));
+					}
+				}
+				return ImmutableList.of(item);
+			}));
+		}
+
+		// splits a declaration into runs of declarators that are still exported and that are not, in order
+		@NotNull
+		private static ImmutableList<ImportDeclarationExportDeclarationStatement> split(
+			@NotNull ImportDeclarationExportDeclarationStatement item,
+			@NotNull VariableDeclaration declaration,
+			boolean exported,
+			@NotNull Set<String> unused,
+			@NotNull Set<String> removed) {
+			List<ImportDeclarationExportDeclarationStatement> statements = new ArrayList<>();
+			List<VariableDeclarator> run = new ArrayList<>();
+			boolean runExported = exported;
+			boolean changed = false;
+			for (VariableDeclarator declarator : declaration.declarators) {
+				Maybe<String> name = name(declarator);
+				if (name.isJust() && removed.contains(name.fromJust())) {
+					changed = true;
+					continue;
+				}
+				boolean keepExported = exported && !(name.isJust() && unused.contains(name.fromJust()));
+				if (keepExported != runExported && !run.isEmpty()) {
+					statements.add(declaration(declaration, run, runExported));
+					run = new ArrayList<>();
+				}
+				changed |= keepExported != exported;
+				runExported = keepExported;
+				run.add(declarator);
+			}
+			if (!changed) {
+				return ImmutableList.of(item);
+			}
+			if (!run.isEmpty()) {
+				statements.add(declaration(declaration, run, runExported));
+			}
+			return ImmutableList.from(statements);
+		}
+
+		@NotNull
+		private static ImportDeclarationExportDeclarationStatement declaration(@NotNull VariableDeclaration declaration, @NotNull List<VariableDeclarator> declarators, boolean exported) {
+			VariableDeclaration part = new VariableDeclaration(declaration.kind, ImmutableList.from(declarators));
+			return exported ? new Export(part) : new VariableDeclarationStatement(part);
+		}
+
+		@NotNull
+		private static Maybe<String> name(@NotNull VariableDeclarator declarator) {
+			return declarator.binding instanceof BindingIdentifier ? Maybe.of(((BindingIdentifier) declarator.binding).name) : Maybe.empty();
+		}
+	}
+
+	// replaces references to imported constants, and calls to imported functions whose arguments are all
+	// literals or identifiers, counting the replaced references of each binding
+	private static final class Inliner extends CloneReducer {
+		@NotNull
+		private final Map<IdentifierExpression, String> bindings;
+		@NotNull
+		private final Map<IdentifierExpression, Expression> constants;
+		@NotNull
+		private final Map<IdentifierExpression, FunctionDeclaration> functions;
+		@NotNull
+		final Map<String, Integer> replaced = new HashMap<>();
+
+		Inliner(@NotNull Map<IdentifierExpression, String> bindings, @NotNull Map<IdentifierExpression, Expression> constants, @NotNull Map<IdentifierExpression, FunctionDeclaration> functions) {
+			this.bindings = bindings;
+			this.constants = constants;
+			this.functions = functions;
+		}
+
+		@NotNull
+		@Override
+		public Expression reduceIdentifierExpression(@NotNull IdentifierExpression node) {
+			Expression constant = this.constants.get(node);
+			if (constant == null) {
+				return super.reduceIdentifierExpression(node);
+			}
+			this.replaced.merge(this.bindings.get(node), 1, Integer::sum);
+			return copy(constant);
+		}
+
+		@NotNull
+		@Override
+		public Expression reduceCallExpression(@NotNull CallExpression node, @NotNull Node callee, @NotNull ImmutableList<Node> arguments) {
+			FunctionDeclaration function = node.callee instanceof IdentifierExpression ? this.functions.get(node.callee) : null;
+			if (function == null || arguments.length != function.params.items.length ||
+				arguments.exists(a -> !(a instanceof IdentifierExpression || isConstant(a)))) {
+				return super.reduceCallExpression(node, callee, arguments);
+			}
+			this.replaced.merge(this.bindings.get(node.callee), 1, Integer::sum);
+			// the arguments have already been reduced, so constants among them are inlined too
+			List<String> parameters = inlinableParameters(function).fromJust();
+			Node[] values = arguments.toArray(new Node[arguments.length]);
+			Map<String, Node> substitutions = new HashMap<>();
+			for (int i = 0; i < parameters.size(); ++i) {
+				substitutions.put(parameters.get(i), values[i]);
+			}
+			Expression body = ((ReturnStatement) function.body.statements.maybeHead().fromJust()).expression.fromJust();
+			return (Expression) Director.reduceExpression(new Substitution(substitutions), body);
+		}
+	}
+
+	// copies the body of an inlined function with its parameters replaced by the arguments
+	private static final class Substitution extends CloneReducer {
+		@NotNull
+		private final Map<String, Node> arguments;
+
+		Substitution(@NotNull Map<String, Node> arguments) {
+			this.arguments = arguments;
+		}
+
+		@NotNull
+		@Override
+		public Expression reduceIdentifierExpression(@NotNull IdentifierExpression node) {
+			Node argument = this.arguments.get(node.name);
+			return argument == null ? super.reduceIdentifierExpression(node) : copy(argument);
+		}
+	}
+}
@@ -0,0 +1,212 @@
+/*
+ * Copyright 2016 Shape Security, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.shapesecurity.bandolier;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
+
+import com.shapesecurity.functional.data.ImmutableList;
+import com.shapesecurity.functional.data.Maybe;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Caches the generated code of each module, so that rebuilding a bundle only transforms and generates code
+ * for modules that have changed. Code is cached by the module's source, its id and the ids of the modules it
+ * imports. Modules are still parsed to find their imports.
+ *
+ * The cache holds at most a given number of characters of code and evicts the least recently used modules
+ * first. It can be saved to and loaded from a file to be reused across processes. Instances are thread-safe.
+ *
+ * @see BundlerOptions#withCodeCache
+ */
+public class GeneratedCodeCache {
+
+	// changes whenever the generated code of a module may change for the same key
+	private static final int VERSION = 1;
+
+	private final long maxChars;
+
+	private long chars = 0;
+
+	private long hits = 0;
+
+	private long misses = 0;
+
+	@NotNull
+	private final LinkedHashMap<String, String> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+	/**
+	 * @param maxChars the most characters of code to hold
+	 */
+	public GeneratedCodeCache(long maxChars) {
+		this.maxChars = maxChars;
+	}
+
+	/**
+	 * Loads a cache saved with {@link #save}. A missing file or a file saved by an incompatible version gives
+	 * an empty cache.
+	 * @param file     the saved cache
+	 * @param maxChars the most characters of code to hold
+	 * @return the loaded cache
+	 * @throws IOException if the file cannot be read or is malformed
+	 */
+	@NotNull
+	public static GeneratedCodeCache load(@NotNull Path file, long maxChars) throws IOException {
+		GeneratedCodeCache cache = new GeneratedCodeCache(maxChars);
+		if (!Files.exists(file)) {
+			return cache;
+		}
+		try (Reader in = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+			cache.read(in);
+		} catch (IllegalStateException | NumberFormatException e) {
+			throw new IOException("Malformed code cache " + file, e);
+		}
+		return cache;
+	}
+
+	/**
+	 * Saves the cache, replacing the file atomically where supported.
+	 * @param file where to save the cache
+	 * @throws IOException if the file cannot be written
+	 */
+	public void save(@NotNull Path file) throws IOException {
+		Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+		try (Writer out = Files.newBufferedWriter(temporary, StandardCharsets.UTF_8)) {
+			this.write(out);
+		}
+		Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING);
+	}
+
+	/**
+	 * @return how many modules were emitted from the cache
+	 */
+	public synchronized long hits() {
+		return this.hits;
+	}
+
+	/**
+	 * @return how many modules had to be generated
+	 */
+	public synchronized long misses() {
+		return this.misses;
+	}
+
+	/**
+	 * Discards all cached code.
+	 */
+	public synchronized void clear() {
+		this.entries.clear();
+		this.chars = 0;
+	}
+
+	@NotNull
+	synchronized Maybe<String> get(@NotNull String key) {
+		String code = this.entries.get(key);
+		if (code == null) {
+			++this.misses;
+			return Maybe.empty();
+		}
+		++this.hits;
+		return Maybe.of(code);
+	}
+
+	synchronized void put(@NotNull String key, @NotNull String code) {
+		if (code.length() > this.maxChars) {
+			return;
+		}
+		String previous = this.entries.put(key, code);
+		if (previous != null) {
+			this.chars -= previous.length();
+		}
+		this.chars += code.length();
+		Iterator<String> eldest = this.entries.values().iterator();
+		while (this.chars > this.maxChars) {
+			this.chars -= eldest.next().length();
+			eldest.remove();
+		}
+	}
+
+	/**
+	 * @param sourceHash   the hash of the module's source
+	 * @param id           the id of the module
+	 * @param dependencies the resolved paths the module imports, in order
+	 * @param ids          the ids of the imported modules by path
+	 * @param minify       whether the code is minified
+	 * @param renameRuntime whether minified code refers to the renamed runtime
+	 * @return a key identifying the generated code of the module
+	 */
+	@NotNull
+	static String key(@NotNull String sourceHash, @NotNull String id, @NotNull ImmutableList<String> dependencies, @NotNull Map<String, String> ids, boolean minify, boolean renameRuntime) {
+		StringBuilder key = new StringBuilder().append(VERSION).append('\0').append(sourceHash).append('\0').append(id);
+		dependencies.foreach(dependency -> key.append('\0').append(dependency).append('\0').append(ids.get(dependency)));
+		if (minify) {
+			key.append(renameRuntime ? "\0minified" : "\0minified\0runtime");
+		}
+		return ModuleDeduplicator.sourceHash(key.toString());
+	}
+
+	// {"version": 1, "entries": [[key, code], ...]} from least to most recently used
+	private synchronized void write(@NotNull Writer out) throws IOException {
+		JsonWriter writer = new JsonWriter(out);
+		writer.beginObject();
+		writer.name("version").value(VERSION);
+		writer.name("entries").beginArray();
+		for (Map.Entry<String, String> entry : this.entries.entrySet()) {
+			writer.beginArray().value(entry.getKey()).value(entry.getValue()).endArray();
+		}
+		writer.endArray();
+		writer.endObject();
+		writer.flush();
+	}
+
+	private void read(@NotNull Reader in) throws IOException {
+		JsonReader reader = new JsonReader(in);
+		boolean compatible = false;
+		reader.beginObject();
+		while (reader.hasNext()) {
+			String name = reader.nextName();
+			if (name.equals("version")) {
+				compatible = reader.nextInt() == VERSION;
+			} else if (name.equals("entries")) {
+				reader.beginArray();
+				while (reader.hasNext()) {
+					reader.beginArray();
+					this.put(reader.nextString(), reader.nextString());
+					reader.endArray();
+				}
+				reader.endArray();
+			} else {
+				reader.skipValue();
+			}
+		}
+		reader.endObject();
+		if (!compatible) {
+			this.clear();
+		}
+	}
+}
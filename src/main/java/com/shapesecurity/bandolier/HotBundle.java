@@ -0,0 +1,95 @@
+/*
+ * Copyright 2016 Shape Security, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.shapesecurity.bandolier;
+
+import com.shapesecurity.bandolier.loader.IResolver;
+import com.shapesecurity.bandolier.loader.IResourceLoader;
+import com.shapesecurity.bandolier.loader.ModuleLoaderException;
+import com.shapesecurity.functional.data.Maybe;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executor;
+
+/**
+ * Rebuilds a bundle as its modules change and generates updates that replace the changed modules of a running
+ * copy of the bundle without reloading it. An update only defines the modules whose generated code changed,
+ * and reruns them along with every module that imports them, directly or not, ending with the entry point.
+ * Other modules keep their state.
+ *
+ * The bundle is built with {@link BundlerOptions#withHotReplacement hot replacement}, so that modules keep
+ * their ids between builds and the runtime exposes the hook that updates call, see {@link Bundler#HOT_GLOBAL}.
+ * Every build loads and parses the whole module graph again, only the generation of code is limited to the
+ * changed modules. Modules that are no longer imported stay defined in the running bundle.
+ */
+public class HotBundle {
+	@NotNull
+	private final Path filePath;
+	@NotNull
+	private final IResolver resolver;
+	@NotNull
+	private final IResourceLoader loader;
+	@NotNull
+	private final BundlerOptions options;
+	@NotNull
+	private final Executor executor;
+	// from module id to the key of its generated definition in the last build
+	@NotNull
+	private final Map<String, String> definitionKeys = new HashMap<>();
+
+	/**
+	 * @param filePath is the path to the input entry point module.
+	 * @param resolver how to resolve the path
+	 * @param loader   how to load modules
+	 * @param options  how to build the bundle, hot replacement is always enabled
+	 * @param executor transforms and generates code for modules in parallel
+	 */
+	public HotBundle(@NotNull Path filePath, @NotNull IResolver resolver, @NotNull IResourceLoader loader, @NotNull BundlerOptions options, @NotNull Executor executor) {
+		this.filePath = filePath;
+		this.resolver = resolver;
+		this.loader = loader;
+		this.options = options.withHotReplacement(true);
+		this.executor = executor;
+	}
+
+	/**
+	 * Builds the whole bundle, which later updates apply to.
+	 * @return the code of the bundle
+	 * @throws ModuleLoaderException when a module fails to load
+	 * @throws BundleAbortedException when the bundle exceeds a limit set in the options, times out or is cancelled
+	 */
+	@NotNull
+	public synchronized String bundle() throws ModuleLoaderException {
+		LoadedGraph loaded = Bundler.loadGraph(this.filePath, this.resolver, this.loader, this.options);
+		return Bundler.hotBundle(loaded, this.options, this.executor, this.definitionKeys);
+	}
+
+	/**
+	 * Builds an update to the bundle last built or updated, to be evaluated in the same global scope as the bundle.
+	 * @return the code of the update, or nothing if no module changed
+	 * @throws ModuleLoaderException when a module fails to load, the running bundle can still be updated once it
+	 *                               is fixed
+	 * @throws BundleAbortedException when the update exceeds a limit set in the options, times out or is cancelled
+	 */
+	@NotNull
+	public synchronized Maybe<String> update() throws ModuleLoaderException {
+		LoadedGraph loaded = Bundler.loadGraph(this.filePath, this.resolver, this.loader, this.options);
+		return Bundler.hotUpdate(loaded, this.options, this.executor, this.definitionKeys);
+	}
+}
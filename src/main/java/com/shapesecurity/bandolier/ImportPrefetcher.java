@@ -0,0 +1,174 @@
+/*
+ * Copyright 2016 Shape Security, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.shapesecurity.bandolier;
+
+import com.shapesecurity.bandolier.loader.IResolver;
+import com.shapesecurity.bandolier.loader.IResourceLoader;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+
+/**
+ * Loads the modules a module is likely to import while it is being parsed. As soon as a module's source is
+ * available its imports are {@link ImportScanner scanned}, resolved and loaded on an executor, and so on down
+ * the module graph. The bundler still follows the imports of the parsed modules, and only takes a prefetched
+ * source when it loads the same path, so a wrong guess costs a wasted load and never changes the bundle.
+ * Resolutions are shared with the bundler through {@link #resolver}, so each import is resolved once.
+ * Imports of modules without side effects are not prefetched, since they are often pruned.
+ */
+final class ImportPrefetcher {
+
+	@NotNull
+	private final IResolver resolver;
+
+	@NotNull
+	private final IResourceLoader loader;
+
+	@NotNull
+	private final BundlerOptions options;
+
+	@NotNull
+	private final Executor executor;
+
+	@NotNull
+	private final BundleBudget budget;
+
+	@NotNull
+	private final Set<String> requested = ConcurrentHashMap.newKeySet();
+
+	@NotNull
+	private final ConcurrentHashMap<String, CompletableFuture<String>> sources = new ConcurrentHashMap<>();
+
+	// resolved paths by the root and the specifier they were resolved from
+	@NotNull
+	private final ConcurrentHashMap<String, String> resolutions = new ConcurrentHashMap<>();
+
+	private volatile boolean closed = false;
+
+	ImportPrefetcher(@NotNull IResolver resolver, @NotNull IResourceLoader loader, @NotNull BundlerOptions options, @NotNull Executor executor, @NotNull BundleBudget budget) {
+		this.resolver = resolver;
+		this.loader = loader;
+		this.options = options;
+		this.executor = executor;
+		this.budget = budget;
+	}
+
+	/**
+	 * Starts loading the modules imported by a module. Modules already requested count against the module limit
+	 * of the bundle, so no more are queued once it is reached.
+	 * @param path   the absolute path of the module
+	 * @param source the source of the module
+	 * @throws BundleAbortedException when the bundle has timed out or been cancelled
+	 */
+	void prefetchImports(@NotNull String path, @NotNull String source) {
+		this.requested.add(path);
+		Path root = Paths.get(path).getParent();
+		for (String specifier : ImportScanner.scan(source)) {
+			if (this.closed || this.requested.size() >= this.options.maxModules()) {
+				return;
+			}
+			this.budget.check();
+			CompletableFuture.runAsync(() -> this.prefetch(root, specifier), this.executor);
+		}
+	}
+
+	// resolves and loads a single import, publishing the load before it starts so the bundler can wait for it
+	private void prefetch(@NotNull Path root, @NotNull String specifier) {
+		if (this.closed || this.requested.size() >= this.options.maxModules()) {
+			return;
+		}
+		this.budget.check();
+		String dependency = this.resolve(root, specifier);
+		if (this.closed || !this.requested.add(dependency) || !Bundler.hasSideEffects(dependency, this.resolver, this.options)) {
+			return;
+		}
+		CompletableFuture<String> load = new CompletableFuture<>();
+		this.sources.put(dependency, load);
+		try {
+			this.budget.check();
+			String dependencySource = this.loader.loadResource(Paths.get(dependency));
+			load.complete(dependencySource);
+			this.prefetchImports(dependency, dependencySource);
+		} catch (IOException | RuntimeException e) {
+			load.completeExceptionally(e);
+		}
+	}
+
+	@NotNull
+	private String resolve(@NotNull Path root, @NotNull String specifier) {
+		return this.resolutions.computeIfAbsent(root + "\0" + specifier, key -> this.resolver.resolve(root, specifier));
+	}
+
+	/**
+	 * @return a resolver that reuses the resolutions made while prefetching
+	 */
+	@NotNull
+	IResolver resolver() {
+		return new IResolver() {
+			@NotNull
+			@Override
+			public String resolve(@NotNull Path root, @NotNull String path) {
+				return ImportPrefetcher.this.resolve(root, path);
+			}
+
+			@Override
+			public boolean hasSideEffects(@NotNull String path) {
+				return ImportPrefetcher.this.resolver.hasSideEffects(path);
+			}
+		};
+	}
+
+	/**
+	 * Loads a module, waiting for it to be prefetched if it was requested. Failed prefetches are retried so
+	 * that errors are reported by the loader.
+	 * @param path the absolute path of the module
+	 * @return the source of the module
+	 * @throws IOException if the module cannot be loaded
+	 * @throws BundleAbortedException when the bundle has timed out or been cancelled
+	 */
+	@NotNull
+	String load(@NotNull String path) throws IOException {
+		this.requested.add(path);
+		CompletableFuture<String> prefetched = this.sources.remove(path);
+		if (prefetched != null) {
+			try {
+				return prefetched.join();
+			} catch (CompletionException e) {
+				// fall through to load it again
+			}
+		}
+		this.budget.check();
+		String source = this.loader.loadResource(Paths.get(path));
+		this.prefetchImports(path, source);
+		return source;
+	}
+
+	/**
+	 * Stops prefetching once the bundle has been built. Loads already started are left to finish.
+	 */
+	void close() {
+		this.closed = true;
+		this.sources.clear();
+	}
+}
@@ -29,13 +29,17 @@ import com.shapesecurity.shift.ast.Module;
 import com.shapesecurity.shift.ast.Statement;
 import com.shapesecurity.bandolier.loader.IResolver;
 
+import org.jetbrains.annotations.NotNull;
+
 import java.nio.file.Path;
 
 
 /**
- * Rewrites all of the import paths to the appropriately resolve paths.
+ * Rewrites all of the import paths to the appropriately resolve paths. A rewriter holds no state of its own,
+ * so it is thread-safe when its resolver is.
  */
 public class ImportResolvingRewriter {
+	@NotNull
 	private final IResolver resolver;
 
 	/**
@@ -50,7 +54,7 @@ public class ImportResolvingRewriter {
 	 * Create a new rewriter with the provided resolver.
 	 * @param resolver used to resolve each import path.
 	 */
-	public ImportResolvingRewriter(IResolver resolver) {
+	public ImportResolvingRewriter(@NotNull IResolver resolver) {
 		this.resolver = resolver;
 	}
 
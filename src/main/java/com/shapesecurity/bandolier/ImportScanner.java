@@ -0,0 +1,313 @@
+/*
+ * Copyright 2016 Shape Security, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.shapesecurity.bandolier;
+
+import com.shapesecurity.functional.data.ImmutableList;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Finds the module specifiers of the import and export declarations of a module without parsing it, so that
+ * dependencies can be loaded while the module is still being parsed. The scanner only tokenizes the source,
+ * and guesses whether a <code>/</code> starts a regular expression from the preceding token, so its results
+ * are a hint that must be confirmed against the parsed module.
+ */
+public class ImportScanner {
+
+	// after these keywords a slash starts a regular expression rather than a division
+	private static final Set<String> KEYWORDS_BEFORE_EXPRESSION = new HashSet<>(Arrays.asList(
+		"return", "typeof", "instanceof", "in", "of", "new", "delete", "void", "throw", "case", "do", "else", "yield", "await"));
+
+	private enum Type { IDENTIFIER, STRING, PUNCTUATOR, OTHER, EOF }
+
+	@NotNull
+	private final String source;
+
+	private int index = 0;
+
+	// brace depth of the module, declarations only appear at depth 0
+	private int depth = 0;
+
+	// brace depths at which template literals continue
+	@NotNull
+	private final Deque<Integer> templates = new ArrayDeque<>();
+
+	@NotNull
+	private Type type = Type.EOF;
+
+	@NotNull
+	private String value = "";
+
+	@Nullable
+	private Type previousType = null;
+
+	@NotNull
+	private String previousValue = "";
+
+	/**
+	 * Checks whether a module may have import or export declarations, without tokenizing it. A module for
+	 * which this returns false has no module syntax, although the words may appear in its strings or comments.
+	 * @param source the source of a module
+	 * @return false if the source has no <code>import</code> or <code>export</code> words
+	 */
+	public static boolean mayHaveModuleSyntax(@NotNull String source) {
+		return containsWord(source, "import") || containsWord(source, "export");
+	}
+
+	private static boolean containsWord(@NotNull String source, @NotNull String word) {
+		for (int i = source.indexOf(word); i >= 0; i = source.indexOf(word, i + 1)) {
+			int end = i + word.length();
+			if ((i == 0 || !isIdentifierPart(source.charAt(i - 1))) && (end == source.length() || !isIdentifierPart(source.charAt(end)))) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static boolean isIdentifierPart(char c) {
+		return Character.isJavaIdentifierPart(c) || c == '\\';
+	}
+
+	private ImportScanner(@NotNull String source) {
+		this.source = source;
+	}
+
+	/**
+	 * @param source the source of a module
+	 * @return the specifiers imported or re-exported by the module, in order
+	 */
+	@NotNull
+	public static ImmutableList<String> scan(@NotNull String source) {
+		return new ImportScanner(source).scanDeclarations();
+	}
+
+	@NotNull
+	private ImmutableList<String> scanDeclarations() {
+		List<String> specifiers = new ArrayList<>();
+		this.next();
+		while (this.type != Type.EOF) {
+			boolean topLevel = this.depth == 0;
+			if (topLevel && this.is(Type.IDENTIFIER, "import") && !this.previousIs(Type.PUNCTUATOR, ".")) {
+				this.next();
+				if (this.type == Type.STRING) {
+					specifiers.add(this.value);
+				} else {
+					this.scanFrom(specifiers);
+				}
+			} else if (topLevel && this.is(Type.IDENTIFIER, "export") && !this.previousIs(Type.PUNCTUATOR, ".")) {
+				this.next();
+				if (this.is(Type.PUNCTUATOR, "*")) {
+					this.scanFrom(specifiers);
+				} else if (this.is(Type.PUNCTUATOR, "{")) {
+					while (this.type != Type.EOF && !this.is(Type.PUNCTUATOR, "}")) {
+						this.next();
+					}
+					this.next();
+					if (this.is(Type.IDENTIFIER, "from")) {
+						this.next();
+						if (this.type == Type.STRING) {
+							specifiers.add(this.value);
+						}
+					}
+					continue;
+				}
+			}
+			this.next();
+		}
+		return ImmutableList.from(specifiers);
+	}
+
+	// skips to the string after "from", import and export clauses never contain semicolons
+	private void scanFrom(@NotNull List<String> specifiers) {
+		while (this.type != Type.EOF && !this.is(Type.PUNCTUATOR, ";")) {
+			if (this.is(Type.IDENTIFIER, "from")) {
+				this.next();
+				if (this.type == Type.STRING) {
+					specifiers.add(this.value);
+				}
+				return;
+			}
+			this.next();
+		}
+	}
+
+	private boolean is(@NotNull Type type, @NotNull String value) {
+		return this.type == type && this.value.equals(value);
+	}
+
+	private boolean previousIs(@NotNull Type type, @NotNull String value) {
+		return this.previousType == type && this.previousValue.equals(value);
+	}
+
+	private void next() {
+		this.previousType = this.type;
+		this.previousValue = this.value;
+		this.skipWhitespaceAndComments();
+		if (this.index >= this.source.length()) {
+			this.token(Type.EOF, "");
+			return;
+		}
+		char c = this.source.charAt(this.index);
+		if (c == '"' || c == '\'') {
+			this.scanString(c);
+		} else if (c == '`') {
+			++this.index;
+			this.scanTemplate();
+		} else if (c == '}' && !this.templates.isEmpty() && this.templates.peek() == this.depth) {
+			this.templates.pop();
+			++this.index;
+			this.scanTemplate();
+		} else if (Character.isJavaIdentifierStart(c) || c == '\\') {
+			int start = this.index;
+			while (this.index < this.source.length() && (Character.isJavaIdentifierPart(this.source.charAt(this.index)) || this.source.charAt(this.index) == '\\')) {
+				++this.index;
+			}
+			this.token(Type.IDENTIFIER, this.source.substring(start, this.index));
+		} else if (Character.isDigit(c) || c == '.' && this.index + 1 < this.source.length() && Character.isDigit(this.source.charAt(this.index + 1))) {
+			while (this.index < this.source.length() && (Character.isLetterOrDigit(this.source.charAt(this.index)) || this.source.charAt(this.index) == '.')) {
+				++this.index;
+			}
+			this.token(Type.OTHER, "");
+		} else if (c == '/' && this.regexAllowed()) {
+			this.scanRegex();
+		} else {
+			++this.index;
+			if (c == '{') {
+				++this.depth;
+			} else if (c == '}') {
+				--this.depth;
+			}
+			this.token(Type.PUNCTUATOR, String.valueOf(c));
+		}
+	}
+
+	private void token(@NotNull Type type, @NotNull String value) {
+		this.type = type;
+		this.value = value;
+	}
+
+	private boolean regexAllowed() {
+		switch (this.type) {
+			case IDENTIFIER:
+				return KEYWORDS_BEFORE_EXPRESSION.contains(this.value);
+			case PUNCTUATOR:
+				return !this.value.equals(")") && !this.value.equals("]") && !this.value.equals("}");
+			case EOF:
+				return true;
+			default:
+				return false;
+		}
+	}
+
+	private void skipWhitespaceAndComments() {
+		while (this.index < this.source.length()) {
+			char c = this.source.charAt(this.index);
+			if (Character.isWhitespace(c) || c == '\u00A0' || c == '\uFEFF') {
+				++this.index;
+			} else if (this.source.startsWith("//", this.index)) {
+				while (this.index < this.source.length() && !isLineTerminator(this.source.charAt(this.index))) {
+					++this.index;
+				}
+			} else if (this.source.startsWith("/*", this.index)) {
+				int end = this.source.indexOf("*/", this.index + 2);
+				this.index = end < 0 ? this.source.length() : end + 2;
+			} else {
+				return;
+			}
+		}
+	}
+
+	private void scanString(char quote) {
+		StringBuilder value = new StringBuilder();
+		++this.index;
+		while (this.index < this.source.length()) {
+			char c = this.source.charAt(this.index++);
+			if (c == quote || isLineTerminator(c)) {
+				break;
+			} else if (c == '\\' && this.index < this.source.length()) {
+				char escaped = this.source.charAt(this.index++);
+				switch (escaped) {
+					case 'n': value.append('\n'); break;
+					case 't': value.append('\t'); break;
+					case 'r': value.append('\r'); break;
+					case 'b': value.append('\b'); break;
+					case 'f': value.append('\f'); break;
+					case 'v': value.append('\u000B'); break;
+					case 'u':
+					case 'x':
+						// rare in specifiers, the parsed module gives the exact value
+						value.append('\uFFFD');
+						break;
+					default: value.append(escaped);
+				}
+			} else {
+				value.append(c);
+			}
+		}
+		this.token(Type.STRING, value.toString());
+	}
+
+	// scans template characters up to the closing backtick or the next substitution
+	private void scanTemplate() {
+		while (this.index < this.source.length()) {
+			char c = this.source.charAt(this.index++);
+			if (c == '\\') {
+				++this.index;
+			} else if (c == '`') {
+				break;
+			} else if (c == '$' && this.index < this.source.length() && this.source.charAt(this.index) == '{') {
+				++this.index;
+				this.templates.push(this.depth);
+				break;
+			}
+		}
+		this.token(Type.OTHER, "");
+	}
+
+	private void scanRegex() {
+		boolean inClass = false;
+		++this.index;
+		while (this.index < this.source.length()) {
+			char c = this.source.charAt(this.index++);
+			if (c == '\\') {
+				++this.index;
+			} else if (c == '[') {
+				inClass = true;
+			} else if (c == ']') {
+				inClass = false;
+			} else if (c == '/' && !inClass || isLineTerminator(c)) {
+				break;
+			}
+		}
+		while (this.index < this.source.length() && Character.isJavaIdentifierPart(this.source.charAt(this.index))) {
+			++this.index;
+		}
+		this.token(Type.OTHER, "");
+	}
+
+	private static boolean isLineTerminator(char c) {
+		return c == '\n' || c == '\r' || c == '\u2028' || c == '\u2029';
+	}
+}
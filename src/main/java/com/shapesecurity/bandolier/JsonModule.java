@@ -0,0 +1,189 @@
+/*
+ * Copyright 2016 Shape Security, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.shapesecurity.bandolier;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+
+import com.shapesecurity.bandolier.loader.ModuleLoaderException;
+import com.shapesecurity.functional.data.ImmutableList;
+import com.shapesecurity.shift.ast.AssignmentExpression;
+import com.shapesecurity.shift.ast.CallExpression;
+import com.shapesecurity.shift.ast.ComputedMemberExpression;
+import com.shapesecurity.shift.ast.Expression;
+import com.shapesecurity.shift.ast.ExpressionStatement;
+import com.shapesecurity.shift.ast.IdentifierExpression;
+import com.shapesecurity.shift.ast.LiteralStringExpression;
+import com.shapesecurity.shift.ast.Module;
+import com.shapesecurity.shift.ast.StaticMemberExpression;
+import com.shapesecurity.shift.parser.JsError;
+import com.shapesecurity.shift.parser.Parser;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+
+/**
+ * Bundles JSON files without parsing them as JavaScript. The file is validated and minified with a streaming
+ * JSON reader and becomes a module whose default export is the parsed value, as in
+ * <code>import data from "./data.json"</code>. Large values are parsed with <code>JSON.parse</code> at runtime,
+ * which engines parse much faster than the equivalent object literal.
+ */
+final class JsonModule {
+
+	// characters of minified JSON above which it is parsed at runtime rather than emitted as a literal
+	static final int LITERAL_LIMIT = 10 * 1024;
+
+	private JsonModule() {}
+
+	static boolean isJson(@NotNull String path) {
+		return path.endsWith(".json");
+	}
+
+	/**
+	 * @param path   the path of the JSON file
+	 * @param source the contents of the JSON file
+	 * @return a module exporting the value as its default export
+	 * @throws ModuleLoaderException if the file is not valid JSON
+	 */
+	@NotNull
+	static Module toModule(@NotNull String path, @NotNull String source) throws ModuleLoaderException {
+		String json = minify(path, source);
+		Expression value;
+		// "__proto__" has a special meaning in object literals but not in JSON
+		if (json.length() > LITERAL_LIMIT || json.contains("\"__proto__\"")) {
+			StaticMemberExpression parse = new StaticMemberExpression("parse", new IdentifierExpression("JSON"));
+			value = new CallExpression(parse, ImmutableList.of(new LiteralStringExpression(json)));
+		} else {
+			try {
+				ExpressionStatement statement = (ExpressionStatement) Parser.parseScript("(" + json + ")").getStatements().maybeHead().fromJust();
+				value = statement.getExpression();
+			} catch (JsError e) {
+				throw new ModuleLoaderException(path, e);
+			}
+		}
+		ComputedMemberExpression exportsDefault = new ComputedMemberExpression(new LiteralStringExpression("default"), new IdentifierExpression("exports"));
+		ExpressionStatement export = new ExpressionStatement(new AssignmentExpression(exportsDefault, value));
+		return new Module(ImmutableList.empty(), ImmutableList.of(export));
+	}
+
+	// copies a single JSON value token by token, dropping whitespace
+	@NotNull
+	private static String minify(@NotNull String path, @NotNull String source) throws ModuleLoaderException {
+		if (source.startsWith("\uFEFF")) {
+			source = source.substring(1);
+		}
+		StringWriter out = new StringWriter(source.length());
+		// a strict reader only accepts objects and arrays at the top level, so read the value as an array element
+		try (JsonReader reader = new JsonReader(new StringReader("[" + source + "]"))) {
+			JsonWriter writer = new JsonWriter(out);
+			reader.beginArray();
+			int depth = 0;
+			do {
+				JsonToken token = reader.peek();
+				switch (token) {
+					case BEGIN_ARRAY:
+						reader.beginArray();
+						writer.beginArray();
+						++depth;
+						break;
+					case END_ARRAY:
+						reader.endArray();
+						writer.endArray();
+						--depth;
+						break;
+					case BEGIN_OBJECT:
+						reader.beginObject();
+						writer.beginObject();
+						++depth;
+						break;
+					case END_OBJECT:
+						reader.endObject();
+						writer.endObject();
+						--depth;
+						break;
+					case NAME:
+						writer.name(reader.nextName());
+						break;
+					case STRING:
+						writer.value(reader.nextString());
+						break;
+					case NUMBER:
+						writer.value(new JsonNumber(reader.nextString()));
+						break;
+					case BOOLEAN:
+						writer.value(reader.nextBoolean());
+						break;
+					case NULL:
+						reader.nextNull();
+						writer.nullValue();
+						break;
+					default:
+						throw new IOException("Expected a JSON value");
+				}
+			} while (depth > 0);
+			if (reader.hasNext()) {
+				throw new IOException("Expected a single JSON value");
+			}
+			reader.endArray();
+			if (reader.peek() != JsonToken.END_DOCUMENT) {
+				throw new IOException("Expected the end of the file");
+			}
+			writer.flush();
+		} catch (IOException | IllegalStateException | NumberFormatException e) {
+			throw new ModuleLoaderException(path, e);
+		}
+		return out.toString();
+	}
+
+	// writes a number exactly as it appears in the source
+	private static final class JsonNumber extends Number {
+		@NotNull
+		private final String text;
+
+		JsonNumber(@NotNull String text) {
+			this.text = text;
+		}
+
+		@Override
+		public int intValue() {
+			return (int) this.doubleValue();
+		}
+
+		@Override
+		public long longValue() {
+			return (long) this.doubleValue();
+		}
+
+		@Override
+		public float floatValue() {
+			return (float) this.doubleValue();
+		}
+
+		@Override
+		public double doubleValue() {
+			return Double.parseDouble(this.text);
+		}
+
+		@Override
+		public String toString() {
+			return this.text;
+		}
+	}
+}
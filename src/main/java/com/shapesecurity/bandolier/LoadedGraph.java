@@ -0,0 +1,82 @@
+/*
+ * Copyright 2016 Shape Security, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.shapesecurity.bandolier;
+
+import com.shapesecurity.bandolier.loader.IResourceLoader;
+import com.shapesecurity.shift.ast.Module;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executor;
+
+/**
+ * The modules of a bundle, loaded, parsed and resolved by {@link Bundler#loadGraph}. Any number of bundles can
+ * be generated from the same graph with different options, at once from several threads, without loading or
+ * parsing the modules again. The modules are not updated when their sources change.
+ */
+public final class LoadedGraph {
+	@NotNull
+	final String entryPath;
+	// from resolved paths to modules whose imports have been resolved
+	@NotNull
+	final Map<String, Module> modules;
+	// from resolved paths to the hash of their source
+	@NotNull
+	final Map<String, String> sourceHashes;
+	// from resolved paths to the source of modules bundled without parsing, whose modules are empty
+	@NotNull
+	final Map<String, String> rawSources;
+	// whether a source may use the names of the minified runtime
+	final boolean usesRuntimeNames;
+	// reads package.json files when deduplicating
+	@NotNull
+	final IResourceLoader loader;
+
+	LoadedGraph(@NotNull String entryPath, @NotNull Map<String, Module> modules, @NotNull Map<String, String> sourceHashes, @NotNull Map<String, String> rawSources, boolean usesRuntimeNames, @NotNull IResourceLoader loader) {
+		this.entryPath = entryPath;
+		this.modules = Collections.unmodifiableMap(modules);
+		this.sourceHashes = Collections.unmodifiableMap(sourceHashes);
+		this.rawSources = Collections.unmodifiableMap(rawSources);
+		this.usesRuntimeNames = usesRuntimeNames;
+		this.loader = loader;
+	}
+
+	/**
+	 * @return the resolved paths of the loaded modules
+	 */
+	@NotNull
+	public Set<String> paths() {
+		return this.modules.keySet();
+	}
+
+	/**
+	 * Generates a bundle from the loaded modules. The result is the same as
+	 * {@link Bundler#bundleToString(java.nio.file.Path, com.shapesecurity.bandolier.loader.IResolver, IResourceLoader, BundlerOptions, Executor)}
+	 * with these options, except that the options that control loading are ignored.
+	 *
+	 * @param options  how to build the bundle
+	 * @param executor transforms and generates code for modules in parallel
+	 * @return the code of the bundle
+	 * @throws BundleAbortedException when the bundle times out or is cancelled
+	 */
+	@NotNull
+	public String bundleToString(@NotNull BundlerOptions options, @NotNull Executor executor) {
+		return Bundler.bundleToString(this, options, executor);
+	}
+}
@@ -1,23 +1,241 @@
 package com.shapesecurity.bandolier;
 
-import com.shapesecurity.bandolier.loader.FileLoader;
+import com.google.gson.stream.JsonWriter;
+
+import com.shapesecurity.bandolier.loader.CanonicalizingResolver;
+import com.shapesecurity.bandolier.loader.DirectorySnapshotLoader;
+import com.shapesecurity.bandolier.loader.IResolver;
 import com.shapesecurity.bandolier.loader.IResourceLoader;
+import com.shapesecurity.bandolier.loader.ManifestResolver;
+import com.shapesecurity.bandolier.loader.ModuleLoaderException;
 import com.shapesecurity.bandolier.loader.NodeResolver;
-import com.shapesecurity.shift.ast.Script;
-import com.shapesecurity.shift.codegen.CodeGen;
+import com.shapesecurity.bandolier.loader.RecordingResolver;
+import com.shapesecurity.functional.data.Maybe;
 
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ForkJoinPool;
 
 public class Main {
+	// characters of generated code kept in the --code-cache file
+	private static final long CODE_CACHE_SIZE = 64L << 20;
+
 	public static void main(String[] args) throws Exception {
-		if (args.length > 0) {
-			IResourceLoader loader = new FileLoader();
-			Script bundle = Bundler.bundle(Paths.get(args[0]).toAbsolutePath(),
-										   new NodeResolver(loader),
-										   loader);
-			System.out.print(CodeGen.codeGen(bundle));
+		BundlerOptions options = BundlerOptions.DEFAULT;
+		boolean preserveSymlinks = false;
+		boolean stream = false;
+		Path writeManifest = null;
+		Path readManifest = null;
+		Path codeCache = null;
+		Path profile = null;
+		Path outDir = null;
+		// from output files to the options they are built with
+		Map<String, String> variants = new LinkedHashMap<>();
+		String file = null;
+		for (int i = 0; i < args.length; ++i) {
+			String arg = args[i];
+			if (arg.equals("--preserve-symlinks")) {
+				preserveSymlinks = true;
+			} else if (arg.equals("--stream")) {
+				stream = true;
+			} else if (arg.equals("--raw-passthrough")) {
+				options = options.withRawPassthrough(true);
+			} else if (arg.equals("--minify")) {
+				options = options.withMinification(true);
+			} else if (arg.equals("--stable-ids")) {
+				options = options.withStableIds(true);
+			} else if (arg.equals("--inline-constants")) {
+				options = options.withConstantInlining(true);
+			} else if (arg.equals("--dedupe")) {
+				options = options.withDeduplication(true).withDuplicatesListener(Main::reportDuplicates);
+			} else if (arg.equals("--write-resolution-manifest") && i + 1 < args.length) {
+				writeManifest = Paths.get(args[++i]);
+			} else if (arg.equals("--resolution-manifest") && i + 1 < args.length) {
+				readManifest = Paths.get(args[++i]);
+			} else if (arg.equals("--code-cache") && i + 1 < args.length) {
+				codeCache = Paths.get(args[++i]);
+			} else if (arg.equals("--out-dir") && i + 1 < args.length) {
+				outDir = Paths.get(args[++i]);
+			} else if (arg.equals("--profile") && i + 1 < args.length) {
+				profile = Paths.get(args[++i]);
+			} else if (arg.equals("--variant") && i + 1 < args.length) {
+				String variant = args[++i];
+				int separator = variant.lastIndexOf('=');
+				variants.put(separator < 0 ? variant : variant.substring(0, separator), separator < 0 ? "" : variant.substring(separator + 1));
+			} else if (arg.startsWith("--")) {
+				System.err.println("Unknown option " + arg);
+				return;
+			} else {
+				file = arg;
+			}
+		}
+
+		GeneratedCodeCache cache = null;
+		if (codeCache != null) {
+			cache = GeneratedCodeCache.load(codeCache, CODE_CACHE_SIZE);
+			options = options.withCodeCache(cache);
+		}
+
+		// prefetched sources are held until they are bundled, which would defeat streaming
+		if (!stream) {
+			options = options.withPrefetch(ForkJoinPool.commonPool());
+		}
+		Map<String, String> moduleIds = new HashMap<>();
+		if (profile != null) {
+			options = options.withProfiling(true).withModuleIdsListener(moduleIds::putAll);
+		}
+
+		if (stream && options.deduplicate()) {
+			System.err.println("--dedupe cannot be used with --stream");
+		} else if (stream && options.inlineConstants()) {
+			System.err.println("--inline-constants cannot be used with --stream");
+		} else if (!variants.isEmpty() && (stream || profile != null)) {
+			System.err.println("--variant cannot be used with --stream or --profile");
+		} else if (file != null) {
+			IResourceLoader loader = new DirectorySnapshotLoader();
+			Path path = Paths.get(file).toAbsolutePath();
+			IResolver resolver = new NodeResolver(loader);
+			if (!preserveSymlinks) {
+				CanonicalizingResolver canonicalizingResolver = new CanonicalizingResolver(resolver);
+				path = Paths.get(canonicalizingResolver.canonicalize(path.toString()));
+				resolver = canonicalizingResolver;
+			}
+			if (readManifest != null) {
+				resolver = ManifestResolver.read(readManifest, Maybe.of(resolver));
+			}
+			RecordingResolver recordingResolver = null;
+			if (writeManifest != null) {
+				recordingResolver = new RecordingResolver(resolver);
+				resolver = recordingResolver;
+			}
+
+			if (!variants.isEmpty()) {
+				if (!bundleVariants(path, resolver, loader, options, variants, outDir)) {
+					return;
+				}
+			} else if (outDir != null) {
+				OutputDirectory output = new OutputDirectory(outDir);
+				try (OutputDirectory.PendingOutput out = output.create(path.getFileName().toString())) {
+					if (stream) {
+						Bundler.bundleToWriter(path, resolver, loader, options, out.writer());
+					} else {
+						out.writer().write(Bundler.bundleToString(path, resolver, loader, options, ForkJoinPool.commonPool()));
+					}
+					out.commit();
+				}
+				output.writeManifest();
+			} else if (stream) {
+				Writer out = new BufferedWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8));
+				Bundler.bundleToWriter(path, resolver, loader, options, out);
+				out.flush();
+			} else {
+				System.out.print(Bundler.bundleToString(path, resolver, loader, options, ForkJoinPool.commonPool()));
+			}
+
+			if (cache != null) {
+				cache.save(codeCache);
+			}
+			if (profile != null) {
+				writeModuleIds(profile, moduleIds);
+			}
+			if (recordingResolver != null) {
+				try (Writer writer = Files.newBufferedWriter(writeManifest, StandardCharsets.UTF_8)) {
+					recordingResolver.writeManifest(writer);
+				}
+			}
 		} else {
 			System.err.println("Must provide a filename");
 		}
 	}
+
+	// builds every variant from a single load of the modules, variants with the profile option also write
+	// their module ids next to their output, returns false if a variant has an unknown option. With an output
+	// directory, variants and their module ids are written to it under hashed names.
+	private static boolean bundleVariants(Path path, IResolver resolver, IResourceLoader loader, BundlerOptions options, Map<String, String> variants, Path outDir)
+		throws IOException, ModuleLoaderException {
+		Map<String, BundlerOptions> variantOptions = new LinkedHashMap<>();
+		Map<String, Map<String, String>> variantIds = new HashMap<>();
+		for (Map.Entry<String, String> variant : variants.entrySet()) {
+			BundlerOptions variantOption = options;
+			for (String option : variant.getValue().split(",")) {
+				if (option.equals("profile")) {
+					Map<String, String> moduleIds = new HashMap<>();
+					variantIds.put(variant.getKey(), moduleIds);
+					variantOption = variantOption.withProfiling(true).withModuleIdsListener(moduleIds::putAll);
+				} else if (option.equals("dedupe")) {
+					variantOption = variantOption.withDeduplication(true).withDuplicatesListener(Main::reportDuplicates);
+				} else if (option.equals("inline-constants")) {
+					variantOption = variantOption.withConstantInlining(true);
+				} else if (option.equals("minify")) {
+					variantOption = variantOption.withMinification(true);
+				} else if (!option.isEmpty()) {
+					System.err.println("Unknown variant option " + option);
+					return false;
+				}
+			}
+			variantOptions.put(variant.getKey(), variantOption);
+		}
+
+		Map<String, String> bundles = Bundler.bundleVariants(path, resolver, loader, options, variantOptions, ForkJoinPool.commonPool());
+		if (outDir != null) {
+			OutputDirectory output = new OutputDirectory(outDir);
+			for (Map.Entry<String, String> bundle : bundles.entrySet()) {
+				try (OutputDirectory.PendingOutput out = output.create(bundle.getKey())) {
+					out.writer().write(bundle.getValue());
+					out.commit();
+				}
+			}
+			for (Map.Entry<String, Map<String, String>> moduleIds : variantIds.entrySet()) {
+				try (OutputDirectory.PendingOutput out = output.create(moduleIds.getKey() + ".modules.json")) {
+					writeModuleIds(out.writer(), moduleIds.getValue());
+					out.commit();
+				}
+			}
+			output.writeManifest();
+		} else {
+			for (Map.Entry<String, String> bundle : bundles.entrySet()) {
+				Files.write(Paths.get(bundle.getKey()), bundle.getValue().getBytes(StandardCharsets.UTF_8));
+			}
+			for (Map.Entry<String, Map<String, String>> moduleIds : variantIds.entrySet()) {
+				writeModuleIds(Paths.get(moduleIds.getKey() + ".modules.json"), moduleIds.getValue());
+			}
+		}
+		return true;
+	}
+
+	private static void writeModuleIds(Path file, Map<String, String> moduleIds) throws IOException {
+		try (Writer out = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+			writeModuleIds(out, moduleIds);
+		}
+	}
+
+	// {"1": "/path/to/module.js", ...}
+	private static void writeModuleIds(Writer out, Map<String, String> moduleIds) throws IOException {
+		JsonWriter writer = new JsonWriter(out);
+		writer.setIndent("  ");
+		writer.beginObject();
+		for (Map.Entry<String, String> entry : new TreeMap<>(moduleIds).entrySet()) {
+			writer.name(entry.getKey()).value(entry.getValue());
+		}
+		writer.endObject();
+		writer.flush();
+	}
+
+	private static void reportDuplicates(Map<String, List<String>> duplicates) {
+		duplicates.forEach((bundled, copies) -> {
+			System.err.println("Bundled " + bundled + " in place of:");
+			copies.forEach(copy -> System.err.println("  " + copy));
+		});
+	}
 }
@@ -0,0 +1,287 @@
+/*
+ * Copyright 2016 Shape Security, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.shapesecurity.bandolier;
+
+import com.shapesecurity.functional.data.ImmutableList;
+import com.shapesecurity.functional.data.Maybe;
+import com.shapesecurity.shift.ast.Binding;
+import com.shapesecurity.shift.ast.BindingBindingWithDefault;
+import com.shapesecurity.shift.ast.BindingIdentifier;
+import com.shapesecurity.shift.ast.BindingProperty;
+import com.shapesecurity.shift.ast.BindingPropertyIdentifier;
+import com.shapesecurity.shift.ast.BindingPropertyProperty;
+import com.shapesecurity.shift.ast.BindingWithDefault;
+import com.shapesecurity.shift.ast.CallExpression;
+import com.shapesecurity.shift.ast.DataProperty;
+import com.shapesecurity.shift.ast.Directive;
+import com.shapesecurity.shift.ast.Expression;
+import com.shapesecurity.shift.ast.ExpressionSuper;
+import com.shapesecurity.shift.ast.IdentifierExpression;
+import com.shapesecurity.shift.ast.LiteralNumericExpression;
+import com.shapesecurity.shift.ast.LiteralStringExpression;
+import com.shapesecurity.shift.ast.Node;
+import com.shapesecurity.shift.ast.ObjectProperty;
+import com.shapesecurity.shift.ast.Script;
+import com.shapesecurity.shift.ast.ShorthandProperty;
+import com.shapesecurity.shift.ast.SpreadElementExpression;
+import com.shapesecurity.shift.ast.Statement;
+import com.shapesecurity.shift.ast.StaticMemberExpression;
+import com.shapesecurity.shift.ast.StaticPropertyName;
+import com.shapesecurity.shift.reducer.CloneReducer;
+import com.shapesecurity.shift.scope.GlobalScope;
+import com.shapesecurity.shift.scope.Scope;
+import com.shapesecurity.shift.scope.ScopeAnalyzer;
+import com.shapesecurity.shift.scope.Variable;
+import com.shapesecurity.shift.visitor.Director;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+/**
+ * Shortens the names in the code of a bundle. Variables declared in functions and blocks are renamed, with
+ * scope analysis, to the shortest names that do not clash with the variables they can see, and the most used
+ * variables of each scope get the shortest names. The names of the runtime that are in scope in every module
+ * (such as <code>require</code>) are renamed to fixed names ending in <code>$</code>, which mangled names
+ * never end in, so that modules minified on their own still refer to the runtime. Those names would hide
+ * globals of the same names, so the runtime keeps its names in bundles whose sources
+ * {@link #mayUseRuntimeNames may use them}. Module ids in calls to the runtime are written as numbers when they
+ * are decimal.
+ *
+ * Variables of the global scope and property names are never renamed. Code that uses <code>eval</code> or
+ * <code>with</code> only has the runtime names renamed.
+ */
+final class Minifier {
+	// the names of the runtime in scope in every module, and what they are renamed to
+	static final Map<String, String> RUNTIME_NAMES;
+
+	static {
+		Map<String, String> names = new HashMap<>();
+		names.put("require", "r$");
+		names.put("global", "g$");
+		names.put("profile$", "p$");
+		RUNTIME_NAMES = Collections.unmodifiableMap(names);
+	}
+
+	// g$, p$ and r$ as identifiers, or spelled with unicode escapes
+	private static final Pattern RUNTIME_NAME_USE = Pattern.compile(
+		"(?<![\\w$\\\\])[gpr](\\$|\\\\u0024|\\\\u\\{0*24\\})|\\\\u(00|\\{0*)(67|70|72)\\}?(\\$|\\\\u)");
+
+	// ids that are the same string when written as a number
+	private static final Pattern NUMERIC_ID = Pattern.compile("[1-9][0-9]{0,14}");
+
+	private static final String FIRST_CHARS = "abcdefghijklmnopqrstuvwxyzABCDEFGHIJKLMNOPQRSTUVWXYZ";
+	private static final String CHARS = FIRST_CHARS + "0123456789";
+
+	private static final Set<String> RESERVED_WORDS = new HashSet<>(Arrays.asList(
+		"break", "case", "catch", "class", "const", "continue", "debugger", "default", "delete", "do", "else", "enum",
+		"export", "extends", "false", "finally", "for", "function", "if", "implements", "import", "in", "instanceof",
+		"interface", "let", "new", "null", "package", "private", "protected", "public", "return", "static", "super",
+		"switch", "this", "throw", "true", "try", "typeof", "var", "void", "while", "with", "yield", "await",
+		"arguments", "eval"));
+
+	private Minifier() {
+	}
+
+	/**
+	 * Whether a source may refer to one of the names the runtime is renamed to. Sources are searched as text,
+	 * so that modules bundled without parsing are covered, and may match in strings or comments.
+	 *
+	 * @param source the source of a module
+	 * @return false if the source cannot refer to a renamed runtime name
+	 */
+	static boolean mayUseRuntimeNames(@NotNull String source) {
+		return RUNTIME_NAME_USE.matcher(source).find();
+	}
+
+	/**
+	 * Minifies a statement, such as the definition of a module, as strict code.
+	 *
+	 * @param statement     the statement to minify
+	 * @param mangle        whether to rename declared variables
+	 * @param renameRuntime whether to rename the runtime names
+	 * @return the minified statement
+	 */
+	@NotNull
+	static Statement minify(@NotNull Statement statement, boolean mangle, boolean renameRuntime) {
+		Script script = new Script(ImmutableList.of(new Directive("use strict")), ImmutableList.of(statement));
+		return minify(script, mangle, renameRuntime).statements.maybeHead().fromJust();
+	}
+
+	/**
+	 * Minifies a script.
+	 *
+	 * @param script        the script to minify
+	 * @param mangle        whether to rename declared variables
+	 * @param renameRuntime whether to rename the runtime names
+	 * @return the minified script
+	 */
+	@NotNull
+	static Script minify(@NotNull Script script, boolean mangle, boolean renameRuntime) {
+		// shorthand properties are named by the variable they refer to
+		Script expanded = (Script) Director.reduceScript(new ShorthandExpander(), script);
+		Map<Node, String> names = new IdentityHashMap<>();
+		if (mangle) {
+			GlobalScope global = ScopeAnalyzer.analyze(expanded);
+			// the global scope is always dynamic
+			if (!global.children.exists(Minifier::isDynamic)) {
+				Set<String> taken = new HashSet<>();
+				global.through.foreach(p -> taken.add(p.left));
+				global.variables().forEach(v -> taken.add(v.name));
+				global.children.foreach(child -> mangle(child, taken, names, renameRuntime));
+			}
+		}
+		Renamer renamer = new Renamer(names, renameRuntime);
+		Script minified = (Script) Director.reduceScript(renamer, expanded);
+		if (renamer.renamed.size() != names.size()) {
+			// a variable is referred to by a node that is not in the tree, renaming only some of its uses would
+			// change what the code does
+			return minify(script, false, renameRuntime);
+		}
+		return minified;
+	}
+
+	// chooses names for the variables of a scope and the scopes it contains, taken holds the names that the
+	// scope can see
+	private static void mangle(@NotNull Scope scope, @NotNull Set<String> taken, @NotNull Map<Node, String> names, boolean renameRuntime) {
+		Set<String> inScope = new HashSet<>(taken);
+		List<Variable> renamed = new ArrayList<>();
+		for (Variable variable : scope.variables()) {
+			if (scope.type == Scope.Type.Script || variable.declarations.isEmpty() || RUNTIME_NAMES.containsKey(variable.name)) {
+				// top level declarations are globals, and arguments is never declared
+				inScope.add(renameRuntime ? RUNTIME_NAMES.getOrDefault(variable.name, variable.name) : variable.name);
+			} else {
+				renamed.add(variable);
+			}
+		}
+		renamed.sort(Comparator.<Variable>comparingInt(v -> -(v.references.length + v.declarations.length)).thenComparing(v -> v.name));
+		int next = 0;
+		for (Variable variable : renamed) {
+			String name;
+			do {
+				name = shortName(next++);
+			} while (inScope.contains(name) || RESERVED_WORDS.contains(name));
+			inScope.add(name);
+			String newName = name;
+			variable.declarations.foreach(d -> names.put(d.node, newName));
+			variable.references.foreach(r -> names.put(r.node.either(b -> b, e -> e), newName));
+		}
+		scope.children.foreach(child -> mangle(child, inScope, names, renameRuntime));
+	}
+
+	// a, b, ..., Z, aa, ba, ..., Za, ab, ..., Z9, aaa, ...
+	@NotNull
+	private static String shortName(int index) {
+		StringBuilder name = new StringBuilder().append(FIRST_CHARS.charAt(index % FIRST_CHARS.length()));
+		for (index /= FIRST_CHARS.length(); index > 0; index = index / CHARS.length()) {
+			--index;
+			name.append(CHARS.charAt(index % CHARS.length()));
+		}
+		return name.toString();
+	}
+
+	private static boolean isDynamic(@NotNull Scope scope) {
+		return scope.dynamic || scope.type == Scope.Type.With || scope.children.exists(Minifier::isDynamic);
+	}
+
+	private static boolean isRuntimeCall(@NotNull Node callee, boolean renameRuntime) {
+		String require = renameRuntime ? RUNTIME_NAMES.get("require") : "require";
+		if (callee instanceof StaticMemberExpression && ((StaticMemberExpression) callee).property.equals("define")) {
+			callee = ((StaticMemberExpression) callee)._object;
+		}
+		return callee instanceof IdentifierExpression && ((IdentifierExpression) callee).name.equals(require);
+	}
+
+	// {x} to {x:x}
+	private static final class ShorthandExpander extends CloneReducer {
+		@NotNull
+		@Override
+		public ObjectProperty reduceShorthandProperty(@NotNull ShorthandProperty node) {
+			return new DataProperty(new IdentifierExpression(node.name), new StaticPropertyName(node.name));
+		}
+	}
+
+	private static final class Renamer extends CloneReducer {
+		// from declarations and references to their new names
+		@NotNull
+		private final Map<Node, String> names;
+		@NotNull
+		final Set<Node> renamed = Collections.newSetFromMap(new IdentityHashMap<>());
+		private final boolean renameRuntime;
+
+		Renamer(@NotNull Map<Node, String> names, boolean renameRuntime) {
+			this.names = names;
+			this.renameRuntime = renameRuntime;
+		}
+
+		@NotNull
+		private String rename(@NotNull Node node, @NotNull String name) {
+			String newName = this.names.get(node);
+			if (newName != null) {
+				this.renamed.add(node);
+				return newName;
+			}
+			return this.renameRuntime ? RUNTIME_NAMES.getOrDefault(name, name) : name;
+		}
+
+		@NotNull
+		@Override
+		public BindingIdentifier reduceBindingIdentifier(@NotNull BindingIdentifier node) {
+			return new BindingIdentifier(this.rename(node, node.name));
+		}
+
+		@NotNull
+		@Override
+		public Expression reduceIdentifierExpression(@NotNull IdentifierExpression node) {
+			return new IdentifierExpression(this.rename(node, node.name));
+		}
+
+		@NotNull
+		@Override
+		public BindingProperty reduceBindingPropertyIdentifier(@NotNull BindingPropertyIdentifier node, @NotNull Node binding, @NotNull Maybe<Node> init) {
+			if (((BindingIdentifier) binding).name.equals(node.binding.name)) {
+				return super.reduceBindingPropertyIdentifier(node, binding, init);
+			}
+			// {x} to {x:a}
+			BindingBindingWithDefault renamed = init.isJust()
+				? new BindingWithDefault((Binding) binding, (Expression) init.fromJust())
+				: (BindingIdentifier) binding;
+			return new BindingPropertyProperty(new StaticPropertyName(node.binding.name), renamed);
+		}
+
+		@NotNull
+		@Override
+		public Expression reduceCallExpression(@NotNull CallExpression node, @NotNull Node callee, @NotNull ImmutableList<Node> arguments) {
+			Maybe<Node> id = arguments.maybeHead();
+			if (isRuntimeCall(callee, this.renameRuntime) && id.isJust() && id.fromJust() instanceof LiteralStringExpression
+				&& NUMERIC_ID.matcher(((LiteralStringExpression) id.fromJust()).value).matches()) {
+				Node number = new LiteralNumericExpression(Double.parseDouble(((LiteralStringExpression) id.fromJust()).value));
+				return new CallExpression((ExpressionSuper) callee, arguments.maybeTail().fromJust().cons(number).map(a -> (SpreadElementExpression) a));
+			}
+			return super.reduceCallExpression(node, callee, arguments);
+		}
+	}
+}
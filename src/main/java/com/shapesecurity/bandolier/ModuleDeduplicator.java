@@ -0,0 +1,220 @@
+/*
+ * Copyright 2016 Shape Security, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.shapesecurity.bandolier;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import com.shapesecurity.bandolier.loader.ContentHash;
+import com.shapesecurity.bandolier.loader.IResourceLoader;
+import com.shapesecurity.functional.data.Maybe;
+import com.shapesecurity.shift.ast.Module;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * Finds modules in a graph that are copies of each other, for example the same version of a package
+ * installed in several nested <code>node_modules</code> directories.
+ *
+ * Two modules start out as candidates when their sources have the same hash or when they are the same file
+ * (package name, version and path within the package) of the same package. Candidates are only considered
+ * duplicates if their dependencies are duplicates as well, so identical files that import different
+ * modules through relative paths are kept apart.
+ */
+public class ModuleDeduplicator {
+	@NotNull
+	private final IResourceLoader loader;
+
+	@NotNull
+	private final Map<Path, Maybe<String>> packageIds = new HashMap<>();
+
+	/**
+	 * @param loader used to read the <code>package.json</code> of packages in <code>node_modules</code>
+	 */
+	public ModuleDeduplicator(@NotNull IResourceLoader loader) {
+		this.loader = loader;
+	}
+
+	/**
+	 * Maps every module in the graph to the module that should be bundled in its place.
+	 *
+	 * @param modules      maps resolved paths to modules whose imports have been resolved
+	 * @param sourceHashes maps resolved paths to a hash of the module's source
+	 * @param entryPath    the entry point, which always represents its own group
+	 * @return a map from every module path to the path of the module that replaces it (possibly itself)
+	 */
+	@NotNull
+	public Map<String, String> deduplicate(@NotNull Map<String, Module> modules, @NotNull Map<String, String> sourceHashes, @NotNull String entryPath) {
+		// iterate in a stable order so that the chosen representatives do not depend on hashing
+		List<String> paths = new ArrayList<>(new TreeSet<>(modules.keySet()));
+		Map<String, Integer> classes = this.initialClasses(paths, sourceHashes);
+
+		// split groups whose members depend on modules from different groups, until no group is split
+		int classCount = new TreeSet<>(classes.values()).size();
+		while (true) {
+			Map<List<Integer>, Integer> signatures = new HashMap<>();
+			Map<String, Integer> refined = new HashMap<>();
+			for (String path : paths) {
+				List<Integer> signature = new ArrayList<>();
+				signature.add(classes.get(path));
+				for (String dependency : Bundler.collectDirectDependencies(modules.get(path))) {
+					signature.add(classes.getOrDefault(dependency, -1));
+				}
+				Integer id = signatures.get(signature);
+				if (id == null) {
+					id = signatures.size();
+					signatures.put(signature, id);
+				}
+				refined.put(path, id);
+			}
+			classes = refined;
+			if (signatures.size() == classCount) {
+				break;
+			}
+			classCount = signatures.size();
+		}
+
+		Map<Integer, String> representatives = new HashMap<>();
+		representatives.put(classes.get(entryPath), entryPath);
+		Map<String, String> canonical = new HashMap<>();
+		for (String path : paths) {
+			canonical.put(path, representatives.computeIfAbsent(classes.get(path), c -> path));
+		}
+		return canonical;
+	}
+
+	/**
+	 * Groups the result of {@link #deduplicate} by representative.
+	 *
+	 * @param canonical a map from module paths to the paths of the modules that replace them
+	 * @return a sorted map from each module that has duplicates to the (sorted) paths of its duplicates
+	 */
+	@NotNull
+	public static Map<String, List<String>> duplicates(@NotNull Map<String, String> canonical) {
+		Map<String, List<String>> duplicates = new TreeMap<>();
+		canonical.forEach((path, representative) -> {
+			if (!path.equals(representative)) {
+				duplicates.computeIfAbsent(representative, r -> new ArrayList<>()).add(path);
+			}
+		});
+		duplicates.values().forEach(Collections::sort);
+		return duplicates;
+	}
+
+	/**
+	 * @param source the source of a module
+	 * @return the hex encoded SHA-256 hash of the source
+	 */
+	@NotNull
+	public static String sourceHash(@NotNull String source) {
+		return ContentHash.sha256(source);
+	}
+
+	// modules with the same source hash or the same package file end up in the same class
+	@NotNull
+	private Map<String, Integer> initialClasses(@NotNull List<String> paths, @NotNull Map<String, String> sourceHashes) {
+		int[] parent = new int[paths.size()];
+		Map<String, Integer> firstWithKey = new HashMap<>();
+		for (int i = 0; i < paths.size(); ++i) {
+			int index = i;
+			parent[index] = index;
+			String path = paths.get(index);
+			String hash = sourceHashes.get(path);
+			if (hash != null) {
+				union(parent, index, firstWithKey.computeIfAbsent("hash:" + hash, k -> index));
+			}
+			Maybe<String> packageFile = this.packageFileId(Paths.get(path));
+			if (packageFile.isJust()) {
+				union(parent, index, firstWithKey.computeIfAbsent("file:" + packageFile.fromJust(), k -> index));
+			}
+		}
+
+		Map<String, Integer> classes = new HashMap<>();
+		for (int i = 0; i < paths.size(); ++i) {
+			classes.put(paths.get(i), find(parent, i));
+		}
+		return classes;
+	}
+
+	private static int find(@NotNull int[] parent, int i) {
+		while (parent[i] != i) {
+			parent[i] = parent[parent[i]];
+			i = parent[i];
+		}
+		return i;
+	}
+
+	private static void union(@NotNull int[] parent, int a, int b) {
+		int rootA = find(parent, a);
+		int rootB = find(parent, b);
+		parent[Math.max(rootA, rootB)] = Math.min(rootA, rootB);
+	}
+
+	// name@version/sub/path for files inside node_modules packages
+	@NotNull
+	private Maybe<String> packageFileId(@NotNull Path path) {
+		int nodeModules = -1;
+		for (int i = 0; i < path.getNameCount() - 1; ++i) {
+			if (path.getName(i).toString().equals("node_modules")) {
+				nodeModules = i;
+			}
+		}
+		if (nodeModules < 0) {
+			return Maybe.empty();
+		}
+		int packageEnd = path.getName(nodeModules + 1).toString().startsWith("@") ? nodeModules + 3 : nodeModules + 2;
+		if (packageEnd >= path.getNameCount()) {
+			return Maybe.empty();
+		}
+		Path packageRoot = path.getRoot() == null
+			? path.subpath(0, packageEnd)
+			: path.getRoot().resolve(path.subpath(0, packageEnd));
+		Path subPath = path.subpath(packageEnd, path.getNameCount());
+		return this.packageIds.computeIfAbsent(packageRoot, this::readPackageId).map(id -> id + "/" + subPath);
+	}
+
+	@NotNull
+	private Maybe<String> readPackageId(@NotNull Path packageRoot) {
+		Path packageJsonPath = packageRoot.resolve("package.json");
+		if (!this.loader.exists(packageJsonPath)) {
+			return Maybe.empty();
+		}
+		try {
+			PackageJson packageJson = new Gson().fromJson(this.loader.loadResource(packageJsonPath), PackageJson.class);
+			if (packageJson == null || packageJson.name == null || packageJson.version == null) {
+				return Maybe.empty();
+			}
+			return Maybe.of(packageJson.name + "@" + packageJson.version);
+		} catch (IOException | JsonParseException e) {
+			return Maybe.empty();
+		}
+	}
+
+	private static class PackageJson {
+		String name;
+		String version;
+	}
+}
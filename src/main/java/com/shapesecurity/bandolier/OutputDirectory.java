@@ -0,0 +1,312 @@
+/*
+ * Copyright 2016 Shape Security, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.shapesecurity.bandolier;
+
+import com.google.gson.stream.JsonWriter;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Writes bundles to a directory under names that include a hash of their contents (for example
+ * <code>main.3f2a9c0d1b7e4a65.js</code>), so that they can be cached indefinitely. A gzip compressed copy of each
+ * bundle is written next to it in the same pass, and a manifest maps the name of each bundle to its files and
+ * their sizes, see {@link #writeManifest}.
+ *
+ * Files whose contents have not changed since an earlier build are not written again, so they keep their
+ * modification times. Files of earlier builds are never deleted.
+ */
+public class OutputDirectory {
+	/**
+	 * The name of the manifest in the directory.
+	 */
+	public static final String MANIFEST = "manifest.json";
+
+	// hex digits of the content hash in file names
+	private static final int HASH_LENGTH = 16;
+
+	private static final int MANIFEST_VERSION = 1;
+
+	@NotNull
+	private final Path directory;
+	// from bundle names to their files, sorted for a stable manifest
+	@NotNull
+	private final Map<String, Output> outputs = new TreeMap<>();
+
+	/**
+	 * @param directory where to write bundles, created if it does not exist
+	 * @throws IOException if the directory cannot be created
+	 */
+	public OutputDirectory(@NotNull Path directory) throws IOException {
+		this.directory = Files.createDirectories(directory);
+	}
+
+	/**
+	 * Starts writing a bundle. The bundle and its compressed copy are written to temporary files, which are moved
+	 * to their hashed names once the bundle is {@link PendingOutput#commit committed}, and deleted if it is closed
+	 * without being committed (for example when a module fails to load).
+	 * @param name the name of the bundle in the manifest, such as <code>main.js</code>
+	 * @return the bundle being written
+	 * @throws IOException if the temporary files cannot be created
+	 */
+	@NotNull
+	public PendingOutput create(@NotNull String name) throws IOException {
+		return new PendingOutput(name);
+	}
+
+	/**
+	 * @return the files of each bundle committed so far, by name
+	 */
+	@NotNull
+	public synchronized Map<String, Output> outputs() {
+		return Collections.unmodifiableMap(new TreeMap<>(this.outputs));
+	}
+
+	/**
+	 * Writes the manifest of the committed bundles to {@link #MANIFEST}, unless it has not changed:
+	 * <pre>
+	 * {"version": 1, "outputs": {"main.js": {"file": "main.3f2a9c0d1b7e4a65.js", "size": 1024,
+	 *   "gzip": "main.3f2a9c0d1b7e4a65.js.gz", "gzipSize": 512}, ...}}
+	 * </pre>
+	 * @return whether the manifest was written
+	 * @throws IOException if the manifest cannot be written
+	 */
+	public synchronized boolean writeManifest() throws IOException {
+		StringWriter out = new StringWriter();
+		JsonWriter writer = new JsonWriter(out);
+		writer.setIndent("  ");
+		writer.beginObject();
+		writer.name("version").value(MANIFEST_VERSION);
+		writer.name("outputs").beginObject();
+		for (Map.Entry<String, Output> entry : this.outputs.entrySet()) {
+			Output output = entry.getValue();
+			writer.name(entry.getKey()).beginObject();
+			writer.name("file").value(output.file);
+			writer.name("size").value(output.size);
+			writer.name("gzip").value(output.gzipFile);
+			writer.name("gzipSize").value(output.gzipSize);
+			writer.endObject();
+		}
+		writer.endObject();
+		writer.endObject();
+		writer.flush();
+
+		byte[] manifest = (out + "\n").getBytes(StandardCharsets.UTF_8);
+		Path file = this.directory.resolve(MANIFEST);
+		if (Files.exists(file) && Arrays.equals(manifest, Files.readAllBytes(file))) {
+			return false;
+		}
+		Path temporary = file.resolveSibling(MANIFEST + ".tmp");
+		Files.write(temporary, manifest);
+		Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING);
+		return true;
+	}
+
+	// main.js to main.<hash>.js
+	@NotNull
+	private static String hashedName(@NotNull String name, @NotNull String hash) {
+		int extension = name.lastIndexOf('.');
+		if (extension <= name.lastIndexOf('/') + 1) {
+			return name + "." + hash;
+		}
+		return name.substring(0, extension) + "." + hash + name.substring(extension);
+	}
+
+	// moves a temporary file in place, unless a file with the same contents is already there
+	private static void moveUnlessPresent(@NotNull Path temporary, @NotNull Path target) throws IOException {
+		if (Files.exists(target)) {
+			Files.delete(temporary);
+		} else {
+			Files.move(temporary, target, StandardCopyOption.REPLACE_EXISTING);
+		}
+	}
+
+	/**
+	 * The files of a bundle, relative to the directory.
+	 */
+	public static final class Output {
+		@NotNull
+		public final String file;
+		public final long size;
+		@NotNull
+		public final String gzipFile;
+		public final long gzipSize;
+
+		Output(@NotNull String file, long size, @NotNull String gzipFile, long gzipSize) {
+			this.file = file;
+			this.size = size;
+			this.gzipFile = gzipFile;
+			this.gzipSize = gzipSize;
+		}
+	}
+
+	/**
+	 * A bundle being written, see {@link #create}.
+	 */
+	public final class PendingOutput implements Closeable {
+		@NotNull
+		private final String name;
+		@NotNull
+		private final Path temporary;
+		@NotNull
+		private final Path gzipTemporary;
+		@NotNull
+		private final HashingOutputStream out;
+		@NotNull
+		private final Writer writer;
+		private boolean done = false;
+
+		private PendingOutput(@NotNull String name) throws IOException {
+			this.name = name;
+			// unlike Files.createTempFile, keeps the default permissions of new files
+			String unique = UUID.randomUUID().toString();
+			this.temporary = OutputDirectory.this.directory.resolve("." + unique + ".tmp");
+			this.gzipTemporary = OutputDirectory.this.directory.resolve("." + unique + ".gz.tmp");
+			this.out = new HashingOutputStream(
+				new BufferedOutputStream(Files.newOutputStream(this.temporary, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)),
+				new GZIPOutputStream(new BufferedOutputStream(Files.newOutputStream(this.gzipTemporary, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE))));
+			this.writer = new OutputStreamWriter(this.out, StandardCharsets.UTF_8);
+		}
+
+		/**
+		 * @return receives the code of the bundle
+		 */
+		@NotNull
+		public Writer writer() {
+			return this.writer;
+		}
+
+		/**
+		 * Finishes writing the bundle and moves it and its compressed copy to their hashed names.
+		 * @return the files of the bundle
+		 * @throws IOException if the files cannot be written or moved
+		 */
+		@NotNull
+		public Output commit() throws IOException {
+			this.writer.close();
+			String hash = this.out.hash().substring(0, HASH_LENGTH);
+			String file = hashedName(this.name, hash);
+			String gzipFile = file + ".gz";
+			Path target = OutputDirectory.this.directory.resolve(file);
+			Files.createDirectories(target.getParent());
+			moveUnlessPresent(this.temporary, target);
+			moveUnlessPresent(this.gzipTemporary, OutputDirectory.this.directory.resolve(gzipFile));
+			Output output = new Output(file, this.out.size, gzipFile, Files.size(OutputDirectory.this.directory.resolve(gzipFile)));
+			// until now, closing deletes whichever temporary files are left
+			this.done = true;
+			synchronized (OutputDirectory.this) {
+				OutputDirectory.this.outputs.put(this.name, output);
+			}
+			return output;
+		}
+
+		/**
+		 * Deletes the temporary files of a bundle that was not committed.
+		 * @throws IOException if the files cannot be deleted
+		 */
+		@Override
+		public void close() throws IOException {
+			if (this.done) {
+				return;
+			}
+			this.done = true;
+			try {
+				this.writer.close();
+			} finally {
+				Files.deleteIfExists(this.temporary);
+				Files.deleteIfExists(this.gzipTemporary);
+			}
+		}
+	}
+
+	// writes to a file and its compressed copy, hashing and counting what is written
+	private static final class HashingOutputStream extends OutputStream {
+		@NotNull
+		private final OutputStream out;
+		@NotNull
+		private final OutputStream gzip;
+		@NotNull
+		private final MessageDigest digest;
+		long size = 0;
+
+		HashingOutputStream(@NotNull OutputStream out, @NotNull OutputStream gzip) {
+			this.out = out;
+			this.gzip = gzip;
+			try {
+				this.digest = MessageDigest.getInstance("SHA-256");
+			} catch (NoSuchAlgorithmException e) {
+				throw new AssertionError(e);
+			}
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			this.write(new byte[] { (byte) b }, 0, 1);
+		}
+
+		@Override
+		public void write(@NotNull byte[] b, int off, int len) throws IOException {
+			this.out.write(b, off, len);
+			this.gzip.write(b, off, len);
+			this.digest.update(b, off, len);
+			this.size += len;
+		}
+
+		@Override
+		public void flush() throws IOException {
+			this.out.flush();
+			this.gzip.flush();
+		}
+
+		@Override
+		public void close() throws IOException {
+			try {
+				this.out.close();
+			} finally {
+				this.gzip.close();
+			}
+		}
+
+		@NotNull
+		String hash() {
+			StringBuilder hex = new StringBuilder();
+			for (byte b : this.digest.digest()) {
+				hex.append(String.format("%02x", b));
+			}
+			return hex.toString();
+		}
+	}
+}
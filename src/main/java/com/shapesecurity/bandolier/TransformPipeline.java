@@ -0,0 +1,229 @@
+/*
+ * Copyright 2016 Shape Security, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.shapesecurity.bandolier;
+
+import com.shapesecurity.bandolier.loader.IModuleLoader;
+import com.shapesecurity.bandolier.loader.IResourceLoader;
+import com.shapesecurity.bandolier.loader.ISourceTransform;
+import com.shapesecurity.bandolier.loader.ModuleLoaderException;
+import com.shapesecurity.functional.data.ImmutableList;
+import com.shapesecurity.functional.data.Maybe;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Loads modules through a pipeline of {@link ISourceTransform source transforms}. The output of each stage
+ * is memoized by the hash of its input and the stage's cache key, in memory and optionally in a directory
+ * shared by successive builds, so a stage only runs again when its input or its configuration changes. The
+ * memory holds at most {@link #MEMORY_CHARS} characters of output and evicts the least recently used first.
+ *
+ * A pipeline is also a resource loader, and is passed to the bundler in place of the loader it wraps. To
+ * transform independent modules in parallel, bundle with {@link BundlerOptions#withPrefetch}. Instances are
+ * thread-safe if the wrapped loader is.
+ */
+public class TransformPipeline implements IModuleLoader, IResourceLoader {
+
+	// changes whenever the cached output of a stage may change for the same key
+	private static final int VERSION = 1;
+
+	/**
+	 * The most characters of stage output held in memory.
+	 */
+	public static final long MEMORY_CHARS = 32L << 20;
+
+	@NotNull
+	private final IResourceLoader loader;
+
+	@NotNull
+	private final ImmutableList<ISourceTransform> stages;
+
+	@NotNull
+	private final Maybe<Path> cacheDirectory;
+
+	// from stage key to stage output, from least to most recently used
+	@NotNull
+	private final LinkedHashMap<String, String> outputs = new LinkedHashMap<>(16, 0.75f, true);
+
+	private long outputChars = 0;
+
+	@NotNull
+	private final AtomicLong hits = new AtomicLong();
+
+	@NotNull
+	private final AtomicLong misses = new AtomicLong();
+
+	/**
+	 * @param loader loads the sources of modules
+	 * @param stages the transforms to apply, in order
+	 */
+	public TransformPipeline(@NotNull IResourceLoader loader, @NotNull ISourceTransform... stages) {
+		this(loader, Maybe.empty(), ImmutableList.from(stages));
+	}
+
+	/**
+	 * @param loader         loads the sources of modules
+	 * @param cacheDirectory where the output of each stage is kept, created if needed
+	 * @param stages         the transforms to apply, in order
+	 */
+	public TransformPipeline(@NotNull IResourceLoader loader, @NotNull Path cacheDirectory, @NotNull ISourceTransform... stages) {
+		this(loader, Maybe.of(cacheDirectory), ImmutableList.from(stages));
+	}
+
+	private TransformPipeline(@NotNull IResourceLoader loader, @NotNull Maybe<Path> cacheDirectory, @NotNull ImmutableList<ISourceTransform> stages) {
+		this.loader = loader;
+		this.cacheDirectory = cacheDirectory;
+		this.stages = stages;
+	}
+
+	@NotNull
+	@Override
+	public String loadModule(@NotNull Path path) throws ModuleLoaderException {
+		String source;
+		try {
+			source = this.loader.loadResource(path);
+		} catch (IOException e) {
+			throw new ModuleLoaderException(path.toString(), e);
+		}
+		for (ISourceTransform stage : this.stages) {
+			source = this.runStage(stage, path, source);
+		}
+		return source;
+	}
+
+	@NotNull
+	@Override
+	public Boolean exists(@NotNull Path path) {
+		return this.loader.exists(path);
+	}
+
+	@NotNull
+	@Override
+	public String loadResource(@NotNull Path path) throws IOException {
+		try {
+			return this.loadModule(path);
+		} catch (ModuleLoaderException e) {
+			if (e.getCause() instanceof IOException) {
+				throw (IOException) e.getCause();
+			}
+			// the bundler reports the failure for the module's path
+			throw new IOException(e.getCause().getMessage(), e.getCause());
+		}
+	}
+
+	/**
+	 * @return how many stage outputs were taken from the cache
+	 */
+	public long hits() {
+		return this.hits.get();
+	}
+
+	/**
+	 * @return how many times a stage had to run
+	 */
+	public long misses() {
+		return this.misses.get();
+	}
+
+	/**
+	 * Discards the outputs held in memory. Outputs in the cache directory are kept.
+	 */
+	public synchronized void clear() {
+		this.outputs.clear();
+		this.outputChars = 0;
+	}
+
+	@NotNull
+	private String runStage(@NotNull ISourceTransform stage, @NotNull Path path, @NotNull String input) throws ModuleLoaderException {
+		String key = ModuleDeduplicator.sourceHash(VERSION + "\0" + stage.cacheKey(path) + "\0" + ModuleDeduplicator.sourceHash(input));
+		String output = this.memoized(key);
+		if (output == null) {
+			output = this.readOutput(key);
+		}
+		if (output != null) {
+			this.hits.incrementAndGet();
+			this.memoize(key, output);
+			return output;
+		}
+		this.misses.incrementAndGet();
+		output = stage.transform(path, input);
+		this.memoize(key, output);
+		this.writeOutput(key, output);
+		return output;
+	}
+
+	@Nullable
+	private synchronized String memoized(@NotNull String key) {
+		return this.outputs.get(key);
+	}
+
+	private synchronized void memoize(@NotNull String key, @NotNull String output) {
+		if (output.length() > MEMORY_CHARS) {
+			return;
+		}
+		String previous = this.outputs.put(key, output);
+		if (previous != null) {
+			this.outputChars -= previous.length();
+		}
+		this.outputChars += output.length();
+		Iterator<String> eldest = this.outputs.values().iterator();
+		while (this.outputChars > MEMORY_CHARS) {
+			this.outputChars -= eldest.next().length();
+			eldest.remove();
+		}
+	}
+
+	@Nullable
+	private String readOutput(@NotNull String key) {
+		if (this.cacheDirectory.isNothing()) {
+			return null;
+		}
+		try {
+			return new String(Files.readAllBytes(this.cacheDirectory.fromJust().resolve(key)), StandardCharsets.UTF_8);
+		} catch (IOException e) {
+			// missing or unreadable outputs are transformed again
+			return null;
+		}
+	}
+
+	private void writeOutput(@NotNull String key, @NotNull String output) {
+		if (this.cacheDirectory.isNothing()) {
+			return;
+		}
+		try {
+			Path directory = Files.createDirectories(this.cacheDirectory.fromJust());
+			// moved into place so that concurrent builds never read a partially written output
+			Path temporary = Files.createTempFile(directory, key, ".tmp");
+			try {
+				Files.write(temporary, output.getBytes(StandardCharsets.UTF_8));
+				Files.move(temporary, directory.resolve(key), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			} finally {
+				Files.deleteIfExists(temporary);
+			}
+		} catch (IOException e) {
+			// the output is still memoized in memory
+		}
+	}
+}
@@ -0,0 +1,87 @@
+/*
+ * Copyright 2016 Shape Security, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.shapesecurity.bandolier.loader;
+
+import com.shapesecurity.functional.data.ImmutableList;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Resolves paths with another resolver and then follows symbolic links, so that a file reachable through
+ * several paths (for example symlinked <code>node_modules</code> or workspace packages) is only bundled
+ * once. Paths that do not exist on the file system are returned unchanged.
+ *
+ * Real paths are cached for the lifetime of the resolver, so a resolver should not outlive changes to the
+ * links it has seen.
+ */
+public class CanonicalizingResolver implements IResolver {
+
+	@NotNull
+	private final IResolver resolver;
+
+	@NotNull
+	private final ImmutableList<PathMatcher> preserved;
+
+	@NotNull
+	private final ConcurrentHashMap<String, String> realPaths = new ConcurrentHashMap<>();
+
+	/**
+	 * @param resolver      resolves paths before symbolic links are followed
+	 * @param preservedGlobs {@link java.nio.file.FileSystem#getPathMatcher globs} matching paths that are
+	 *                       returned as resolved, without following symbolic links
+	 */
+	public CanonicalizingResolver(@NotNull IResolver resolver, @NotNull String... preservedGlobs) {
+		this.resolver = resolver;
+		this.preserved = ImmutableList.from(preservedGlobs).map(glob -> FileSystems.getDefault().getPathMatcher("glob:" + glob));
+	}
+
+	@NotNull
+	@Override
+	public String resolve(@NotNull Path root, @NotNull String path) {
+		return this.canonicalize(this.resolver.resolve(root, path));
+	}
+
+	@Override
+	public boolean hasSideEffects(@NotNull String path) {
+		return this.resolver.hasSideEffects(path);
+	}
+
+	/**
+	 * @param path an absolute path
+	 * @return the real path of the file, or the path itself if it does not exist or is preserved
+	 */
+	@NotNull
+	public String canonicalize(@NotNull String path) {
+		return this.realPaths.computeIfAbsent(path, p -> {
+			Path logical = Paths.get(p);
+			if (!logical.isAbsolute() || this.preserved.exists(matcher -> matcher.matches(logical))) {
+				return p;
+			}
+			try {
+				return logical.toRealPath().toString();
+			} catch (IOException e) {
+				return p;
+			}
+		});
+	}
+}
@@ -25,6 +25,9 @@ import java.io.InputStreamReader;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Path;
 
+/**
+ * Loads resources with {@link Class#getResource}, for example from inside a jar. Instances are thread-safe.
+ */
 public class ClassResourceLoader implements IResourceLoader {
 
 	private final Class klass;
@@ -36,18 +39,19 @@ public class ClassResourceLoader implements IResourceLoader {
 	@NotNull
 	@Override
 	public Boolean exists(@NotNull Path path) {
-		return this.getStream(path.toString()) != null;
+		return this.klass.getResource(path.toString()) != null;
 	}
 
 	@NotNull
 	@Override
 	public String loadResource(@NotNull Path path) throws IOException {
-		InputStream stream = this.getStream(path.toString());
-		if (stream == null) {
-			throw new IOException("Cannot load resource: " + path.toString());
-		}
+		try (InputStream stream = this.getStream(path.toString())) {
+			if (stream == null) {
+				throw new IOException("Cannot load resource: " + path.toString());
+			}
 
-		return this.readFile(stream);
+			return this.readFile(stream);
+		}
 	}
 
 	@Nullable
@@ -0,0 +1,57 @@
+/*
+ * Copyright 2016 Shape Security, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.shapesecurity.bandolier.loader;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Hex encoded SHA-256 hashes, used to name cached contents and to compare module sources.
+ */
+public final class ContentHash {
+
+	private ContentHash() {
+	}
+
+	/**
+	 * @param bytes the contents to hash
+	 * @return the hex encoded SHA-256 hash of the bytes
+	 */
+	@NotNull
+	public static String sha256(@NotNull byte[] bytes) {
+		try {
+			StringBuilder hex = new StringBuilder();
+			for (byte b : MessageDigest.getInstance("SHA-256").digest(bytes)) {
+				hex.append(String.format("%02x", b));
+			}
+			return hex.toString();
+		} catch (NoSuchAlgorithmException e) {
+			throw new AssertionError(e);
+		}
+	}
+
+	/**
+	 * @param text the text to hash
+	 * @return the hex encoded SHA-256 hash of the UTF-8 encoding of the text
+	 */
+	@NotNull
+	public static String sha256(@NotNull String text) {
+		return sha256(text.getBytes(StandardCharsets.UTF_8));
+	}
+}
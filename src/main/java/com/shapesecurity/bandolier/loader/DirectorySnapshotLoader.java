@@ -0,0 +1,106 @@
+/*
+ * Copyright 2016 Shape Security, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.shapesecurity.bandolier.loader;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Answers {@link #exists} from a snapshot of the file system: the first time a path in a directory is
+ * checked, the whole directory is listed once and every later check in that directory is answered from
+ * memory. Resolving a single import can check a dozen paths (<code>x</code>, <code>x.js</code>,
+ * <code>x/package.json</code>, <code>x/index.js</code>, ...), most of which do not exist.
+ *
+ * Resources are loaded by another loader. The snapshot is not updated when the file system changes, call
+ * {@link #invalidate} or {@link #invalidateAll} (for example from a file watcher) to discard stale listings.
+ */
+public class DirectorySnapshotLoader implements IResourceLoader {
+
+	@NotNull
+	private final IResourceLoader loader;
+
+	@NotNull
+	private final ConcurrentHashMap<Path, Set<String>> listings = new ConcurrentHashMap<>();
+
+	public DirectorySnapshotLoader() {
+		this(new FileLoader());
+	}
+
+	/**
+	 * @param loader loads resources from the same file system that is listed
+	 */
+	public DirectorySnapshotLoader(@NotNull IResourceLoader loader) {
+		this.loader = loader;
+	}
+
+	@NotNull
+	@Override
+	public Boolean exists(@NotNull Path path) {
+		Path absolute = path.toAbsolutePath().normalize();
+		Path dir = absolute.getParent();
+		if (dir == null || absolute.getFileName() == null) {
+			return this.loader.exists(path);
+		}
+		return this.listings.computeIfAbsent(dir, DirectorySnapshotLoader::list).contains(absolute.getFileName().toString());
+	}
+
+	@NotNull
+	@Override
+	public String loadResource(@NotNull Path path) throws IOException {
+		return this.loader.loadResource(path);
+	}
+
+	/**
+	 * Discards the listings of a changed path's directory, and of the path itself if it is a directory.
+	 * @param path a file or directory that was created, modified or deleted
+	 */
+	public void invalidate(@NotNull Path path) {
+		Path absolute = path.toAbsolutePath().normalize();
+		this.listings.remove(absolute);
+		if (absolute.getParent() != null) {
+			this.listings.remove(absolute.getParent());
+		}
+	}
+
+	/**
+	 * Discards all listings.
+	 */
+	public void invalidateAll() {
+		this.listings.clear();
+	}
+
+	@NotNull
+	private static Set<String> list(@NotNull Path dir) {
+		Set<String> names = new HashSet<>();
+		try (DirectoryStream<Path> entries = Files.newDirectoryStream(dir)) {
+			for (Path entry : entries) {
+				names.add(entry.getFileName().toString());
+			}
+		} catch (IOException e) {
+			// missing or unreadable directories contain nothing
+			return Collections.emptySet();
+		}
+		return Collections.unmodifiableSet(names);
+	}
+}
@@ -22,6 +22,9 @@ import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 
+/**
+ * Loads resources from the file system as UTF-8. Instances are stateless and thread-safe.
+ */
 public class FileLoader implements IResourceLoader {
 	@NotNull
 	@Override
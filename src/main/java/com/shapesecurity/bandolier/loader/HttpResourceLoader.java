@@ -0,0 +1,428 @@
+/*
+ * Copyright 2016 Shape Security, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.shapesecurity.bandolier.loader;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+
+import com.shapesecurity.functional.data.Maybe;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.io.Writer;
+import java.net.HttpURLConnection;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+
+/**
+ * Loads resources below a directory from an HTTP server, for example shared modules served by an artifact
+ * server. A path <code>mount/a/b.js</code> is fetched from <code>base/a/b.js</code>; paths outside the mount
+ * directory do not exist, so this loader is usually one layer of a {@link LayeredLoader}. Only responses with a
+ * 2xx status exist and only a 404 or 410 status means a resource is missing, other statuses are failures.
+ * Redirects are not followed, and resources are read as UTF-8.
+ *
+ * Each resource is requested at most once per loader. A failed request (an unreachable server or a failure
+ * status) is remembered for {@link #FAILURE_TTL_MILLIS}: meanwhile the resource does not exist and loading it
+ * throws the same error, afterwards it is requested again. Connections are reused between requests (HTTP
+ * keep-alive), because every response body is read to the end. With a cache directory, fetched resources and
+ * missing paths are also kept on disk: contents are stored once by their SHA-256 hash, and an index entry per
+ * URL records the hash with the <code>ETag</code> and <code>Last-Modified</code> headers. Entries younger than
+ * the maximum age are used without any request, older ones are revalidated with a conditional request, and
+ * are used as they are if the server cannot be reached. Instances are thread-safe, several processes may
+ * share a cache directory.
+ */
+public class HttpResourceLoader implements IResourceLoader {
+
+	// changes whenever the format of the cache directory changes
+	private static final int VERSION = 1;
+
+	private static final int TIMEOUT_MILLIS = 30_000;
+
+	/**
+	 * How long a failed request is remembered, so that the lookups of a single build do not each wait for an
+	 * unreachable server while an outage does not outlive a long-lived loader.
+	 */
+	public static final long FAILURE_TTL_MILLIS = 10_000;
+
+	@NotNull
+	private final URI base;
+
+	@NotNull
+	private final Path mount;
+
+	@NotNull
+	private final Maybe<Path> cacheDirectory;
+
+	private final long maxAgeMillis;
+
+	@NotNull
+	private final ConcurrentHashMap<Path, CompletableFuture<Resource>> resources = new ConcurrentHashMap<>();
+
+	/**
+	 * Creates a loader without a disk cache.
+	 * @param base  the URL that the mount directory is served from
+	 * @param mount the directory whose paths are fetched from the server
+	 */
+	public HttpResourceLoader(@NotNull URI base, @NotNull Path mount) {
+		this(base, mount, Maybe.empty(), 0);
+	}
+
+	/**
+	 * @param base           the URL that the mount directory is served from
+	 * @param mount          the directory whose paths are fetched from the server
+	 * @param cacheDirectory where fetched resources are kept, created if needed
+	 * @param maxAgeMillis   how long cached resources are used before they are revalidated with the server
+	 */
+	public HttpResourceLoader(@NotNull URI base, @NotNull Path mount, @NotNull Path cacheDirectory, long maxAgeMillis) {
+		this(base, mount, Maybe.of(cacheDirectory), maxAgeMillis);
+	}
+
+	private HttpResourceLoader(@NotNull URI base, @NotNull Path mount, @NotNull Maybe<Path> cacheDirectory, long maxAgeMillis) {
+		this.base = base.toString().endsWith("/") ? base : URI.create(base + "/");
+		this.mount = mount.toAbsolutePath().normalize();
+		this.cacheDirectory = cacheDirectory;
+		this.maxAgeMillis = maxAgeMillis;
+	}
+
+	@NotNull
+	@Override
+	public Boolean exists(@NotNull Path path) {
+		try {
+			return this.resource(path).contents != null;
+		} catch (IOException e) {
+			// reported if the resource is loaded anyway
+			return false;
+		}
+	}
+
+	@NotNull
+	@Override
+	public String loadResource(@NotNull Path path) throws IOException {
+		String contents = this.resource(path).contents;
+		if (contents == null) {
+			throw new NoSuchFileException(path.toString());
+		}
+		return contents;
+	}
+
+	/**
+	 * Fetches resources in the background, so that loading them later does not wait for the server.
+	 * @param paths    the paths that will be loaded
+	 * @param executor fetches the resources, one task per path
+	 * @return completes when every resource has been fetched, failed fetches are reported when loaded
+	 */
+	@NotNull
+	public CompletableFuture<Void> prefetch(@NotNull Iterable<Path> paths, @NotNull Executor executor) {
+		CompletableFuture<Void> all = CompletableFuture.completedFuture(null);
+		for (Path path : paths) {
+			CompletableFuture<Void> fetched = CompletableFuture.runAsync(() -> this.exists(path), executor);
+			all = all.thenCombine(fetched, (a, b) -> null);
+		}
+		return all;
+	}
+
+	@NotNull
+	private Resource resource(@NotNull Path path) throws IOException {
+		Path absolute = path.toAbsolutePath().normalize();
+		if (!absolute.startsWith(this.mount) || absolute.equals(this.mount)) {
+			return Resource.MISSING;
+		}
+		CompletableFuture<Resource> created = new CompletableFuture<>();
+		CompletableFuture<Resource> existing = this.resources.putIfAbsent(absolute, created);
+		if (existing == null) {
+			try {
+				created.complete(this.fetch(this.url(absolute)));
+			} catch (IOException e) {
+				created.complete(new Resource(e, System.currentTimeMillis()));
+			} catch (RuntimeException e) {
+				this.resources.remove(absolute, created);
+				created.completeExceptionally(e);
+			}
+			existing = created;
+		}
+		Resource resource = existing.join();
+		if (resource.failure != null) {
+			if (System.currentTimeMillis() - resource.failedAt >= FAILURE_TTL_MILLIS) {
+				this.resources.remove(absolute, existing);
+				return this.resource(path);
+			}
+			throw resource.failure;
+		}
+		return resource;
+	}
+
+	@NotNull
+	private URL url(@NotNull Path absolute) throws IOException {
+		StringBuilder relative = new StringBuilder();
+		for (Path name : this.mount.relativize(absolute)) {
+			if (relative.length() > 0) {
+				relative.append('/');
+			}
+			try {
+				// encodes the name as a single path segment
+				relative.append(new URI(null, null, name.toString(), null).getRawPath().replace("/", "%2F"));
+			} catch (URISyntaxException e) {
+				throw new IOException("Cannot fetch " + absolute, e);
+			}
+		}
+		return this.base.resolve(relative.toString()).toURL();
+	}
+
+	@NotNull
+	private Resource fetch(@NotNull URL url) throws IOException {
+		Maybe<CacheEntry> cached = this.cacheDirectory.isJust() ? this.readEntry(url) : Maybe.empty();
+		long now = System.currentTimeMillis();
+		if (cached.isJust() && now - cached.fromJust().checked < this.maxAgeMillis) {
+			return this.readContents(cached.fromJust());
+		}
+		HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+		try {
+			connection.setInstanceFollowRedirects(false);
+			connection.setUseCaches(false);
+			connection.setConnectTimeout(TIMEOUT_MILLIS);
+			connection.setReadTimeout(TIMEOUT_MILLIS);
+			if (cached.isJust() && cached.fromJust().hash != null) {
+				if (cached.fromJust().etag != null) {
+					connection.setRequestProperty("If-None-Match", cached.fromJust().etag);
+				}
+				if (cached.fromJust().lastModified != null) {
+					connection.setRequestProperty("If-Modified-Since", cached.fromJust().lastModified);
+				}
+			}
+			int status = connection.getResponseCode();
+			if (status == HttpURLConnection.HTTP_NOT_MODIFIED && cached.isJust() && cached.fromJust().hash != null) {
+				drain(connection.getInputStream());
+				CacheEntry revalidated = cached.fromJust().checkedAt(now);
+				this.writeEntry(url, revalidated);
+				return this.readContents(revalidated);
+			}
+			if (status >= 200 && status < 300) {
+				byte[] body = drain(connection.getInputStream());
+				CacheEntry entry = new CacheEntry(connection.getHeaderField("ETag"), connection.getHeaderField("Last-Modified"), ContentHash.sha256(body), now);
+				if (this.cacheDirectory.isJust()) {
+					this.writeContents(entry.hash, body);
+					this.writeEntry(url, entry);
+				}
+				return new Resource(new String(body, StandardCharsets.UTF_8));
+			}
+			if (connection.getErrorStream() != null) {
+				drain(connection.getErrorStream());
+			}
+			// other statuses, such as 403 or 429, may not last and must not be cached as missing resources
+			if (status != HttpURLConnection.HTTP_NOT_FOUND && status != HttpURLConnection.HTTP_GONE) {
+				throw new IOException("Server returned HTTP " + status + " for " + url);
+			}
+			this.writeEntry(url, new CacheEntry(null, null, null, now));
+			return Resource.MISSING;
+		} catch (IOException e) {
+			// a stale copy is better than failing while the server is unreachable
+			if (cached.isJust()) {
+				return this.readContents(cached.fromJust());
+			}
+			throw e;
+		}
+	}
+
+	@NotNull
+	private static byte[] drain(@NotNull InputStream in) throws IOException {
+		try (InputStream stream = in) {
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			byte[] buffer = new byte[8192];
+			for (int n = stream.read(buffer); n >= 0; n = stream.read(buffer)) {
+				out.write(buffer, 0, n);
+			}
+			return out.toByteArray();
+		}
+	}
+
+	@NotNull
+	private Resource readContents(@NotNull CacheEntry entry) throws IOException {
+		if (entry.hash == null) {
+			return Resource.MISSING;
+		}
+		byte[] body = Files.readAllBytes(this.cacheDirectory.fromJust().resolve("objects").resolve(entry.hash));
+		return new Resource(new String(body, StandardCharsets.UTF_8));
+	}
+
+	private void writeContents(@NotNull String hash, @NotNull byte[] body) throws IOException {
+		Path file = this.cacheDirectory.fromJust().resolve("objects").resolve(hash);
+		if (!Files.exists(file)) {
+			replace(file, temporary -> Files.write(temporary, body));
+		}
+	}
+
+	@NotNull
+	private Path entryFile(@NotNull URL url) {
+		return this.cacheDirectory.fromJust().resolve("index").resolve(ContentHash.sha256(VERSION + "\0" + url));
+	}
+
+	// {"version": 1, "url": url, "etag": etag, "lastModified": date, "hash": hash, "checked": millis}, where a
+	// null hash records a missing resource
+	@NotNull
+	private Maybe<CacheEntry> readEntry(@NotNull URL url) {
+		Path file = this.entryFile(url);
+		if (!Files.exists(file)) {
+			return Maybe.empty();
+		}
+		try (Reader in = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+			JsonReader reader = new JsonReader(in);
+			String etag = null;
+			String lastModified = null;
+			String hash = null;
+			long checked = 0;
+			boolean matches = false;
+			reader.beginObject();
+			while (reader.hasNext()) {
+				String name = reader.nextName();
+				if (name.equals("url")) {
+					matches = reader.nextString().equals(url.toString());
+				} else if (name.equals("etag")) {
+					etag = nextString(reader);
+				} else if (name.equals("lastModified")) {
+					lastModified = nextString(reader);
+				} else if (name.equals("hash")) {
+					hash = nextString(reader);
+				} else if (name.equals("checked")) {
+					checked = reader.nextLong();
+				} else {
+					reader.skipValue();
+				}
+			}
+			reader.endObject();
+			if (!matches || hash != null && !Files.exists(this.cacheDirectory.fromJust().resolve("objects").resolve(hash))) {
+				return Maybe.empty();
+			}
+			return Maybe.of(new CacheEntry(etag, lastModified, hash, checked));
+		} catch (IOException | IllegalStateException | NumberFormatException e) {
+			// a damaged entry is fetched again
+			return Maybe.empty();
+		}
+	}
+
+	@Nullable
+	private static String nextString(@NotNull JsonReader reader) throws IOException {
+		if (reader.peek() == JsonToken.NULL) {
+			reader.nextNull();
+			return null;
+		}
+		return reader.nextString();
+	}
+
+	private void writeEntry(@NotNull URL url, @NotNull CacheEntry entry) throws IOException {
+		if (this.cacheDirectory.isNothing()) {
+			return;
+		}
+		replace(this.entryFile(url), temporary -> {
+			try (Writer out = Files.newBufferedWriter(temporary, StandardCharsets.UTF_8)) {
+				JsonWriter writer = new JsonWriter(out);
+				writer.setSerializeNulls(true);
+				writer.beginObject();
+				writer.name("version").value(VERSION);
+				writer.name("url").value(url.toString());
+				writer.name("etag").value(entry.etag);
+				writer.name("lastModified").value(entry.lastModified);
+				writer.name("hash").value(entry.hash);
+				writer.name("checked").value(entry.checked);
+				writer.endObject();
+				writer.flush();
+			}
+		});
+	}
+
+	// writes a file next to its destination and moves it into place, so that concurrent readers never see a
+	// partially written file
+	private static void replace(@NotNull Path file, @NotNull FileWriter write) throws IOException {
+		Files.createDirectories(file.getParent());
+		Path temporary = Files.createTempFile(file.getParent(), file.getFileName().toString(), ".tmp");
+		try {
+			write.write(temporary);
+			Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} finally {
+			Files.deleteIfExists(temporary);
+		}
+	}
+
+	@FunctionalInterface
+	private interface FileWriter {
+		void write(@NotNull Path file) throws IOException;
+	}
+
+	private static class Resource {
+		@NotNull
+		static final Resource MISSING = new Resource(null);
+
+		@Nullable
+		final String contents;
+
+		// why the resource could not be fetched, and when
+		@Nullable
+		final IOException failure;
+
+		final long failedAt;
+
+		Resource(@Nullable String contents) {
+			this.contents = contents;
+			this.failure = null;
+			this.failedAt = 0;
+		}
+
+		Resource(@NotNull IOException failure, long failedAt) {
+			this.contents = null;
+			this.failure = failure;
+			this.failedAt = failedAt;
+		}
+	}
+
+	private static class CacheEntry {
+		@Nullable
+		final String etag;
+
+		@Nullable
+		final String lastModified;
+
+		@Nullable
+		final String hash;
+
+		final long checked;
+
+		CacheEntry(@Nullable String etag, @Nullable String lastModified, @Nullable String hash, long checked) {
+			this.etag = etag;
+			this.lastModified = lastModified;
+			this.hash = hash;
+			this.checked = checked;
+		}
+
+		@NotNull
+		CacheEntry checkedAt(long checked) {
+			return new CacheEntry(this.etag, this.lastModified, this.hash, checked);
+		}
+	}
+}
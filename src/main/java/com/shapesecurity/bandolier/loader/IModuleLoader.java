@@ -19,6 +19,9 @@ import org.jetbrains.annotations.NotNull;
 
 import java.nio.file.Path;
 
+/**
+ * Loads the source of a module ready to be parsed, see {@link com.shapesecurity.bandolier.TransformPipeline}.
+ */
 public interface IModuleLoader {
 	/**
 	 * Loads the module located at the input path.
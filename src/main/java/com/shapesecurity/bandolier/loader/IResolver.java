@@ -25,4 +25,15 @@ public interface IResolver {
 	 */
 	@NotNull
 	String resolve(@NotNull Path root, @NotNull String path);
+
+	/**
+	 * Reports whether evaluating the module at a resolved path may have side effects. Imports of modules
+	 * without side effects are dropped from a bundle when none of their bindings are used.
+	 *
+	 * @param path an absolute path, as returned by {@link #resolve}
+	 * @return false only if the module is known to be free of side effects
+	 */
+	default boolean hasSideEffects(@NotNull String path) {
+		return true;
+	}
 }
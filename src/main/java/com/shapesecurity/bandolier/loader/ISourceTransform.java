@@ -0,0 +1,46 @@
+/*
+ * Copyright 2016 Shape Security, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.shapesecurity.bandolier.loader;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.nio.file.Path;
+
+/**
+ * A stage of source transforms applied to modules before they are parsed, for example stripping debug code
+ * or injecting constants. Stages are memoized by their input and their cache key, so a transform must return
+ * the same output whenever both are the same, and must be thread-safe.
+ */
+public interface ISourceTransform {
+	/**
+	 * Identifies everything other than the source that the output of this stage depends on, such as the name
+	 * and version of the transform, its configuration and, if it matters, the path.
+	 *
+	 * @param path is the absolute path to the module being transformed.
+	 * @return the cache key of this stage for the module
+	 */
+	@NotNull
+	String cacheKey(@NotNull Path path);
+
+	/**
+	 * @param path   is the absolute path to the module being transformed.
+	 * @param source the output of the previous stage, or the module's source
+	 * @return the transformed source
+	 * @throws ModuleLoaderException when the source cannot be transformed
+	 */
+	@NotNull
+	String transform(@NotNull Path path, @NotNull String source) throws ModuleLoaderException;
+}
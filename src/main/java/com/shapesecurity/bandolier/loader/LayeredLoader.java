@@ -0,0 +1,58 @@
+/*
+ * Copyright 2016 Shape Security, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.shapesecurity.bandolier.loader;
+
+import com.shapesecurity.functional.data.ImmutableList;
+import com.shapesecurity.functional.data.Maybe;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+
+/**
+ * Loads resources from the first of several loaders that has them, for example files held in a
+ * {@link MemoryLoader} in front of shared libraries loaded from a jar or from disk.
+ */
+public class LayeredLoader implements IResourceLoader {
+
+	@NotNull
+	private final ImmutableList<IResourceLoader> layers;
+
+	/**
+	 * @param layers the loaders to consult, in order
+	 */
+	public LayeredLoader(@NotNull IResourceLoader... layers) {
+		this.layers = ImmutableList.from(layers);
+	}
+
+	@NotNull
+	@Override
+	public Boolean exists(@NotNull Path path) {
+		return this.layers.exists(layer -> layer.exists(path));
+	}
+
+	@NotNull
+	@Override
+	public String loadResource(@NotNull Path path) throws IOException {
+		Maybe<IResourceLoader> layer = this.layers.find(l -> l.exists(path));
+		if (layer.isNothing()) {
+			throw new NoSuchFileException(path.toString());
+		}
+		return layer.fromJust().loadResource(path);
+	}
+}
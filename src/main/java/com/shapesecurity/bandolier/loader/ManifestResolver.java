@@ -0,0 +1,127 @@
+/*
+ * Copyright 2016 Shape Security, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.shapesecurity.bandolier.loader;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import com.shapesecurity.functional.data.Maybe;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Resolves paths from a manifest written by {@link RecordingResolver}, with a single hash lookup and no file
+ * system access. Lookups that are not in the manifest go to a fallback resolver if there is one, otherwise
+ * the path is returned unchanged.
+ */
+public class ManifestResolver implements IResolver {
+
+	@NotNull
+	private final Map<String, String> resolutions;
+
+	@NotNull
+	private final Set<String> resolved;
+
+	@NotNull
+	private final Set<String> sideEffectFree;
+
+	@NotNull
+	private final Maybe<IResolver> fallback;
+
+	private ManifestResolver(@NotNull Map<String, String> resolutions, @NotNull Set<String> sideEffectFree, @NotNull Maybe<IResolver> fallback) {
+		this.resolutions = resolutions;
+		this.resolved = new HashSet<>(resolutions.values());
+		this.sideEffectFree = sideEffectFree;
+		this.fallback = fallback;
+	}
+
+	/**
+	 * Reads a manifest from a file.
+	 * @param manifest path to the manifest
+	 * @param fallback resolves anything that is not in the manifest
+	 * @return the resolver
+	 * @throws IOException if the manifest cannot be read or is malformed
+	 */
+	@NotNull
+	public static ManifestResolver read(@NotNull Path manifest, @NotNull Maybe<IResolver> fallback) throws IOException {
+		try (Reader reader = Files.newBufferedReader(manifest, StandardCharsets.UTF_8)) {
+			return read(reader, fallback);
+		}
+	}
+
+	/**
+	 * Reads a manifest.
+	 * @param reader the JSON manifest
+	 * @param fallback resolves anything that is not in the manifest
+	 * @return the resolver
+	 * @throws IOException if the manifest cannot be read or is malformed
+	 */
+	@NotNull
+	public static ManifestResolver read(@NotNull Reader reader, @NotNull Maybe<IResolver> fallback) throws IOException {
+		ResolutionManifest manifest;
+		try {
+			manifest = new Gson().fromJson(reader, ResolutionManifest.class);
+		} catch (JsonParseException e) {
+			throw new IOException("Malformed resolution manifest", e);
+		}
+		if (manifest == null || manifest.version != ResolutionManifest.VERSION) {
+			throw new IOException("Unsupported resolution manifest version");
+		}
+
+		Map<String, String> resolutions = new HashMap<>();
+		if (manifest.resolutions != null) {
+			manifest.resolutions.forEach((root, specifiers) ->
+				specifiers.forEach((specifier, resolved) -> resolutions.put(key(root, specifier), resolved)));
+		}
+		Set<String> sideEffectFree = manifest.sideEffectFree == null ? new HashSet<>() : new HashSet<>(manifest.sideEffectFree);
+		return new ManifestResolver(resolutions, sideEffectFree, fallback);
+	}
+
+	@NotNull
+	private static String key(@NotNull String root, @NotNull String path) {
+		return root + '\0' + path;
+	}
+
+	@NotNull
+	@Override
+	public String resolve(@NotNull Path root, @NotNull String path) {
+		String resolved = this.resolutions.get(key(root.toString(), path));
+		if (resolved != null) {
+			return resolved;
+		}
+		return this.fallback.maybe(path, f -> f.resolve(root, path));
+	}
+
+	@Override
+	public boolean hasSideEffects(@NotNull String path) {
+		if (this.sideEffectFree.contains(path)) {
+			return false;
+		}
+		if (this.resolved.contains(path)) {
+			return true;
+		}
+		return this.fallback.maybe(true, f -> f.hasSideEffects(path));
+	}
+}
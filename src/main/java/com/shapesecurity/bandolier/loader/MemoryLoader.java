@@ -0,0 +1,138 @@
+/*
+ * Copyright 2016 Shape Security, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.shapesecurity.bandolier.loader;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+/**
+ * Loads resources held in memory, for bundling sources that never touch the disk (for example module sources
+ * received in a request). Files are stored in a trie of path segments, so that every directory containing a
+ * file also exists, as it would on a file system.
+ *
+ * Files can be added concurrently with lookups. Use a {@link LayeredLoader} to fall back to other loaders for
+ * files that are not held in memory.
+ */
+public class MemoryLoader implements IResourceLoader {
+
+	@NotNull
+	private final Node root = new Node();
+
+	@NotNull
+	@Override
+	public Boolean exists(@NotNull Path path) {
+		return this.find(path) != null;
+	}
+
+	@NotNull
+	@Override
+	public String loadResource(@NotNull Path path) throws IOException {
+		Node node = this.find(path);
+		if (node == null || node.contents == null) {
+			throw new NoSuchFileException(path.toString());
+		}
+		return node.contents;
+	}
+
+	/**
+	 * Adds a file, replacing any file previously added at the same path.
+	 * @param path     the path of the file, relative paths are resolved against the root directory
+	 * @param contents the contents of the file
+	 * @return this loader
+	 */
+	@NotNull
+	public MemoryLoader put(@NotNull String path, @NotNull String contents) {
+		Node node = this.root;
+		for (Path segment : Paths.get(path).normalize()) {
+			node = node.children.computeIfAbsent(segment.toString(), s -> new Node());
+		}
+		node.contents = contents;
+		return this;
+	}
+
+	/**
+	 * Adds files from a map of paths to contents.
+	 * @param files the files to add
+	 * @return this loader
+	 */
+	@NotNull
+	public MemoryLoader putAll(@NotNull Map<String, String> files) {
+		files.forEach(this::put);
+		return this;
+	}
+
+	/**
+	 * Adds the files of a zip archive as UTF-8 text. The stream is read to the end of the archive but not closed.
+	 * @param directory the directory the archive is extracted to
+	 * @param zip       the zip archive
+	 * @return this loader
+	 * @throws IOException if the archive cannot be read, or an entry would be extracted outside the directory
+	 */
+	@NotNull
+	public MemoryLoader putZip(@NotNull String directory, @NotNull InputStream zip) throws IOException {
+		Path base = Paths.get(directory).normalize();
+		ZipInputStream entries = new ZipInputStream(zip, StandardCharsets.UTF_8);
+		byte[] buffer = new byte[8192];
+		for (ZipEntry entry = entries.getNextEntry(); entry != null; entry = entries.getNextEntry()) {
+			if (entry.isDirectory()) {
+				continue;
+			}
+			Path path = base.resolve(entry.getName()).normalize();
+			if (!path.startsWith(base)) {
+				throw new IOException("Zip entry outside of " + directory + ": " + entry.getName());
+			}
+			ByteArrayOutputStream contents = new ByteArrayOutputStream();
+			for (int read = entries.read(buffer); read >= 0; read = entries.read(buffer)) {
+				contents.write(buffer, 0, read);
+			}
+			this.put(path.toString(), new String(contents.toByteArray(), StandardCharsets.UTF_8));
+		}
+		return this;
+	}
+
+	@Nullable
+	private Node find(@NotNull Path path) {
+		Node node = this.root;
+		for (Path segment : path.normalize()) {
+			node = node.children.get(segment.toString());
+			if (node == null) {
+				return null;
+			}
+		}
+		return node;
+	}
+
+	private static class Node {
+		@NotNull
+		final ConcurrentHashMap<String, Node> children = new ConcurrentHashMap<>();
+
+		// null for directories
+		@Nullable
+		volatile String contents;
+	}
+}
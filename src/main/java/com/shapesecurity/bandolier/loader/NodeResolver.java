@@ -16,14 +16,20 @@
 package com.shapesecurity.bandolier.loader;
 
 import com.google.gson.Gson;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonParseException;
 
 import com.shapesecurity.functional.data.Maybe;
 
 import org.jetbrains.annotations.NotNull;
 
 import java.io.IOException;
+import java.nio.file.FileSystems;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.PatternSyntaxException;
 
 
 /**
@@ -50,15 +56,29 @@ import java.nio.file.Paths;
  * </ul>
  *
  *  If the resolved path is a directory, the resolver looks in <code>package.json</code> (if it exists)
- *  for the <code>main</code> field to determine the main module.
+ *  for the <code>main</code> field to determine the main module. The <code>sideEffects</code> field is used
+ *  to report which modules may be dropped from a bundle when their bindings are unused.
+ *
+ *  Resolvers are thread-safe, as long as their loader is, and are meant to be shared: each
+ *  <code>package.json</code> is parsed once and cached for the lifetime of the resolver. Call
+ *  {@link #invalidateAll} when <code>package.json</code> files may have changed. A <code>package.json</code>
+ *  that cannot be read or parsed is treated as absent.
  *
  * @see <a href="https://nodejs.org/api/modules.html#modules_loading_from_node_modules_folders">Node Modules</a>
  */
 public class NodeResolver implements IResolver {
 
+	@NotNull
+	private static final Gson GSON = new Gson();
+
 	@NotNull
 	private final IResourceLoader loader;
 
+	// parsed package.json files by directory, read by the first lookup of each directory and empty when a file
+	// cannot be read or parsed
+	@NotNull
+	private final ConcurrentHashMap<Path, CompletableFuture<Maybe<NodePackageJson>>> packageJsons = new ConcurrentHashMap<>();
+
 	public NodeResolver() {
 		this(new FileLoader());
 	}
@@ -138,16 +158,13 @@ public class NodeResolver implements IResolver {
 	@NotNull
 	private Maybe<String> resolveAsDir(@NotNull Path path) {
 		if (this.loader.exists(path.resolve("package.json"))) {
-			Gson gson = new Gson();
-			try {
-				String json = this.loader.loadResource(path.resolve("package.json"));
-				NodePackageJson packageJson = gson.fromJson(json, NodePackageJson.class);
-				if (packageJson.main != null) {
-					return resolveAsFile(path.resolve(packageJson.main));
-				}
-			} catch (IOException e) {
+			Maybe<NodePackageJson> packageJson = this.readPackageJson(path);
+			if (packageJson.isNothing()) {
 				return Maybe.empty();
 			}
+			if (packageJson.fromJust().main != null) {
+				return resolveAsFile(path.resolve(packageJson.fromJust().main));
+			}
 		}
 		if (this.loader.exists(path.resolve("index.js"))) {
 			return Maybe.of(path.resolve("index.js").toString());
@@ -158,9 +175,101 @@ public class NodeResolver implements IResolver {
 		return Maybe.empty();
 	}
 
-	class NodePackageJson {
+	/**
+	 * A module has side effects unless the <code>sideEffects</code> field of the closest enclosing
+	 * <code>package.json</code> is <code>false</code> or is a list of globs that does not match the module.
+	 *
+	 * @see <a href="https://webpack.js.org/guides/tree-shaking/">sideEffects</a>
+	 */
+	@Override
+	public boolean hasSideEffects(@NotNull String path) {
+		Path file = Paths.get(path);
+		for (Path dir = file.getParent(); dir != null; dir = dir.getParent()) {
+			if (this.loader.exists(dir.resolve("package.json"))) {
+				Path packageDir = dir;
+				return this.readPackageJson(dir).maybe(true, p -> p.hasSideEffects(packageDir.relativize(file)));
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Discards all cached <code>package.json</code> files.
+	 */
+	public void invalidateAll() {
+		this.packageJsons.clear();
+	}
+
+	@NotNull
+	private Maybe<NodePackageJson> readPackageJson(@NotNull Path dir) {
+		CompletableFuture<Maybe<NodePackageJson>> cached = this.packageJsons.get(dir);
+		if (cached != null) {
+			return cached.join();
+		}
+		// read outside of the map, so that lookups of other directories never wait for the loader
+		CompletableFuture<Maybe<NodePackageJson>> created = new CompletableFuture<>();
+		cached = this.packageJsons.putIfAbsent(dir, created);
+		if (cached != null) {
+			return cached.join();
+		}
+		Maybe<NodePackageJson> packageJson;
+		try {
+			String json = this.loader.loadResource(dir.resolve("package.json"));
+			packageJson = Maybe.fromNullable(GSON.fromJson(json, NodePackageJson.class));
+		} catch (IOException | JsonParseException e) {
+			packageJson = Maybe.empty();
+		} catch (RuntimeException e) {
+			this.packageJsons.remove(dir, created);
+			created.completeExceptionally(e);
+			throw e;
+		}
+		created.complete(packageJson);
+		return packageJson;
+	}
+
+	// never modified once parsed, so cached instances can be shared between threads
+	static class NodePackageJson {
 		public String main;
+
+		// either a boolean or a list of globs naming the files that do have side effects
+		public JsonElement sideEffects;
+
+		boolean hasSideEffects(@NotNull Path relativePath) {
+			if (this.sideEffects == null) {
+				return true;
+			}
+			if (this.sideEffects.isJsonPrimitive() && this.sideEffects.getAsJsonPrimitive().isBoolean()) {
+				return this.sideEffects.getAsBoolean();
+			}
+			if (this.sideEffects.isJsonArray()) {
+				for (JsonElement pattern : this.sideEffects.getAsJsonArray()) {
+					if (pattern.isJsonPrimitive() && matchesSideEffectsPattern(pattern.getAsString(), relativePath)) {
+						return true;
+					}
+				}
+				return false;
+			}
+			return true;
+		}
 	}
 
-}
+	// patterns without a slash match a file name anywhere in the package, like webpack does
+	private static boolean matchesSideEffectsPattern(@NotNull String pattern, @NotNull Path relativePath) {
+		try {
+			if (pattern.startsWith("./")) {
+				return matchesGlob(pattern.substring(2), relativePath);
+			} else if (pattern.contains("/")) {
+				return matchesGlob(pattern, relativePath);
+			}
+			return matchesGlob(pattern, relativePath) || matchesGlob("**/" + pattern, relativePath);
+		} catch (PatternSyntaxException e) {
+			// a pattern we cannot read may name the module
+			return true;
+		}
+	}
+
+	private static boolean matchesGlob(@NotNull String glob, @NotNull Path relativePath) {
+		return FileSystems.getDefault().getPathMatcher("glob:" + glob).matches(relativePath);
+	}
 
+}
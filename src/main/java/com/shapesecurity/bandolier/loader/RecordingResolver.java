@@ -0,0 +1,84 @@
+/*
+ * Copyright 2016 Shape Security, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.shapesecurity.bandolier.loader;
+
+import com.google.gson.GsonBuilder;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+
+/**
+ * Records every resolution made by another resolver so that it can be written out as a manifest and
+ * replayed by a {@link ManifestResolver} without touching the file system.
+ */
+public class RecordingResolver implements IResolver {
+
+	@NotNull
+	private final IResolver resolver;
+
+	@NotNull
+	private final ConcurrentHashMap<String, Map<String, String>> resolutions = new ConcurrentHashMap<>();
+
+	@NotNull
+	private final ConcurrentSkipListSet<String> sideEffectFree = new ConcurrentSkipListSet<>();
+
+	/**
+	 * @param resolver the resolver whose results are recorded
+	 */
+	public RecordingResolver(@NotNull IResolver resolver) {
+		this.resolver = resolver;
+	}
+
+	@NotNull
+	@Override
+	public String resolve(@NotNull Path root, @NotNull String path) {
+		String resolved = this.resolver.resolve(root, path);
+		this.resolutions.computeIfAbsent(root.toString(), r -> new ConcurrentHashMap<>()).put(path, resolved);
+		return resolved;
+	}
+
+	@Override
+	public boolean hasSideEffects(@NotNull String path) {
+		boolean hasSideEffects = this.resolver.hasSideEffects(path);
+		if (!hasSideEffects) {
+			this.sideEffectFree.add(path);
+		}
+		return hasSideEffects;
+	}
+
+	/**
+	 * Writes the resolutions recorded so far as JSON, with sorted keys so that manifests can be diffed.
+	 * @param writer where to write the manifest
+	 * @throws IOException if the writer fails
+	 */
+	public void writeManifest(@NotNull Writer writer) throws IOException {
+		ResolutionManifest manifest = new ResolutionManifest();
+		manifest.version = ResolutionManifest.VERSION;
+		manifest.resolutions = new TreeMap<>();
+		this.resolutions.forEach((root, specifiers) -> manifest.resolutions.put(root, new TreeMap<>(specifiers)));
+		manifest.sideEffectFree = new ArrayList<>(this.sideEffectFree);
+		new GsonBuilder().setPrettyPrinting().disableHtmlEscaping().create().toJson(manifest, writer);
+		writer.flush();
+	}
+}
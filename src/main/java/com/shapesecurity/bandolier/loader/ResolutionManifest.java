@@ -0,0 +1,41 @@
+/*
+ * Copyright 2016 Shape Security, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.shapesecurity.bandolier.loader;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The JSON representation of the resolutions written by {@link RecordingResolver} and read by
+ * {@link ManifestResolver}:
+ *
+ * <pre>
+ * {
+ *   "version": 1,
+ *   "resolutions": { "/importer/dir": { "specifier": "/resolved/path.js" } },
+ *   "sideEffectFree": [ "/resolved/path.js" ]
+ * }
+ * </pre>
+ */
+class ResolutionManifest {
+	static final int VERSION = 1;
+
+	int version;
+
+	Map<String, Map<String, String>> resolutions;
+
+	List<String> sideEffectFree;
+}
@@ -0,0 +1,322 @@
+/*
+ * Copyright 2016 Shape Security, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.shapesecurity.bandolier;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
+
+import com.shapesecurity.bandolier.loader.FileSystemResolver;
+import com.shapesecurity.bandolier.loader.IResolver;
+import com.shapesecurity.bandolier.loader.MemoryLoader;
+import com.shapesecurity.shift.codegen.CodeGen;
+
+import junit.framework.TestCase;
+
+import java.io.Reader;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.script.Compilable;
+import javax.script.Invocable;
+import javax.script.ScriptEngine;
+import javax.script.ScriptEngineManager;
+
+/**
+ * Measures how fast generated bundles evaluate, rather than how fast they are built, so that changes to the
+ * runtime or to the generated code that slow down applications are caught. Each bundle of a corpus of module
+ * graphs is built in each output mode and evaluated in Nashorn, recording:
+ * <ul>
+ *     <li>the time to compile and evaluate the bundle once in a new engine,</li>
+ *     <li>the median time to evaluate it again once the engine is warm,</li>
+ *     <li>the bytes allocated per warm evaluation, and</li>
+ *     <li>how many times <code>require</code> is called.</li>
+ * </ul>
+ *
+ * Not run with the unit tests, run it with <code>mvn test -Dtest=BenchmarkTest</code>. Results are written to
+ * <code>target/benchmark.json</code> (or <code>-Dbenchmark.output=FILE</code>). Given a previous run as
+ * <code>-Dbenchmark.baseline=FILE</code>, it fails if a bundle now calls <code>require</code> more often, or is
+ * slower or allocates more than the baseline by more than <code>-Dbenchmark.tolerance</code> (0.25 by default).
+ * The cold time is reported but not compared, it mostly measures how busy the JIT compiler is.
+ */
+public class BenchmarkTest extends TestCase {
+
+	private static final int WARMUP = 10;
+
+	private static final int ITERATIONS = 25;
+
+	private static final String REQUIRE_DECLARATION = "function require(file,parentModule){";
+
+	private interface Mode {
+		String build(Path entry, IResolver resolver, MemoryLoader loader) throws Exception;
+	}
+
+	private static final Map<String, Mode> MODES = new LinkedHashMap<>();
+
+	static {
+		MODES.put("default", (entry, resolver, loader) -> CodeGen.codeGen(Bundler.bundle(entry, resolver, loader)));
+		MODES.put("stream", (entry, resolver, loader) -> {
+			StringWriter out = new StringWriter();
+			Bundler.bundleToWriter(entry, resolver, loader, BundlerOptions.DEFAULT, out);
+			return out.toString();
+		});
+		MODES.put("raw", (entry, resolver, loader) ->
+			Bundler.bundleToString(entry, resolver, loader, BundlerOptions.DEFAULT.withRawPassthrough(true), Runnable::run));
+		MODES.put("dedupe", (entry, resolver, loader) ->
+			Bundler.bundleToString(entry, resolver, loader, BundlerOptions.DEFAULT.withDeduplication(true), Runnable::run));
+		MODES.put("profile", (entry, resolver, loader) ->
+			Bundler.bundleToString(entry, resolver, loader, BundlerOptions.DEFAULT.withProfiling(true), Runnable::run));
+	}
+
+	private final IResolver resolver = new FileSystemResolver();
+
+	public void testBenchmark() throws Exception {
+		Map<String, MemoryLoader> corpus = new LinkedHashMap<>();
+		corpus.put("chain", chain(100));
+		corpus.put("fanout", fanout(300));
+		corpus.put("diamond", diamond(8, 12));
+		corpus.put("app", app());
+
+		Map<String, Map<String, Double>> results = new LinkedHashMap<>();
+		System.out.println(String.format("%-18s %12s %12s %14s %10s", "bundle", "cold ms", "warm ms", "bytes/run", "requires"));
+		for (Map.Entry<String, MemoryLoader> graph : corpus.entrySet()) {
+			Object expected = null;
+			for (Map.Entry<String, Mode> mode : MODES.entrySet()) {
+				String name = graph.getKey() + "/" + mode.getKey();
+				String code = mode.getValue().build(Paths.get("/bench/main.js"), this.resolver, graph.getValue());
+				Map<String, Double> measured = new LinkedHashMap<>();
+				Object result = measure(code, measured);
+				// every mode must compute the same thing
+				if (expected == null) {
+					expected = result;
+				}
+				assertEquals(name, expected, result);
+				results.put(name, measured);
+				System.out.println(String.format("%-18s %12.2f %12.3f %14.0f %10.0f", name,
+					measured.get("coldMillis"), measured.get("warmMillis"), measured.get("allocatedBytes"), measured.get("requireCalls")));
+			}
+		}
+
+		Path output = Paths.get(System.getProperty("benchmark.output", "target/benchmark.json"));
+		Files.createDirectories(output.toAbsolutePath().getParent());
+		try (Writer out = Files.newBufferedWriter(output, StandardCharsets.UTF_8)) {
+			write(results, out);
+		}
+
+		String baseline = System.getProperty("benchmark.baseline");
+		if (baseline != null) {
+			double tolerance = Double.parseDouble(System.getProperty("benchmark.tolerance", "0.25"));
+			List<String> regressions = new ArrayList<>();
+			try (Reader in = Files.newBufferedReader(Paths.get(baseline), StandardCharsets.UTF_8)) {
+				read(in).forEach((name, before) -> {
+					Map<String, Double> after = results.get(name);
+					if (after == null) {
+						return;
+					}
+					before.forEach((metric, value) -> {
+						if (metric.equals("coldMillis")) {
+							return;
+						}
+						double limit = metric.equals("requireCalls") ? value : value * (1 + tolerance);
+						if (after.containsKey(metric) && after.get(metric) > limit) {
+							regressions.add(name + " " + metric + ": " + value + " -> " + after.get(metric));
+						}
+					});
+				});
+			}
+			assertTrue("Regressions against " + baseline + ":\n" + String.join("\n", regressions), regressions.isEmpty());
+		}
+	}
+
+	// evaluates the bundle and returns its result
+	private static Object measure(String code, Map<String, Double> measured) throws Exception {
+		String bundle = "var bundle = function () { return " + stripSemicolon(code) + ".result; };";
+
+		ScriptEngine engine = new ScriptEngineManager().getEngineByName("nashorn");
+		long start = System.nanoTime();
+		((Compilable) engine).compile(bundle).eval();
+		Object result = ((Invocable) engine).invokeFunction("bundle");
+		measured.put("coldMillis", (System.nanoTime() - start) / 1e6);
+
+		for (int i = 0; i < WARMUP; ++i) {
+			((Invocable) engine).invokeFunction("bundle");
+		}
+		com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+		long threadId = Thread.currentThread().getId();
+		double[] times = new double[ITERATIONS];
+		long allocated = threads.getThreadAllocatedBytes(threadId);
+		for (int i = 0; i < ITERATIONS; ++i) {
+			long iterationStart = System.nanoTime();
+			((Invocable) engine).invokeFunction("bundle");
+			times[i] = (System.nanoTime() - iterationStart) / 1e6;
+		}
+		measured.put("allocatedBytes", (double) ((threads.getThreadAllocatedBytes(threadId) - allocated) / ITERATIONS));
+		Arrays.sort(times);
+		measured.put("warmMillis", times[ITERATIONS / 2]);
+
+		// counted in a separate engine, so that the counter does not slow down the timed runs
+		assertTrue(code.contains(REQUIRE_DECLARATION));
+		ScriptEngine counting = new ScriptEngineManager().getEngineByName("nashorn");
+		counting.eval("var requireCalls = 0;" + code.replace(REQUIRE_DECLARATION, REQUIRE_DECLARATION + "++global.requireCalls;"));
+		measured.put("requireCalls", ((Number) counting.get("requireCalls")).doubleValue());
+		return result;
+	}
+
+	private static String stripSemicolon(String code) {
+		return code.endsWith(";") ? code.substring(0, code.length() - 1) : code;
+	}
+
+	// modules importing the next one, deep imports use a lot of stack in Nashorn
+	private static MemoryLoader chain(int length) {
+		MemoryLoader loader = new MemoryLoader();
+		loader.put("/bench/main.js", "import {value} from './m0.js'; export var result = value;");
+		for (int i = 0; i < length; ++i) {
+			loader.put("/bench/m" + i + ".js", i + 1 < length
+				? "import {value as next} from './m" + (i + 1) + ".js'; export var value = next + " + i + ";"
+				: "export var value = " + i + ";");
+		}
+		return loader;
+	}
+
+	// one module importing many leaves, some of them scripts without module syntax
+	private static MemoryLoader fanout(int width) {
+		MemoryLoader loader = new MemoryLoader();
+		StringBuilder main = new StringBuilder();
+		StringBuilder sum = new StringBuilder("0");
+		for (int i = 0; i < width; ++i) {
+			main.append("import * as m").append(i).append(" from './leaf").append(i).append(".js';");
+			sum.append(" + m").append(i).append(".value(").append(i).append(")");
+			loader.put("/bench/leaf" + i + ".js", i % 3 == 0
+				? "exports.value = function (x) { return x * 2; };"
+				: "export function value(x) { var s = 0; for (var j = 0; j < 10; ++j) { s += x + j; } return s; }");
+		}
+		loader.put("/bench/main.js", main + "export var result = " + sum + ";");
+		return loader;
+	}
+
+	// layers of modules that each import several modules of the next layer and re-export them
+	private static MemoryLoader diamond(int depth, int width) {
+		MemoryLoader loader = new MemoryLoader();
+		for (int layer = 0; layer < depth; ++layer) {
+			for (int i = 0; i < width; ++i) {
+				String path = "/bench/l" + layer + "/m" + i + ".js";
+				if (layer + 1 == depth) {
+					loader.put(path, "export var v" + i + " = " + i + ";");
+					continue;
+				}
+				StringBuilder module = new StringBuilder();
+				StringBuilder sum = new StringBuilder("0");
+				for (int k = 0; k < 3; ++k) {
+					int j = (i + k) % width;
+					module.append("import * as d").append(k).append(" from '../l").append(layer + 1).append("/m").append(j).append(".js';");
+					sum.append(" + d").append(k).append(".v").append(j);
+				}
+				module.append("export * from '../l").append(layer + 1).append("/m").append(i).append(".js';");
+				module.append("export var v").append(i).append(" = ").append(sum).append(";");
+				loader.put(path, module.toString());
+			}
+		}
+		StringBuilder main = new StringBuilder();
+		StringBuilder sum = new StringBuilder("0");
+		for (int i = 0; i < width; ++i) {
+			main.append("import {v").append(i).append("} from './l0/m").append(i).append(".js';");
+			sum.append(" + v").append(i);
+		}
+		loader.put("/bench/main.js", main + "export var result = " + sum + ";");
+		return loader;
+	}
+
+	// the shape of a small application: utilities, an event emitter, a store, views and configuration
+	private static MemoryLoader app() {
+		MemoryLoader loader = new MemoryLoader();
+		loader.put("/bench/util/string.js",
+			"export function pad(s, n) { s = String(s); while (s.length < n) { s = ' ' + s; } return s; }\n" +
+			"export function escape(s) { return String(s).replace(/[&<>\"]/g, function (c) { return '&#' + c.charCodeAt(0) + ';'; }); }");
+		loader.put("/bench/util/array.js",
+			"export function range(n) { var a = []; for (var i = 0; i < n; ++i) { a.push(i); } return a; }\n" +
+			"export function groupBy(a, f) { var g = {}; a.forEach(function (x) { var k = f(x); (g[k] = g[k] || []).push(x); }); return g; }");
+		loader.put("/bench/util/index.js", "export * from './string.js'; export * from './array.js';");
+		loader.put("/bench/events.js",
+			"export default function Emitter() { this.handlers = {}; }\n" +
+			"Emitter.prototype.on = function (e, f) { (this.handlers[e] = this.handlers[e] || []).push(f); return this; };\n" +
+			"Emitter.prototype.emit = function (e, x) { (this.handlers[e] || []).forEach(function (f) { f(x); }); };");
+		loader.put("/bench/config.json", "{\"pageSize\": 25, \"columns\": [\"id\", \"title\", \"done\"], \"labels\": {\"done\": \"Done\", \"open\": \"Open\"}}");
+		loader.put("/bench/store.js",
+			"import Emitter from './events.js'; import {range} from './util/index.js'; import config from './config.json';\n" +
+			"export function Store() { Emitter.call(this); this.todos = range(200).map(function (i) { return {id: i, title: 'todo ' + i, done: i % 3 === 0}; }); }\n" +
+			"Store.prototype = Object.create(Emitter.prototype);\n" +
+			"Store.prototype.page = function (n) { return this.todos.slice(n * config.pageSize, (n + 1) * config.pageSize); };\n" +
+			"Store.prototype.toggle = function (id) { this.todos[id].done = !this.todos[id].done; this.emit('change', id); };");
+		loader.put("/bench/views/row.js",
+			"import {escape, pad} from '../util/index.js'; import config from '../config.json';\n" +
+			"export function row(todo) { return '<tr>' + config.columns.map(function (c) { return '<td>' + escape(pad(todo[c], 4)) + '</td>'; }).join('') + '</tr>'; }");
+		loader.put("/bench/views/table.js",
+			"import {row} from './row.js'; import {groupBy} from '../util/index.js'; import config from '../config.json';\n" +
+			"export function table(todos) { var g = groupBy(todos, function (t) { return t.done ? 'done' : 'open'; });\n" +
+			"  return Object.keys(g).map(function (k) { return '<h2>' + config.labels[k] + '</h2><table>' + g[k].map(row).join('') + '</table>'; }).join(''); }");
+		loader.put("/bench/main.js",
+			"import {Store} from './store.js'; import {table} from './views/table.js';\n" +
+			"var store = new Store(); var renders = 0; var html = '';\n" +
+			"store.on('change', function () { ++renders; html = table(store.page(0)); });\n" +
+			"for (var i = 0; i < 25; ++i) { store.toggle(i); }\n" +
+			"export var result = renders + ':' + html.length;");
+		return loader;
+	}
+
+	// {"bundle/mode": {"metric": value, ...}, ...}
+	private static void write(Map<String, Map<String, Double>> results, Writer out) throws Exception {
+		JsonWriter writer = new JsonWriter(out);
+		writer.setIndent("  ");
+		writer.beginObject();
+		for (Map.Entry<String, Map<String, Double>> result : results.entrySet()) {
+			writer.name(result.getKey()).beginObject();
+			for (Map.Entry<String, Double> metric : result.getValue().entrySet()) {
+				writer.name(metric.getKey()).value(metric.getValue());
+			}
+			writer.endObject();
+		}
+		writer.endObject();
+		writer.flush();
+	}
+
+	private static Map<String, Map<String, Double>> read(Reader in) throws Exception {
+		Map<String, Map<String, Double>> results = new HashMap<>();
+		JsonReader reader = new JsonReader(in);
+		reader.beginObject();
+		while (reader.hasNext()) {
+			String name = reader.nextName();
+			Map<String, Double> metrics = new HashMap<>();
+			reader.beginObject();
+			while (reader.hasNext()) {
+				metrics.put(reader.nextName(), reader.nextDouble());
+			}
+			reader.endObject();
+			results.put(name, metrics);
+		}
+		reader.endObject();
+		return results;
+	}
+}
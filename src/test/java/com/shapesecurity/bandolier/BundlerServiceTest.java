@@ -0,0 +1,115 @@
+/*
+ * Copyright 2016 Shape Security, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.shapesecurity.bandolier;
+
+import com.shapesecurity.bandolier.loader.IResourceLoader;
+import com.shapesecurity.bandolier.loader.MemoryLoader;
+import com.shapesecurity.bandolier.loader.NodeResolver;
+import com.shapesecurity.shift.ast.Script;
+
+import junit.framework.TestCase;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class BundlerServiceTest extends TestCase {
+
+	private static class BlockingLoader implements IResourceLoader {
+		final MemoryLoader files = new MemoryLoader()
+			.put("/app/main.js", "import {x} from './lib'; export var y = x;")
+			.put("/app/lib.js", "export var x = 1;");
+		final CountDownLatch release = new CountDownLatch(1);
+		final AtomicInteger loads = new AtomicInteger();
+
+		@NotNull
+		@Override
+		public Boolean exists(@NotNull Path path) {
+			return this.files.exists(path);
+		}
+
+		@NotNull
+		@Override
+		public String loadResource(@NotNull Path path) throws IOException {
+			this.loads.incrementAndGet();
+			try {
+				this.release.await();
+			} catch (InterruptedException e) {
+				throw new IOException(e);
+			}
+			return this.files.loadResource(path);
+		}
+	}
+
+	public void testCoalescesIdenticalRequests() throws Exception {
+		BlockingLoader loader = new BlockingLoader();
+		NodeResolver resolver = new NodeResolver(loader);
+		Path main = Paths.get("/app/main.js");
+		try (BundlerService service = new BundlerService(2, 4)) {
+			CompletableFuture<Script> first = service.bundle(main, resolver, loader);
+			CompletableFuture<Script> second = service.bundle(Paths.get("/app/../app/main.js"), resolver, loader);
+			CompletableFuture<Script> changed = service.bundle(main, resolver, loader, BundlerOptions.DEFAULT, "v2");
+			loader.release.countDown();
+			assertSame(first.get(), second.get());
+			assertNotSame(first.get(), changed.get());
+			assertEquals(first.get(), changed.get());
+			assertEquals(4, loader.loads.get());
+
+			CompletableFuture<Script> later = service.bundle(main, resolver, loader);
+			assertNotSame(first, later);
+			assertEquals(first.get(), later.get());
+		}
+	}
+
+	public void testCancellingOneRequestKeepsTheOthers() throws Exception {
+		BlockingLoader loader = new BlockingLoader();
+		NodeResolver resolver = new NodeResolver(loader);
+		Path main = Paths.get("/app/main.js");
+		try (BundlerService service = new BundlerService(1, 1)) {
+			CompletableFuture<Script> cancelled = service.bundle(main, resolver, loader);
+			CompletableFuture<Script> kept = service.bundle(main, resolver, loader);
+			assertTrue(cancelled.cancel(true));
+			loader.release.countDown();
+			assertEquals(service.bundle(main, resolver, loader).get(), kept.get());
+			assertTrue(cancelled.isCancelled());
+		}
+	}
+
+	public void testShedsLoadWhenQueueIsFull() throws Exception {
+		BlockingLoader loader = new BlockingLoader();
+		NodeResolver resolver = new NodeResolver(loader);
+		Path main = Paths.get("/app/main.js");
+		try (BundlerService service = new BundlerService(1, 1)) {
+			CompletableFuture<Script> running = service.bundle(main, resolver, loader, BundlerOptions.DEFAULT, 1);
+			CompletableFuture<Script> queued = service.bundle(main, resolver, loader, BundlerOptions.DEFAULT, 2);
+			CompletableFuture<Script> rejected = service.bundle(main, resolver, loader, BundlerOptions.DEFAULT, 3);
+			try {
+				rejected.get();
+				fail("expected the request to be rejected");
+			} catch (ExecutionException e) {
+				assertTrue(e.getCause() instanceof RejectedExecutionException);
+			}
+			loader.release.countDown();
+			assertEquals(running.get(), queued.get());
+		}
+	}
+}
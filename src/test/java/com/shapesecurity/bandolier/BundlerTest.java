@@ -17,10 +17,13 @@ package com.shapesecurity.bandolier;
 
 import com.shapesecurity.bandolier.loader.FileSystemResolver;
 import com.shapesecurity.bandolier.loader.IResourceLoader;
+import com.shapesecurity.bandolier.loader.MemoryLoader;
 import com.shapesecurity.bandolier.loader.ModuleLoaderException;
+import com.shapesecurity.bandolier.loader.NodeResolver;
 import com.shapesecurity.functional.data.ImmutableList;
 import com.shapesecurity.shift.ast.CallExpression;
 import com.shapesecurity.shift.ast.ExpressionStatement;
+import com.shapesecurity.shift.ast.FunctionExpression;
 import com.shapesecurity.shift.ast.Module;
 import com.shapesecurity.shift.ast.Script;
 import com.shapesecurity.shift.ast.StaticMemberExpression;
@@ -35,11 +38,17 @@ import org.jetbrains.annotations.NotNull;
 import org.junit.Test;
 
 import java.io.IOException;
+import java.io.StringWriter;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.Arrays;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.script.ScriptEngine;
 import javax.script.ScriptEngineManager;
@@ -108,8 +117,454 @@ public class BundlerTest extends TestCase {
 		testResult("/root/thisIsUndefined.js", null);
 	}
 
-	private Object runInNashorn(String filePath) throws Exception {
-		Script script = Bundler.bundle(Paths.get(filePath), resolver, loader);
+	@Test
+	public void testBundleSideEffectFree() throws Exception {
+		BundlerOptions options = BundlerOptions.DEFAULT.withSideEffects("/root/lib3/**", false);
+		testResult("/root/pruneUnused.js", 142.0, options); // never loads /root/lib3/missing.js
+		testResult("/root/pruneKeepsUsed.js", 142.0, options);
+		testResult("/root/pruneKeepsReexported.js", 142.0, options);
+		testResult("/root/pruneKeepsSideEffects.js", 142.0, options.withSideEffects("/root/lib3/effect.js", true));
+
+		try {
+			runInNashorn("/root/pruneUnused.js", BundlerOptions.DEFAULT);
+			fail("expected the unused import to be loaded without the sideEffects override");
+		} catch (AssertionError e) {
+			assertEquals("/root/lib3/missing.js", e.getMessage());
+		}
+	}
+
+	@Test
+	public void testBundleDeduplication() throws Exception {
+		Map<String, List<String>> reported = new HashMap<>();
+		BundlerOptions options = BundlerOptions.DEFAULT.withDeduplication(true).withDuplicatesListener(reported::putAll);
+		testResult("/root/dedupe.js", 142.0, options);
+
+		Map<String, List<String>> expected = new HashMap<>();
+		expected.put("/root/lib4/node_modules/x/c.js", Arrays.asList("/root/node_modules/x/c.js"));
+		expected.put("/root/lib4/node_modules/x/index.js", Arrays.asList("/root/node_modules/x/index.js"));
+		assertEquals(expected, reported);
+
+		Script script = Bundler.bundle(Paths.get("/root/dedupe.js"), resolver, loader, options);
+		ExpressionStatement statement = (ExpressionStatement) script.getStatements().maybeHead().fromJust();
+		FunctionExpression wrapper = (FunctionExpression) ((StaticMemberExpression) ((CallExpression) statement.getExpression()).getCallee()).get_object();
+		// the runtime, the entry point, one copy of x/index.js and x/c.js, and both copies of y/index.js and y/c.js
+		assertEquals(6 + 7, wrapper.getBody().getStatements().length);
+	}
+
+	@Test
+	public void testBundleToWriter() throws Exception {
+		String[] entries = {"/root/lib1/js6.js", "/root/is_even.js", "/root/importExportAllFrom.js", "/root/importDefaultAndName.js"};
+		for (String entry : entries) {
+			StringWriter out = new StringWriter();
+			Bundler.bundleToWriter(Paths.get(entry), resolver, loader, BundlerOptions.DEFAULT, out);
+			String streamed = out.toString();
+			assertEquals(streamed, CodeGen.codeGen(Parser.parseScript(streamed)));
+
+			ScriptEngine engine = new ScriptEngineManager().getEngineByName("nashorn");
+			assertEquals(runInNashorn(entry, BundlerOptions.DEFAULT), engine.eval("(" + streamed + ").result"));
+		}
+	}
+
+	@Test
+	public void testBundleToString() throws Exception {
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		try {
+			for (String entry : loader.modules.keySet()) {
+				if (entry.equals("/root/pruneUnused.js") || entry.contains("nvalid") || entry.endsWith(".json")) {
+					continue; // imports a missing or invalid module, or is not an entry point
+				}
+				String sequential = CodeGen.codeGen(Bundler.bundle(Paths.get(entry), resolver, loader));
+				assertEquals(entry, sequential, Bundler.bundleToString(Paths.get(entry), resolver, loader, BundlerOptions.DEFAULT, executor));
+			}
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	@Test
+	public void testCodeCache() throws Exception {
+		GeneratedCodeCache cache = new GeneratedCodeCache(1 << 20);
+		BundlerOptions options = BundlerOptions.DEFAULT.withCodeCache(cache);
+		Path entry = Paths.get("/root/lib1/js6.js");
+		String expected = CodeGen.codeGen(Bundler.bundle(entry, resolver, loader));
+
+		assertEquals(expected, Bundler.bundleToString(entry, resolver, loader, options, Runnable::run));
+		assertEquals(0, cache.hits());
+		assertEquals(3, cache.misses());
+		assertEquals(expected, Bundler.bundleToString(entry, resolver, loader, options, Runnable::run));
+		assertEquals(3, cache.hits());
+
+		StringWriter out = new StringWriter();
+		Bundler.bundleToWriter(entry, resolver, loader, options, out);
+		StringWriter uncached = new StringWriter();
+		Bundler.bundleToWriter(entry, resolver, loader, BundlerOptions.DEFAULT, uncached);
+		assertEquals(uncached.toString(), out.toString());
+
+		// only the changed module is generated again
+		loader.modules.put("/root/lib1/js8.js", "export var c = 200");
+		long misses = cache.misses();
+		String changed = Bundler.bundleToString(entry, resolver, loader, options, Runnable::run);
+		assertEquals(CodeGen.codeGen(Bundler.bundle(entry, resolver, loader)), changed);
+		assertEquals(misses + 1, cache.misses());
+	}
+
+	@Test
+	public void testPrefetch() throws Exception {
+		AtomicInteger prefetched = new AtomicInteger();
+		ExecutorService executor = Executors.newFixedThreadPool(2);
+		try {
+			BundlerOptions options = BundlerOptions.DEFAULT.withPrefetch(task -> {
+				prefetched.incrementAndGet();
+				executor.execute(task);
+			});
+			for (String entry : new String[] {"/root/lib1/js6.js", "/root/is_even.js", "/root/importExportAllFrom.js", "/root/dedupe.js"}) {
+				String expected = CodeGen.codeGen(Bundler.bundle(Paths.get(entry), resolver, loader));
+				assertEquals(expected, CodeGen.codeGen(Bundler.bundle(Paths.get(entry), resolver, loader, options)));
+			}
+			assertTrue(prefetched.get() > 0);
+
+			// side effect free imports are not prefetched, so the missing module is never loaded
+			testResult("/root/pruneUnused.js", 142.0, options.withSideEffects("/root/lib3/**", false));
+
+			// imports resolved while prefetching are not resolved again
+			AtomicInteger resolutions = new AtomicInteger();
+			IResolver counting = (root, path) -> {
+				resolutions.incrementAndGet();
+				return resolver.resolve(root, path);
+			};
+			Bundler.bundle(Paths.get("/root/lib1/js9.js"), counting, loader);
+			int expected = resolutions.getAndSet(0);
+			Bundler.bundle(Paths.get("/root/lib1/js9.js"), counting, loader, options);
+			assertEquals(expected, resolutions.get());
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	@Test
+	public void testRawPassthrough() throws Exception {
+		BundlerOptions options = BundlerOptions.DEFAULT.withRawPassthrough(true);
+		Path entry = Paths.get("/root/rawImporter.js");
+		String code = Bundler.bundleToString(entry, resolver, loader, options, Runnable::run);
+		assertTrue(code.contains("{// a script without module syntax\nexports.x = 141; // exported\n})"));
+		ScriptEngine engine = new ScriptEngineManager().getEngineByName("nashorn");
+		assertEquals(142.0, ((Number) engine.eval("(" + code + ").result")).doubleValue(), 0.0);
+
+		StringWriter out = new StringWriter();
+		Bundler.bundleToWriter(entry, resolver, loader, options, out);
+		assertEquals(142.0, ((Number) engine.eval("(" + out + ").result")).doubleValue(), 0.0);
+
+		// not applied when building a syntax tree
+		assertEquals(CodeGen.codeGen(Bundler.bundle(entry, resolver, loader)), CodeGen.codeGen(Bundler.bundle(entry, resolver, loader, options)));
+
+		Path invalid = Paths.get("/root/rawInvalid.js");
+		assertTrue(Bundler.bundleToString(invalid, resolver, loader, options, Runnable::run).contains("var important = 010;"));
+		try {
+			Bundler.bundleToString(invalid, resolver, loader, options.withRawValidation(true), Runnable::run);
+			fail("expected the legacy octal literal to be rejected");
+		} catch (ModuleLoaderException e) {
+			assertTrue(e.getMessage().contains("/root/lib7/invalid.js"));
+		}
+	}
+
+	@Test
+	public void testJsonModules() throws Exception {
+		testResult("/root/jsonImporter.js", 1042.0);
+		String code = CodeGen.codeGen(Bundler.bundle(Paths.get("/root/jsonImporter.js"), resolver, loader));
+		assertTrue(code.contains("exports[\"default\"]={a:40,b:[1,1,-.5]}"));
+		assertTrue(code.contains("exports[\"default\"]=JSON.parse("));
+		assertFalse(code.contains("\u2028"));
+
+		StringWriter out = new StringWriter();
+		Bundler.bundleToWriter(Paths.get("/root/jsonImporter.js"), resolver, loader, BundlerOptions.DEFAULT.withRawPassthrough(true), out);
+		ScriptEngine engine = new ScriptEngineManager().getEngineByName("nashorn");
+		assertEquals(1042.0, ((Number) engine.eval("(" + out + ").result")).doubleValue(), 0.0);
+
+		try {
+			Bundler.bundle(Paths.get("/root/jsonInvalid.js"), resolver, loader);
+			fail("expected the trailing comma to be rejected");
+		} catch (ModuleLoaderException e) {
+			assertTrue(e.getMessage().contains("/root/lib8/invalid.json"));
+		}
+	}
+
+	@Test
+	public void testProfiling() throws Exception {
+		Path entry = Paths.get("/root/lib1/js6.js");
+		Map<String, String> paths = new HashMap<>();
+		BundlerOptions options = BundlerOptions.DEFAULT.withProfiling(true).withModuleIdsListener(paths::putAll);
+		String code = Bundler.bundleToString(entry, resolver, loader, options, Runnable::run);
+		assertEquals(CodeGen.codeGen(Bundler.bundle(entry, resolver, loader, options)), code);
+		assertFalse(CodeGen.codeGen(Bundler.bundle(entry, resolver, loader)).contains(Bundler.PROFILE_GLOBAL));
+		assertEquals(3, paths.size());
+
+		ScriptEngine engine = new ScriptEngineManager().getEngineByName("nashorn");
+		assertEquals(142.0, ((Number) engine.eval("(" + code + ").result")).doubleValue(), 0.0);
+		assertEquals(entry.toString(), paths.get((String) engine.eval(Bundler.PROFILE_GLOBAL + ".order[0]")));
+		assertEquals(paths.size(), ((Number) engine.eval(Bundler.PROFILE_GLOBAL + ".order.length")).intValue());
+		// the entry point's total time includes every other module
+		assertEquals(Boolean.TRUE, engine.eval("var p = " + Bundler.PROFILE_GLOBAL + ", entry = p.modules[p.order[0]];" +
+			"Object.keys(p.modules).every(function (id) { var m = p.modules[id]; return m.self >= 0 && m.self <= m.total && m.total <= entry.total; })"));
+
+		paths.clear();
+		StringWriter out = new StringWriter();
+		Bundler.bundleToWriter(entry, resolver, loader, options, out);
+		assertEquals(entry.toString(), paths.get("1"));
+		assertEquals(142.0, ((Number) engine.eval("(" + out + ").result")).doubleValue(), 0.0);
+		assertEquals("1", engine.eval(Bundler.PROFILE_GLOBAL + ".order[0]"));
+	}
+
+	@Test
+	public void testConstantInlining() throws Exception {
+		BundlerOptions options = BundlerOptions.DEFAULT.withConstantInlining(true);
+		testResult("/root/inline.js", 28.0);
+		testResult("/root/inline.js", 28.0, options);
+		String code = CodeGen.codeGen(Bundler.bundle(Paths.get("/root/inline.js"), resolver, loader, options));
+		assertFalse(code.contains("__resolver[\"SIZE\"]"));
+		assertFalse(code.contains("__resolver[\"square\"]"));
+		// scale is reassigned and area reads a constant, so both are still imported
+		assertTrue(code.contains("exports[\"scale\"]"));
+		assertTrue(code.contains("exports[\"area\"]"));
+		assertFalse(code.contains("exports[\"SIZE\"]"));
+		assertFalse(code.contains("exports[\"DEBUG\"]"));
+		assertFalse(code.contains("function square"));
+		assertTrue(code.contains("var SIZE=4;"));
+		assertEquals(code, Bundler.bundleToString(Paths.get("/root/inline.js"), resolver, loader, options, Runnable::run));
+
+		// namespace imports keep every export, and functions that are not called keep their import
+		testResult("/root/inlineNamespace.js", 20.0, options);
+		code = CodeGen.codeGen(Bundler.bundle(Paths.get("/root/inlineNamespace.js"), resolver, loader, options));
+		assertTrue(code.contains("exports[\"SIZE\"]"));
+		assertTrue(code.contains("__resolver[\"square\"]"));
+		assertFalse(code.contains("__resolver[\"SIZE\"]"));
+
+		// bindings that are exported again keep their import
+		testResult("/root/inlineReexport.js", 65.0);
+		testResult("/root/inlineReexport.js", 65.0, options);
+	}
+
+	@Test
+	public void testLimits() throws Exception {
+		// js9.js imports three modules in a chain, each less than 60 bytes
+		Path entry = Paths.get("/root/lib1/js9.js");
+		testResult("/root/lib1/js9.js", 142.0, BundlerOptions.DEFAULT.withMaxModules(4).withMaxFileBytes(60).withTimeout(1, TimeUnit.MINUTES));
+		assertAborted(BundleAbortedException.Reason.MODULE_COUNT, entry, BundlerOptions.DEFAULT.withMaxModules(3));
+		assertAborted(BundleAbortedException.Reason.FILE_BYTES, entry, BundlerOptions.DEFAULT.withMaxFileBytes(20));
+		assertAborted(BundleAbortedException.Reason.SOURCE_BYTES, entry, BundlerOptions.DEFAULT.withMaxSourceBytes(100));
+		assertAborted(BundleAbortedException.Reason.TIMEOUT, entry, BundlerOptions.DEFAULT.withTimeout(0, TimeUnit.MILLISECONDS));
+
+		CancellationToken token = new CancellationToken();
+		BundlerOptions cancellable = BundlerOptions.DEFAULT.withCancellation(token);
+		testResult("/root/lib1/js9.js", 142.0, cancellable);
+		token.cancel();
+		assertAborted(BundleAbortedException.Reason.CANCELLED, entry, cancellable);
+
+		Thread.currentThread().interrupt();
+		try {
+			assertAborted(BundleAbortedException.Reason.INTERRUPTED, entry, BundlerOptions.DEFAULT);
+		} finally {
+			assertTrue(Thread.interrupted());
+		}
+
+		// prefetching is held to the same limits
+		BundlerOptions prefetching = BundlerOptions.DEFAULT.withPrefetch(Runnable::run);
+		testResult("/root/lib1/js9.js", 142.0, prefetching.withMaxModules(4));
+		assertAborted(BundleAbortedException.Reason.MODULE_COUNT, entry, prefetching.withMaxModules(3));
+		assertAborted(BundleAbortedException.Reason.TIMEOUT, entry, prefetching.withTimeout(0, TimeUnit.MILLISECONDS));
+
+		CancellationToken cancelled = new CancellationToken();
+		AtomicInteger loads = new AtomicInteger();
+		IResourceLoader cancelling = new IResourceLoader() {
+			@NotNull
+			@Override
+			public Boolean exists(@NotNull Path path) {
+				return loader.exists(path);
+			}
+
+			@NotNull
+			@Override
+			public String loadResource(@NotNull Path path) throws IOException {
+				if (loads.incrementAndGet() == 2) {
+					cancelled.cancel();
+				}
+				return loader.loadResource(path);
+			}
+		};
+		try {
+			Bundler.bundle(entry, resolver, cancelling, prefetching.withCancellation(cancelled));
+			fail("expected the bundle to be aborted");
+		} catch (BundleAbortedException e) {
+			assertEquals(BundleAbortedException.Reason.CANCELLED, e.getReason());
+		}
+		assertEquals(2, loads.get());
+	}
+
+	private void assertAborted(BundleAbortedException.Reason reason, Path entry, BundlerOptions options) throws Exception {
+		try {
+			Bundler.bundle(entry, resolver, loader, options);
+			fail("expected the bundle to be aborted");
+		} catch (BundleAbortedException e) {
+			assertEquals(reason, e.getReason());
+		}
+		try {
+			Bundler.bundleToString(entry, resolver, loader, options, Runnable::run);
+			fail("expected the bundle to be aborted");
+		} catch (BundleAbortedException e) {
+			assertEquals(reason, e.getReason());
+		}
+		try {
+			Bundler.bundleToWriter(entry, resolver, loader, options, new StringWriter());
+			fail("expected the bundle to be aborted");
+		} catch (BundleAbortedException e) {
+			assertEquals(reason, e.getReason());
+		}
+	}
+
+	@Test
+	public void testVariants() throws Exception {
+		Path entry = Paths.get("/root/inline.js");
+		Map<String, BundlerOptions> variants = new HashMap<>();
+		variants.put("debug", BundlerOptions.DEFAULT.withProfiling(true));
+		variants.put("production", BundlerOptions.DEFAULT.withConstantInlining(true).withDeduplication(true));
+		variants.put("plain", BundlerOptions.DEFAULT);
+
+		AtomicInteger loads = new AtomicInteger();
+		IResourceLoader counting = new IResourceLoader() {
+			@NotNull
+			@Override
+			public Boolean exists(@NotNull Path path) {
+				return loader.exists(path);
+			}
+
+			@NotNull
+			@Override
+			public String loadResource(@NotNull Path path) throws IOException {
+				loads.incrementAndGet();
+				return loader.loadResource(path);
+			}
+		};
+		ExecutorService executor = Executors.newFixedThreadPool(2);
+		try {
+			Map<String, String> bundles = Bundler.bundleVariants(entry, resolver, counting, BundlerOptions.DEFAULT, variants, executor);
+			assertEquals(2, loads.get());
+			assertEquals(variants.keySet(), bundles.keySet());
+			for (String name : variants.keySet()) {
+				assertEquals(Bundler.bundleToString(entry, resolver, loader, variants.get(name), Runnable::run), bundles.get(name));
+			}
+			assertTrue(bundles.get("debug").contains(Bundler.PROFILE_GLOBAL));
+			assertFalse(bundles.get("production").contains("__resolver[\"SIZE\"]"));
+
+			LoadedGraph graph = Bundler.loadGraph(entry, resolver, loader, BundlerOptions.DEFAULT);
+			assertEquals(2, graph.paths().size());
+			assertEquals(bundles.get("plain"), graph.bundleToString(BundlerOptions.DEFAULT, executor));
+			assertEquals(bundles.get("production"), graph.bundleToString(variants.get("production"), executor));
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	@Test
+	public void testMinification() throws Exception {
+		BundlerOptions options = BundlerOptions.DEFAULT.withMinification(true);
+		String[] entries = {"/root/lib1/js9.js", "/root/lib1/js13.js", "/root/is_even.js", "/root/importExportAllFrom.js",
+			"/root/importExportDefaultFunction.js", "/root/importAll.js", "/root/importDefaultAndName.js", "/root/inline.js", "/root/jsonImporter.js"};
+		ScriptEngine engine = new ScriptEngineManager().getEngineByName("nashorn");
+		for (String entry : entries) {
+			Object expected = runInNashorn(entry, BundlerOptions.DEFAULT);
+			assertEquals(entry, expected, runInNashorn(entry, options));
+
+			String plain = Bundler.bundleToString(Paths.get(entry), resolver, loader, BundlerOptions.DEFAULT, Runnable::run);
+			String minified = Bundler.bundleToString(Paths.get(entry), resolver, loader, options, Runnable::run);
+			assertTrue(entry, minified.length() < plain.length());
+			assertFalse(entry, minified.contains("__resolver") || minified.contains("parentModule") || minified.contains("require("));
+			assertEquals(entry, expected, engine.eval("(" + minified + ").result"));
+
+			StringWriter out = new StringWriter();
+			Bundler.bundleToWriter(Paths.get(entry), resolver, loader, options, out);
+			assertEquals(entry, expected, engine.eval("(" + out + ").result"));
+		}
+
+		// modules bundled as they are keep the names of the parameters they use
+		String raw = Bundler.bundleToString(Paths.get("/root/rawImporter.js"), resolver, loader, options.withRawPassthrough(true), Runnable::run);
+		assertTrue(raw.contains(",function(module,exports,__dirname,__filename){var global=g$,require=r$;// a script"));
+		assertEquals(142.0, ((Number) engine.eval("(" + raw + ").result")).doubleValue(), 0.0);
+		raw = Bundler.bundleToString(Paths.get("/root/rawGlobal.js"), resolver, loader, options.withRawPassthrough(true), Runnable::run);
+		assertEquals(142.0, ((Number) engine.eval("(" + raw + ").result")).doubleValue(), 0.0);
+
+		// globals with the names of the minified runtime are not hidden by it
+		ScriptEngine globals = new ScriptEngineManager().getEngineByName("nashorn");
+		globals.eval("var g$ = {answer: 100}, p$ = 42, r$ = 141;");
+		String runtimeNames = Bundler.bundleToString(Paths.get("/root/runtimeNames.js"), resolver, loader, options, Runnable::run);
+		assertEquals(142.0, ((Number) globals.eval("(" + runtimeNames + ").result")).doubleValue(), 0.0);
+		StringWriter streamed = new StringWriter();
+		Bundler.bundleToWriter(Paths.get("/root/runtimeNames.js"), resolver, loader, options, streamed);
+		assertEquals(142.0, ((Number) globals.eval("(" + streamed + ").result")).doubleValue(), 0.0);
+		raw = Bundler.bundleToString(Paths.get("/root/rawRuntimeNames.js"), resolver, loader, options.withRawPassthrough(true), Runnable::run);
+		assertEquals(142.0, ((Number) globals.eval("(" + raw + ").result")).doubleValue(), 0.0);
+		assertTrue(Minifier.mayUseRuntimeNames("var a = p\\u0024;"));
+		assertTrue(Minifier.mayUseRuntimeNames("var a = \\u0067$;"));
+		assertFalse(Minifier.mayUseRuntimeNames("var map$ = $, a = \"\\\\p\";"));
+
+		// minified code is cached separately
+		GeneratedCodeCache cache = new GeneratedCodeCache(1 << 20);
+		Path entry = Paths.get("/root/lib1/js6.js");
+		Bundler.bundleToString(entry, resolver, loader, BundlerOptions.DEFAULT.withCodeCache(cache), Runnable::run);
+		assertEquals(Bundler.bundleToString(entry, resolver, loader, options, Runnable::run),
+			Bundler.bundleToString(entry, resolver, loader, options.withCodeCache(cache), Runnable::run));
+		assertEquals(0, cache.hits());
+	}
+
+	@Test
+	public void testHotReplacement() throws Exception {
+		MemoryLoader memory = new MemoryLoader()
+			.put("/hot/main.js", "import {a} from './a.js'; import {b} from './b.js'; b.runs = (b.runs || 0) + 1; export var result = a * 100 + b.runs;")
+			.put("/hot/a.js", "export var a = 1;")
+			.put("/hot/b.js", "export var b = {};");
+		HotBundle hot = new HotBundle(Paths.get("/hot/main.js"), new NodeResolver(memory), memory, BundlerOptions.DEFAULT, Runnable::run);
+		ScriptEngine engine = new ScriptEngineManager().getEngineByName("nashorn");
+		String bundle = hot.bundle();
+		assertEquals(101.0, ((Number) engine.eval("(" + bundle + ").result")).doubleValue(), 0.0);
+		assertTrue(hot.update().isNothing());
+
+		memory.put("/hot/a.js", "export var a = 2;");
+		String update = hot.update().fromJust();
+		assertFalse(update.contains("runs"));
+		assertFalse(update.contains("{}"));
+		// b keeps its state, main is rerun with the new a
+		assertEquals(202.0, ((Number) engine.eval("(" + update + ").result")).doubleValue(), 0.0);
+		assertTrue(hot.update().isNothing());
+
+		// ids do not depend on the order modules are found in
+		memory.put("/hot/main.js", "import {b} from './b.js'; import {a} from './a.js'; export var result = a * 100 + b.runs;");
+		update = hot.update().fromJust();
+		assertFalse(update.contains("a=2"));
+		assertEquals(202.0, ((Number) engine.eval("(" + update + ").result")).doubleValue(), 0.0);
+		assertEquals(Bundler.bundleToString(Paths.get("/hot/main.js"), new NodeResolver(memory), memory, BundlerOptions.DEFAULT.withHotReplacement(true), Runnable::run), hot.bundle());
+	}
+
+	@Test
+	public void testSyntheticGraph() throws Exception {
+		SyntheticGraph cyclic = new SyntheticGraph(42).modules(200).fanOut(4).depth(6).cycles(0.2).packages(0.1, 2).moduleSize(300);
+		assertEquals(200.0, evaluateSyntheticGraph(cyclic), 0.0);
+
+		SyntheticGraph barrels = new SyntheticGraph(42).modules(200).fanOut(4).depth(6).barrels(0.3).packages(0.1, 2);
+		Map<String, String> files = barrels.generate("/synthetic");
+		assertTrue(files.keySet().stream().anyMatch(f -> f.contains("/barrel")));
+		assertTrue(files.keySet().stream().anyMatch(f -> f.matches(".*/node_modules/.*/node_modules/.*/package\\.json")));
+		assertEquals(200.0, evaluateSyntheticGraph(barrels), 0.0);
+	}
+
+	private double evaluateSyntheticGraph(SyntheticGraph graph) throws Exception {
+		MemoryLoader memory = new MemoryLoader();
+		graph.writeTo(memory, "/synthetic");
+		Path entry = Paths.get(SyntheticGraph.entry("/synthetic"));
+		String code = Bundler.bundleToString(entry, new NodeResolver(memory), memory, BundlerOptions.DEFAULT, Runnable::run);
+		ScriptEngine engine = new ScriptEngineManager().getEngineByName("nashorn");
+		return ((Number) engine.eval("(" + code + ").result")).doubleValue();
+	}
+
+	private Object runInNashorn(String filePath, BundlerOptions options) throws Exception {
+		Script script = Bundler.bundle(Paths.get(filePath), resolver, loader, options);
 
 		ExpressionStatement statement = (ExpressionStatement) script.getStatements().maybeHead().fromJust();
 		CallExpression callExpression = (CallExpression) statement.getExpression();
@@ -129,7 +584,11 @@ public class BundlerTest extends TestCase {
 	}
 
 	private void testResult(String filePath, Object expected) throws Exception {
-		Object result = runInNashorn(filePath);
+		testResult(filePath, expected, BundlerOptions.DEFAULT);
+	}
+
+	private void testResult(String filePath, Object expected, BundlerOptions options) throws Exception {
+		Object result = runInNashorn(filePath, options);
 		if (result instanceof Double) {
 			assertEquals((Double) expected, (Double) result, 0.0);
 		} else if (result instanceof Integer) {
@@ -199,6 +658,59 @@ public class BundlerTest extends TestCase {
 			modules.put("/root/importDefaultAndName.js", "import d, { v } from '/root/exportDefaultAndName.js'; export var result = d + v;");
 
 			modules.put("/root/thisIsUndefined.js", "export var result = this;");
+
+			modules.put("/root/pruneUnused.js", "import {x} from '/root/lib3/missing.js'; import * as m from '/root/lib3/missing.js'; " +
+				"import {b} from '/root/lib1/js2.js'; export var result = 42 + b");
+			modules.put("/root/pruneKeepsUsed.js", "import {b} from '/root/lib3/js16.js'; export var result = 42 + b");
+			modules.put("/root/pruneKeepsReexported.js", "import {b} from '/root/lib3/js17.js'; export var result = 42 + b");
+			modules.put("/root/pruneKeepsSideEffects.js", "import '/root/lib3/effect.js'; export var result = 42 + global.effect");
+			modules.put("/root/lib3/js16.js", "export var b = 100");
+			modules.put("/root/lib3/js17.js", "import {b} from '/root/lib3/js16.js'; export {b}");
+			modules.put("/root/lib3/effect.js", "global.effect = 100");
+
+			modules.put("/root/dedupe.js", "import {a} from './node_modules/x/index.js'; import {a as b} from './lib4/node_modules/x/index.js'; " +
+				"import {c as d} from './lib5/y/index.js'; import {c as e} from './lib6/y/index.js'; export var result = a + b + d + e");
+			modules.put("/root/node_modules/x/index.js", "import {c} from './c.js'; export var a = c");
+			modules.put("/root/node_modules/x/c.js", "export var c = 70");
+			modules.put("/root/lib4/node_modules/x/index.js", "import {c} from './c.js'; export var a = c");
+			modules.put("/root/lib4/node_modules/x/c.js", "export var c = 70");
+			// identical modules that import different modules are not duplicates
+			modules.put("/root/lib5/y/index.js", "import {c} from './c.js'; export {c}");
+			modules.put("/root/lib5/y/c.js", "export var c = 1");
+			modules.put("/root/lib6/y/index.js", "import {c} from './c.js'; export {c}");
+			modules.put("/root/lib6/y/c.js", "export var c = 1 ");
+
+			modules.put("/root/rawImporter.js", "import {x} from './lib7/raw.js'; export var result = x + 1;");
+			modules.put("/root/lib7/raw.js", "// a script without module syntax\nexports.x = 141; // exported");
+			modules.put("/root/rawGlobal.js", "import {answer} from './lib7/global.js'; export var result = answer;");
+			modules.put("/root/lib7/global.js", "global.answer = 42;\nexports.answer = global.answer + (typeof require === 'function' ? 100 : 0);");
+			modules.put("/root/runtimeNames.js", "import {value} from './lib7/runtimeNames.js'; export var result = value;");
+			modules.put("/root/lib7/runtimeNames.js", "export var value = g$.answer + p$;");
+			modules.put("/root/rawRuntimeNames.js", "import {x} from './lib7/rawRuntimeNames.js'; export var result = x;");
+			modules.put("/root/lib7/rawRuntimeNames.js", "exports.x = r$ + 1;");
+			modules.put("/root/rawInvalid.js", "import './lib7/invalid.js'; export var result = 142;");
+			modules.put("/root/lib7/invalid.js", "var important = 010;");
+
+			modules.put("/root/jsonImporter.js", "import small from './lib8/small.json'; import large from './lib8/large.json'; " +
+				"export var result = small.a + small.b[1] + large.length + (large[999].s === 'line\\u2028separator' ? 1 : 0);");
+			modules.put("/root/lib8/small.json", "\uFEFF{\n  \"a\": 40,\n  \"b\": [1, 1e0, -0.5]\n}\n");
+			StringBuilder large = new StringBuilder("[");
+			for (int i = 0; i < 1000; ++i) {
+				large.append(i == 0 ? "" : ", ").append("{\"s\": \"line\\u2028separator\", \"__proto__\": null}");
+			}
+			modules.put("/root/lib8/large.json", large.append("]").toString());
+			modules.put("/root/jsonInvalid.js", "import x from './lib8/invalid.json'; export var result = x;");
+			modules.put("/root/lib8/invalid.json", "{\"a\": 1,}");
+
+			modules.put("/root/inline.js", "import {SIZE, NAME, DEBUG, scale, square, area} from './lib9/constants.js'; " +
+				"var s = square(SIZE); export var result = (DEBUG ? 0 : s + square(-1)) + scale + area(1, 2) + NAME.length;");
+			modules.put("/root/inlineNamespace.js", "import * as c from './lib9/constants.js'; import {SIZE, square} from './lib9/constants.js'; " +
+				"var f = square; export var result = c.SIZE + f(SIZE);");
+			modules.put("/root/inlineReexport.js", "import {SIZE, square, local} from './lib9/reexport.js'; export var result = SIZE * 10 + square(3) + local;");
+			modules.put("/root/lib9/reexport.js", "import {SIZE, square} from './constants.js'; export {SIZE, square}; export var local = square(SIZE);");
+			modules.put("/root/lib9/constants.js", "export var SIZE = 4, NAME = 'box'; export var DEBUG = false; " +
+				"export var scale = 2; scale = 3; export function square(x) { return x * x; } " +
+				"export function area(w, h) { return w * h + SIZE; }");
 		}
 
 		@NotNull
@@ -0,0 +1,63 @@
+/*
+ * Copyright 2016 Shape Security, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.shapesecurity.bandolier;
+
+import junit.framework.TestCase;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+public class GeneratedCodeCacheTest extends TestCase {
+
+	public void testEvictsLeastRecentlyUsed() {
+		GeneratedCodeCache cache = new GeneratedCodeCache(10);
+		cache.put("a", "aaaa");
+		cache.put("b", "bbbb");
+		assertTrue(cache.get("a").isJust());
+		cache.put("c", "cccc");
+		assertTrue(cache.get("a").isJust());
+		assertTrue(cache.get("b").isNothing());
+		assertTrue(cache.get("c").isJust());
+
+		cache.put("d", "dddddddddddd");
+		assertTrue(cache.get("d").isNothing());
+		assertEquals(3, cache.hits());
+		assertEquals(2, cache.misses());
+	}
+
+	public void testSaveAndLoad() throws Exception {
+		Path dir = Files.createTempDirectory("bandolier");
+		Path file = dir.resolve("code-cache.json");
+		try {
+			assertTrue(GeneratedCodeCache.load(file, 100).get("a").isNothing());
+
+			GeneratedCodeCache cache = new GeneratedCodeCache(100);
+			cache.put("a", "require.define(\"1\",function(){\"\\u2028\"})");
+			cache.put("b", "b");
+			cache.save(file);
+
+			GeneratedCodeCache loaded = GeneratedCodeCache.load(file, 100);
+			assertEquals("require.define(\"1\",function(){\"\\u2028\"})", loaded.get("a").fromJust());
+			assertEquals("b", loaded.get("b").fromJust());
+
+			Files.write(file, "{\"version\": 0, \"entries\": [[\"a\", \"a\"]]}".getBytes("UTF-8"));
+			assertTrue(GeneratedCodeCache.load(file, 100).get("a").isNothing());
+		} finally {
+			Files.deleteIfExists(file);
+			Files.delete(dir);
+		}
+	}
+}
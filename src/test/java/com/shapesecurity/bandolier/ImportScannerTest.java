@@ -0,0 +1,57 @@
+/*
+ * Copyright 2016 Shape Security, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.shapesecurity.bandolier;
+
+import com.shapesecurity.functional.data.ImmutableList;
+
+import junit.framework.TestCase;
+
+public class ImportScannerTest extends TestCase {
+
+	public void testScan() {
+		testScan("");
+		testScan("import 'a'; import b from \"b\"; import * as c from 'c'; import d, {e as f} from 'd';", "a", "b", "c", "d");
+		testScan("export * from 'a'; export {b, c as d} from 'b'; export {e}; export var f = 1;", "a", "b");
+		testScan("import {\n  a,\n  b\n} from './multi/line.js'", "./multi/line.js");
+		testScan("import 'a\\'b'", "a'b");
+	}
+
+	public void testIgnoresNonDeclarations() {
+		testScan("// import 'a'\n/* export * from 'b' */ var s = \"import 'c'\";");
+		testScan("function f() { var o = {import: 1}; return o.import; }");
+		testScan("x.import; y = a.export", "");
+		testScan("var t = `import 'a' ${ {b: 1}.b } export * from 'c'`; import 'd';", "d");
+		testScan("var r = /import 'a'[/]/g; import 'b';", "b");
+		testScan("var q = a / b; import 'c'; var d = 1 / 2 / 3;", "c");
+		testScan("if (x) { import('a'); }");
+	}
+
+	public void testMayHaveModuleSyntax() {
+		assertFalse(ImportScanner.mayHaveModuleSyntax("module.exports = {important: exported, reimport: 1};"));
+		assertFalse(ImportScanner.mayHaveModuleSyntax(""));
+		assertTrue(ImportScanner.mayHaveModuleSyntax("import 'a'"));
+		assertTrue(ImportScanner.mayHaveModuleSyntax("var x;\nexport{x}"));
+		assertTrue(ImportScanner.mayHaveModuleSyntax("// export"));
+	}
+
+	private static void testScan(String source, String... expected) {
+		ImmutableList<String> specifiers = ImportScanner.scan(source);
+		if (expected.length == 1 && expected[0].isEmpty()) {
+			expected = new String[0];
+		}
+		assertEquals(ImmutableList.from(expected), specifiers);
+	}
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright 2016 Shape Security, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.shapesecurity.bandolier;
+
+import junit.framework.TestCase;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
+
+public class OutputDirectoryTest extends TestCase {
+
+	public void testWritesHashedFiles() throws Exception {
+		Path dir = Files.createTempDirectory("bandolier");
+		try {
+			OutputDirectory output = new OutputDirectory(dir);
+			OutputDirectory.Output main = write(output, "main.js", "(function(){\" \"}())");
+			assertTrue(main.file.matches("main\\.[0-9a-f]{16}\\.js"));
+			assertEquals(main.file + ".gz", main.gzipFile);
+			assertEquals("(function(){\" \"}())", new String(Files.readAllBytes(dir.resolve(main.file)), StandardCharsets.UTF_8));
+			assertEquals("(function(){\" \"}())", gunzip(dir.resolve(main.gzipFile)));
+			assertEquals(Files.size(dir.resolve(main.file)), main.size);
+			assertEquals(Files.size(dir.resolve(main.gzipFile)), main.gzipSize);
+			assertTrue(output.writeManifest());
+			String manifest = new String(Files.readAllBytes(dir.resolve(OutputDirectory.MANIFEST)), StandardCharsets.UTF_8);
+			assertTrue(manifest.contains("\"main.js\": {"));
+			assertTrue(manifest.contains("\"file\": \"" + main.file + "\""));
+
+			// a bundle that fails leaves nothing behind
+			try (OutputDirectory.PendingOutput failed = output.create("other.js")) {
+				failed.writer().write("(function(){");
+			}
+			assertEquals(3, list(dir).size());
+
+			// unchanged outputs are not written again
+			FileTime past = FileTime.fromMillis(0);
+			for (Path file : list(dir)) {
+				Files.setLastModifiedTime(file, past);
+			}
+			OutputDirectory rebuilt = new OutputDirectory(dir);
+			assertEquals(main.file, write(rebuilt, "main.js", "(function(){\" \"}())").file);
+			assertFalse(rebuilt.writeManifest());
+			for (Path file : list(dir)) {
+				assertEquals(past, Files.getLastModifiedTime(file));
+			}
+
+			OutputDirectory changed = new OutputDirectory(dir);
+			OutputDirectory.Output updated = write(changed, "main.js", "(function(){}())");
+			assertFalse(main.file.equals(updated.file));
+			assertTrue(changed.writeManifest());
+			assertEquals(5, list(dir).size());
+
+			// nor does a bundle that cannot be moved to its name
+			Files.createFile(dir.resolve("blocked"));
+			try {
+				write(changed, "blocked/main.js", "(function(){}())");
+				fail("expected the commit to fail");
+			} catch (IOException e) {
+				// a file is in place of the directory
+			}
+			assertEquals(6, list(dir).size());
+		} finally {
+			try (Stream<Path> files = Files.walk(dir)) {
+				for (Path file : files.sorted(Comparator.reverseOrder()).collect(Collectors.toList())) {
+					Files.delete(file);
+				}
+			}
+		}
+	}
+
+	private static OutputDirectory.Output write(OutputDirectory output, String name, String code) throws Exception {
+		try (OutputDirectory.PendingOutput out = output.create(name)) {
+			out.writer().write(code);
+			return out.commit();
+		}
+	}
+
+	private static String gunzip(Path file) throws Exception {
+		try (InputStream in = new GZIPInputStream(Files.newInputStream(file))) {
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			byte[] buffer = new byte[4096];
+			for (int read = in.read(buffer); read >= 0; read = in.read(buffer)) {
+				out.write(buffer, 0, read);
+			}
+			return new String(out.toByteArray(), StandardCharsets.UTF_8);
+		}
+	}
+
+	private static List<Path> list(Path dir) throws Exception {
+		try (Stream<Path> files = Files.list(dir)) {
+			return files.collect(Collectors.toList());
+		}
+	}
+}
@@ -0,0 +1,115 @@
+/*
+ * Copyright 2016 Shape Security, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.shapesecurity.bandolier;
+
+import com.shapesecurity.bandolier.loader.DirectorySnapshotLoader;
+import com.shapesecurity.bandolier.loader.IResourceLoader;
+import com.shapesecurity.bandolier.loader.MemoryLoader;
+import com.shapesecurity.bandolier.loader.NodeResolver;
+
+import junit.framework.TestCase;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Comparator;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Stream;
+
+/**
+ * Reports how bundling time and heap use grow with the size of the module graph, on {@link SyntheticGraph
+ * synthetic graphs} of 100 to 50,000 modules. The peak heap is the most heap in use while bundling, above
+ * what was in use before, and includes garbage that was not collected yet.
+ *
+ * Not run with the unit tests, run it with <code>mvn test -Dtest=ScaleTest</code>. Bundling 50,000 modules
+ * needs about 2 GB of heap. The sizes can be changed with <code>-Dscale.sizes=100,1000</code>, and
+ * <code>-Dscale.disk=true</code> writes the graphs to a temporary directory instead of a memory loader.
+ */
+public class ScaleTest extends TestCase {
+
+	public void testScale() throws Exception {
+		String[] sizes = System.getProperty("scale.sizes", "100,1000,10000,50000").split(",");
+		boolean disk = Boolean.getBoolean("scale.disk");
+		System.out.println(String.format("%8s %8s %10s %12s %12s %12s %10s", "modules", "files", "source KB", "bundle ms", "ms/module", "peak MB", "KB/module"));
+		for (String size : sizes) {
+			int modules = Integer.parseInt(size.trim());
+			SyntheticGraph graph = new SyntheticGraph(modules).modules(modules).fanOut(4).depth(12)
+				.cycles(0.05).barrels(0.1).packages(0.02, 3).moduleSize(1000);
+
+			Path directory = null;
+			IResourceLoader loader;
+			String root;
+			if (disk) {
+				directory = Files.createTempDirectory("bandolier-scale");
+				graph.writeTo(directory);
+				root = directory.toAbsolutePath().toString();
+				loader = new DirectorySnapshotLoader();
+			} else {
+				root = "/scale";
+				MemoryLoader memory = new MemoryLoader();
+				graph.writeTo(memory, root);
+				loader = memory;
+			}
+			long sourceChars = graph.generate(root).values().stream().mapToLong(String::length).sum();
+			int files = graph.generate(root).size();
+
+			try {
+				long before = startHeapMeasurement();
+				long start = System.nanoTime();
+				String code = Bundler.bundleToString(Paths.get(SyntheticGraph.entry(root)), new NodeResolver(loader), loader,
+					BundlerOptions.DEFAULT, ForkJoinPool.commonPool());
+				double millis = (System.nanoTime() - start) / 1e6;
+				double peakMegabytes = (peakHeap() - before) / (1024.0 * 1024.0);
+				assertTrue(code.length() > 0);
+
+				System.out.println(String.format("%8d %8d %10d %12.0f %12.3f %12.1f %10.1f", modules, files, sourceChars / 1024,
+					millis, millis / modules, peakMegabytes, peakMegabytes * 1024 / modules));
+			} finally {
+				if (directory != null) {
+					try (Stream<Path> paths = Files.walk(directory)) {
+						paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+					}
+				}
+			}
+		}
+	}
+
+	// collects garbage and resets the peak usage of the heap, returning the heap in use
+	private static long startHeapMeasurement() {
+		System.gc();
+		long used = 0;
+		for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+			if (pool.getType() == MemoryType.HEAP) {
+				pool.resetPeakUsage();
+				used += pool.getUsage().getUsed();
+			}
+		}
+		return used;
+	}
+
+	private static long peakHeap() {
+		long peak = 0;
+		for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+			if (pool.getType() == MemoryType.HEAP) {
+				peak += pool.getPeakUsage().getUsed();
+			}
+		}
+		return peak;
+	}
+}
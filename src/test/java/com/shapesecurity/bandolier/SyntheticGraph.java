@@ -0,0 +1,258 @@
+/*
+ * Copyright 2016 Shape Security, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.shapesecurity.bandolier;
+
+import com.shapesecurity.bandolier.loader.MemoryLoader;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Generates module graphs of a given shape for scale and load tests. Modules form a spanning tree of
+ * <code>depth</code> levels below the entry point <code>src/main.js</code>, and module <code>i</code> exports a
+ * function <code>value{i}</code> counting the modules in its subtree, so the entry point's <code>result</code>
+ * is the number of modules. Counting only starts once every module has been evaluated, through namespace
+ * imports, so it does not depend on the evaluation order. Besides its tree edges, a module imports modules of
+ * deeper levels up to the fan-out and, to form cycles, modules of shallower levels. Those imports are only used
+ * inside functions that are never called.
+ *
+ * Some subtrees are installed as packages: the subtree's root is <code>lib/index.js</code> of a package in the
+ * <code>node_modules</code> directory of the package or application that imports it, named by the
+ * <code>main</code> field of its <code>package.json</code>, and imported by its bare name. Some modules import
+ * their children through an <code>export *</code> barrel. A barrel copies the exports of its modules when it is
+ * evaluated, so in a graph with both cycles and barrels a barrel can be evaluated before the modules it
+ * re-exports and the result is not computed; such graphs are still valid input for the bundler. Graphs are
+ * generated from a seed, so the same parameters always give the same files.
+ */
+public class SyntheticGraph {
+
+	private final long seed;
+
+	private int modules = 100;
+
+	private int fanOut = 3;
+
+	private int depth = 8;
+
+	private double cycles = 0;
+
+	private double barrels = 0;
+
+	private double packages = 0;
+
+	private int maxNesting = 3;
+
+	private int moduleSize = 0;
+
+	public SyntheticGraph(long seed) {
+		this.seed = seed;
+	}
+
+	// the number of modules, not counting barrels
+	public SyntheticGraph modules(int modules) {
+		this.modules = modules;
+		return this;
+	}
+
+	// the number of modules each module imports, where there are enough deeper modules
+	public SyntheticGraph fanOut(int fanOut) {
+		this.fanOut = fanOut;
+		return this;
+	}
+
+	// the number of levels below the entry point, longer import chains need more stack to evaluate
+	public SyntheticGraph depth(int depth) {
+		this.depth = depth;
+		return this;
+	}
+
+	// the probability that a module also imports a module of a shallower level
+	public SyntheticGraph cycles(double cycles) {
+		this.cycles = cycles;
+		return this;
+	}
+
+	// the probability that a module imports its children through an export * barrel
+	public SyntheticGraph barrels(double barrels) {
+		this.barrels = barrels;
+		return this;
+	}
+
+	// the probability that a module is the root of a package, packages are nested at most maxNesting deep
+	public SyntheticGraph packages(double packages, int maxNesting) {
+		this.packages = packages;
+		this.maxNesting = maxNesting;
+		return this;
+	}
+
+	// the approximate size in characters of each module, padded with code that is never called
+	public SyntheticGraph moduleSize(int moduleSize) {
+		this.moduleSize = moduleSize;
+		return this;
+	}
+
+	/**
+	 * @param root the directory of the application
+	 * @return the entry point of a graph generated below the root
+	 */
+	public static String entry(String root) {
+		return root + "/src/main.js";
+	}
+
+	/**
+	 * @param root the directory of the application
+	 * @return the contents of each generated file by absolute path
+	 */
+	public Map<String, String> generate(String root) {
+		Random random = new Random(this.seed);
+		int n = Math.max(this.modules, 1);
+		int levels = Math.max(1, Math.min(this.depth, n - 1));
+
+		// byLevel.get(l) holds the modules of level l, the entry point is alone on level 0
+		int[] level = new int[n];
+		List<List<Integer>> byLevel = new ArrayList<>();
+		byLevel.add(new ArrayList<>());
+		byLevel.get(0).add(0);
+		for (int i = 1; i < n; ++i) {
+			level[i] = 1 + (int) ((long) (i - 1) * levels / (n - 1));
+			while (byLevel.size() <= level[i]) {
+				byLevel.add(new ArrayList<>());
+			}
+			byLevel.get(level[i]).add(i);
+		}
+
+		int[] parent = new int[n];
+		List<List<Integer>> children = new ArrayList<>();
+		for (int i = 0; i < n; ++i) {
+			children.add(new ArrayList<>());
+		}
+		for (int i = 1; i < n; ++i) {
+			List<Integer> candidates = byLevel.get(level[i] - 1);
+			parent[i] = candidates.get(random.nextInt(candidates.size()));
+			children.get(parent[i]).add(i);
+		}
+
+		// where each module is installed
+		String[] packageDir = new String[n];
+		String[] file = new String[n];
+		int[] nesting = new int[n];
+		boolean[] isPackage = new boolean[n];
+		for (int i = 0; i < n; ++i) {
+			if (i == 0) {
+				packageDir[i] = root;
+			} else if (nesting[parent[i]] < this.maxNesting && random.nextDouble() < this.packages) {
+				isPackage[i] = true;
+				packageDir[i] = packageDir[parent[i]] + "/node_modules/pkg" + i;
+				nesting[i] = nesting[parent[i]] + 1;
+			} else {
+				packageDir[i] = packageDir[parent[i]];
+				nesting[i] = nesting[parent[i]];
+			}
+			if (isPackage[i]) {
+				file[i] = packageDir[i] + "/lib/index.js";
+			} else {
+				file[i] = packageDir[i] + (packageDir[i].equals(root) ? "/src/m" : "/lib/m") + i + ".js";
+			}
+		}
+		file[0] = entry(root);
+
+		Map<String, String> files = new LinkedHashMap<>();
+		for (int i = 0; i < n; ++i) {
+			StringBuilder module = new StringBuilder();
+			// one statement per child, a long sum would nest too deeply for the code generator
+			StringBuilder value = new StringBuilder("var n = 1;");
+			List<Integer> tree = children.get(i);
+			if (!tree.isEmpty() && random.nextDouble() < this.barrels) {
+				String barrel = Paths.get(file[i]).resolveSibling("barrel" + i + ".js").toString();
+				StringBuilder reexports = new StringBuilder();
+				for (int child : tree) {
+					reexports.append("export * from '").append(this.specifier(barrel, child, file, isPackage)).append("';\n");
+					value.append(" n += children.value").append(child).append("();");
+				}
+				files.put(barrel, reexports.toString());
+				module.append("import * as children from '").append(relative(file[i], barrel)).append("';\n");
+			} else {
+				for (int child : tree) {
+					module.append("import * as m").append(child).append(" from '").append(this.specifier(file[i], child, file, isPackage)).append("';\n");
+					value.append(" n += m").append(child).append(".value").append(child).append("();");
+				}
+			}
+
+			List<Integer> extra = new ArrayList<>();
+			if (level[i] + 1 < byLevel.size()) {
+				List<Integer> deeper = byLevel.get(level[i] + 1 + random.nextInt(byLevel.size() - level[i] - 1));
+				for (int k = tree.size(); k < this.fanOut; ++k) {
+					extra.add(deeper.get(random.nextInt(deeper.size())));
+				}
+			}
+			// the entry point does not export a value
+			if (level[i] > 1 && random.nextDouble() < this.cycles) {
+				List<Integer> shallower = byLevel.get(1 + random.nextInt(level[i] - 1));
+				extra.add(shallower.get(random.nextInt(shallower.size())));
+			}
+			StringBuilder touch = new StringBuilder("0");
+			for (int k = 0; k < extra.size(); ++k) {
+				module.append("import {value").append(extra.get(k)).append(" as extra").append(k).append("} from '").append(relative(file[i], file[extra.get(k)])).append("';\n");
+				touch.append(" + extra").append(k);
+			}
+			module.append("export function touch").append(i).append("() { return ").append(touch).append("; }\n");
+			if (i == 0) {
+				module.append("function count() { ").append(value).append(" return n; }\nexport var result = count();\n");
+			} else {
+				module.append("export function value").append(i).append("() { ").append(value).append(" return n; }\n");
+			}
+			for (int k = 0; module.length() < this.moduleSize; ++k) {
+				module.append("function pad").append(k).append("(x) { var s = 'padding ").append(k).append("'; return x ? s + x : s.length; }\n");
+			}
+			files.put(file[i], module.toString());
+
+			if (isPackage[i]) {
+				files.put(packageDir[i] + "/package.json", "{\"name\": \"pkg" + i + "\", \"version\": \"1.0.0\", \"main\": \"lib/index.js\"}");
+			}
+		}
+		return files;
+	}
+
+	public void writeTo(MemoryLoader loader, String root) {
+		this.generate(root).forEach(loader::put);
+	}
+
+	public void writeTo(Path root) throws IOException {
+		for (Map.Entry<String, String> file : this.generate(root.toAbsolutePath().toString()).entrySet()) {
+			Path path = Paths.get(file.getKey());
+			Files.createDirectories(path.getParent());
+			Files.write(path, file.getValue().getBytes(StandardCharsets.UTF_8));
+		}
+	}
+
+	// packages are imported by name, everything else by relative path
+	private String specifier(String from, int child, String[] file, boolean[] isPackage) {
+		return isPackage[child] ? "pkg" + child : relative(from, file[child]);
+	}
+
+	private static String relative(String from, String to) {
+		String path = Paths.get(from).getParent().relativize(Paths.get(to)).toString().replace('\\', '/');
+		return path.startsWith(".") ? path : "./" + path;
+	}
+}
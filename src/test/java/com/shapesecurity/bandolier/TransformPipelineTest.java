@@ -0,0 +1,120 @@
+/*
+ * Copyright 2016 Shape Security, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.shapesecurity.bandolier;
+
+import com.shapesecurity.bandolier.loader.FileSystemResolver;
+import com.shapesecurity.bandolier.loader.ISourceTransform;
+import com.shapesecurity.bandolier.loader.MemoryLoader;
+import com.shapesecurity.bandolier.loader.ModuleLoaderException;
+import com.shapesecurity.shift.codegen.CodeGen;
+
+import junit.framework.TestCase;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+public class TransformPipelineTest extends TestCase {
+
+	// replaces a placeholder with a configured value
+	private static class Define implements ISourceTransform {
+		final String name;
+		final String value;
+		final AtomicInteger runs = new AtomicInteger();
+
+		Define(String name, String value) {
+			this.name = name;
+			this.value = value;
+		}
+
+		@NotNull
+		@Override
+		public String cacheKey(@NotNull Path path) {
+			return "define\0" + this.name + "\0" + this.value;
+		}
+
+		@NotNull
+		@Override
+		public String transform(@NotNull Path path, @NotNull String source) throws ModuleLoaderException {
+			this.runs.incrementAndGet();
+			if (source.contains("@fail")) {
+				throw new ModuleLoaderException(path.toString(), new IllegalArgumentException("cannot transform"));
+			}
+			return source.replace(this.name, this.value);
+		}
+	}
+
+	private final MemoryLoader sources = new MemoryLoader()
+		.put("/app/main.js", "import {b} from './b.js'; export var result = b + DEBUG + VERSION;")
+		.put("/app/b.js", "export var b = DEBUG ? 0 : 40;")
+		.put("/app/fail.js", "// @fail");
+
+	public void testRunsStagesInOrder() throws Exception {
+		Define debug = new Define("DEBUG", "false");
+		Define version = new Define("VERSION", "2");
+		TransformPipeline pipeline = new TransformPipeline(this.sources, debug, version);
+		String bundle = CodeGen.codeGen(Bundler.bundle(Paths.get("/app/main.js"), new FileSystemResolver(), pipeline,
+			BundlerOptions.DEFAULT.withPrefetch(ForkJoinPool.commonPool())));
+		assertTrue(bundle.contains("b=false?0:40"));
+		assertTrue(bundle.contains("b+false+2"));
+		assertEquals(2, debug.runs.get());
+		assertEquals(2, version.runs.get());
+
+		pipeline.loadModule(Paths.get("/app/b.js"));
+		assertEquals(2, debug.runs.get());
+		assertEquals(2, pipeline.hits());
+		assertEquals(4, pipeline.misses());
+	}
+
+	public void testMemoizesOnDisk() throws Exception {
+		Path dir = Files.createTempDirectory("bandolier");
+		try {
+			Define first = new Define("DEBUG", "false");
+			assertEquals("export var b = false ? 0 : 40;", new TransformPipeline(this.sources, dir, first).loadModule(Paths.get("/app/b.js")));
+
+			Define second = new Define("DEBUG", "false");
+			assertEquals("export var b = false ? 0 : 40;", new TransformPipeline(this.sources, dir, second).loadModule(Paths.get("/app/b.js")));
+			assertEquals(0, second.runs.get());
+
+			Define reconfigured = new Define("DEBUG", "true");
+			assertEquals("export var b = true ? 0 : 40;", new TransformPipeline(this.sources, dir, reconfigured).loadModule(Paths.get("/app/b.js")));
+			assertEquals(1, reconfigured.runs.get());
+		} finally {
+			try (Stream<Path> files = Files.list(dir)) {
+				for (Path file : (Iterable<Path>) files::iterator) {
+					Files.delete(file);
+				}
+			}
+			Files.delete(dir);
+		}
+	}
+
+	public void testReportsFailedTransforms() throws Exception {
+		TransformPipeline pipeline = new TransformPipeline(this.sources, new Define("DEBUG", "false"));
+		try {
+			Bundler.bundleString("import './fail.js';", Paths.get("/app/main.js"), new FileSystemResolver(), pipeline);
+			fail("expected the transform to fail");
+		} catch (ModuleLoaderException e) {
+			assertTrue(e.getMessage().contains("/app/fail.js"));
+			assertTrue(e.getMessage().contains("cannot transform"));
+		}
+	}
+}
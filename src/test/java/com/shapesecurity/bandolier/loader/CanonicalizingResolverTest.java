@@ -0,0 +1,97 @@
+/*
+ * Copyright 2016 Shape Security, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.shapesecurity.bandolier.loader;
+
+import com.shapesecurity.bandolier.Bundler;
+import com.shapesecurity.shift.ast.Script;
+import com.shapesecurity.shift.codegen.CodeGen;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.Assert.assertEquals;
+
+public class CanonicalizingResolverTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private Path root;
+
+	@Before
+	public void setup() throws Exception {
+		// pnpm style layout: node_modules/a links into the store, and so does a's own dependency on b
+		this.root = folder.getRoot().toPath().toRealPath();
+		Path store = Files.createDirectories(this.root.resolve("store"));
+		Files.createDirectories(store.resolve("a"));
+		Files.createDirectories(store.resolve("b"));
+		write(store.resolve("a/index.js"), "import {b} from 'b'; export var a = b + 1;");
+		write(store.resolve("b/index.js"), "export var b = 41;");
+		Files.createDirectories(store.resolve("a/node_modules"));
+		Files.createSymbolicLink(store.resolve("a/node_modules/b"), store.resolve("b"));
+
+		Files.createDirectories(this.root.resolve("app/node_modules"));
+		Files.createSymbolicLink(this.root.resolve("app/node_modules/a"), store.resolve("a"));
+		Files.createSymbolicLink(this.root.resolve("app/node_modules/b"), store.resolve("b"));
+		write(this.root.resolve("app/main.js"), "import {a} from 'a'; import {b} from 'b'; export var result = a + b;");
+	}
+
+	private static void write(Path path, String contents) throws Exception {
+		Files.write(path, contents.getBytes(StandardCharsets.UTF_8));
+	}
+
+	@Test
+	public void resolvesToRealPaths() {
+		IResolver resolver = new CanonicalizingResolver(new NodeResolver());
+		Path app = this.root.resolve("app");
+		assertEquals(this.root.resolve("store/a/index.js").toString(), resolver.resolve(app, "a"));
+		assertEquals(this.root.resolve("store/b/index.js").toString(), resolver.resolve(app, "b"));
+		assertEquals(this.root.resolve("store/b/index.js").toString(), resolver.resolve(this.root.resolve("store/a"), "b"));
+		assertEquals("fs", resolver.resolve(app, "fs"));
+	}
+
+	@Test
+	public void preservesMatchingPaths() {
+		IResolver resolver = new CanonicalizingResolver(new NodeResolver(), this.root + "/app/node_modules/b/**");
+		Path app = this.root.resolve("app");
+		assertEquals(this.root.resolve("store/a/index.js").toString(), resolver.resolve(app, "a"));
+		assertEquals(this.root.resolve("app/node_modules/b/index.js").toString(), resolver.resolve(app, "b"));
+	}
+
+	@Test
+	public void bundlesLinkedModulesOnce() throws Exception {
+		FileLoader loader = new FileLoader();
+		Path main = this.root.resolve("app/main.js");
+		String canonical = CodeGen.codeGen(Bundler.bundle(main, new CanonicalizingResolver(new NodeResolver(loader)), loader));
+		String logical = CodeGen.codeGen(Bundler.bundle(main, new NodeResolver(loader), loader));
+		assertEquals(3, count(canonical, "require.define("));
+		assertEquals(4, count(logical, "require.define("));
+	}
+
+	private static int count(String haystack, String needle) {
+		int count = 0;
+		for (int i = haystack.indexOf(needle); i >= 0; i = haystack.indexOf(needle, i + 1)) {
+			++count;
+		}
+		return count;
+	}
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright 2016 Shape Security, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.shapesecurity.bandolier.loader;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class DirectorySnapshotLoaderTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private Path root;
+
+	@Before
+	public void setup() throws Exception {
+		this.root = folder.getRoot().toPath().toRealPath();
+		Files.createDirectories(this.root.resolve("node_modules/lib"));
+		write(this.root.resolve("main.js"), "import {x} from 'lib';");
+		write(this.root.resolve("node_modules/lib/package.json"), "{\"main\": \"x.js\"}");
+		write(this.root.resolve("node_modules/lib/x.js"), "export var x = 1;");
+	}
+
+	private static void write(Path path, String contents) throws Exception {
+		Files.write(path, contents.getBytes(StandardCharsets.UTF_8));
+	}
+
+	@Test
+	public void agreesWithFileLoader() {
+		FileLoader files = new FileLoader();
+		DirectorySnapshotLoader snapshot = new DirectorySnapshotLoader(files);
+		String[] paths = {
+			"main.js", "main", "node_modules", "node_modules/lib", "node_modules/lib/x.js", "node_modules/lib/x.js.js",
+			"node_modules/lib/x.js/package.json", "node_modules/missing/index.js", "node_modules/lib/../lib/x.js"
+		};
+		for (String path : paths) {
+			Path p = this.root.resolve(path);
+			assertEquals(path, files.exists(p), snapshot.exists(p));
+		}
+		assertTrue(snapshot.exists(Paths.get("/")));
+	}
+
+	@Test
+	public void resolvesThroughSnapshot() {
+		IResolver resolver = new NodeResolver(new DirectorySnapshotLoader());
+		assertEquals(this.root.resolve("node_modules/lib/x.js").toString(), resolver.resolve(this.root, "lib"));
+		assertEquals(this.root.resolve("main.js").toString(), resolver.resolve(this.root, "./main"));
+	}
+
+	@Test
+	public void invalidatesListings() throws Exception {
+		DirectorySnapshotLoader snapshot = new DirectorySnapshotLoader();
+		Path added = this.root.resolve("node_modules/lib/y.js");
+		assertFalse(snapshot.exists(added));
+		write(added, "");
+		assertFalse(snapshot.exists(added));
+		snapshot.invalidate(added);
+		assertTrue(snapshot.exists(added));
+
+		Files.delete(added);
+		assertTrue(snapshot.exists(added));
+		snapshot.invalidateAll();
+		assertFalse(snapshot.exists(added));
+	}
+}
@@ -0,0 +1,232 @@
+/*
+ * Copyright 2016 Shape Security, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.shapesecurity.bandolier.loader;
+
+import com.shapesecurity.bandolier.Bundler;
+import com.shapesecurity.shift.codegen.CodeGen;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class HttpResourceLoaderTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private HttpServer server;
+
+	private URI base;
+
+	// path -> contents, the ETag is derived from the contents
+	private final Map<String, String> files = new ConcurrentHashMap<>();
+
+	private final AtomicInteger requests = new AtomicInteger();
+
+	private final AtomicInteger notModified = new AtomicInteger();
+
+	private final Path mount = Paths.get("/remote");
+
+	@Before
+	public void setup() throws Exception {
+		this.server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+		this.server.createContext("/lib/", this::handle);
+		this.server.start();
+		this.base = URI.create("http://127.0.0.1:" + this.server.getAddress().getPort() + "/lib/");
+		this.files.put("/lib/main.js", "import {b} from './b.js'; export var result = b + 1;");
+		this.files.put("/lib/b.js", "export var b = 41;");
+	}
+
+	@After
+	public void teardown() {
+		this.server.stop(0);
+	}
+
+	private void handle(HttpExchange exchange) throws IOException {
+		this.requests.incrementAndGet();
+		String contents = this.files.get(exchange.getRequestURI().getPath());
+		if (exchange.getRequestURI().getPath().equals("/lib/broken.js")) {
+			exchange.sendResponseHeaders(503, -1);
+		} else if (exchange.getRequestURI().getPath().equals("/lib/limited.js")) {
+			exchange.sendResponseHeaders(429, -1);
+		} else if (contents == null) {
+			exchange.sendResponseHeaders(404, -1);
+		} else {
+			String etag = "\"" + contents.hashCode() + "\"";
+			exchange.getResponseHeaders().set("ETag", etag);
+			if (etag.equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+				this.notModified.incrementAndGet();
+				exchange.sendResponseHeaders(304, -1);
+			} else {
+				// one file is not valid UTF-8
+				byte[] body = contents.getBytes(exchange.getRequestURI().getPath().equals("/lib/latin1.js") ? StandardCharsets.ISO_8859_1 : StandardCharsets.UTF_8);
+				exchange.sendResponseHeaders(200, body.length);
+				try (OutputStream out = exchange.getResponseBody()) {
+					out.write(body);
+				}
+			}
+		}
+		exchange.close();
+	}
+
+	@Test
+	public void loadsMountedPaths() throws Exception {
+		HttpResourceLoader loader = new HttpResourceLoader(this.base, this.mount);
+		assertTrue(loader.exists(Paths.get("/remote/b.js")));
+		assertEquals("export var b = 41;", loader.loadResource(Paths.get("/remote/b.js")));
+		assertFalse(loader.exists(Paths.get("/remote/missing.js")));
+		assertFalse(loader.exists(Paths.get("/elsewhere/b.js")));
+		assertFalse(loader.exists(Paths.get("/remote/../lib/b.js")));
+		assertEquals(2, this.requests.get());
+	}
+
+	@Test
+	public void bundlesRemoteModules() throws Exception {
+		IResourceLoader loader = new LayeredLoader(new MemoryLoader(), new HttpResourceLoader(this.base, this.mount));
+		String bundle = CodeGen.codeGen(Bundler.bundle(Paths.get("/remote/main.js"), new FileSystemResolver(), loader));
+		assertTrue(bundle.contains("b=41"));
+	}
+
+	@Test
+	public void reusesTheDiskCache() throws Exception {
+		Path cache = this.folder.getRoot().toPath();
+		HttpResourceLoader first = new HttpResourceLoader(this.base, this.mount, cache, Long.MAX_VALUE);
+		assertEquals("export var b = 41;", first.loadResource(Paths.get("/remote/b.js")));
+		assertFalse(first.exists(Paths.get("/remote/missing.js")));
+		assertEquals(2, this.requests.get());
+
+		HttpResourceLoader second = new HttpResourceLoader(this.base, this.mount, cache, Long.MAX_VALUE);
+		assertEquals("export var b = 41;", second.loadResource(Paths.get("/remote/b.js")));
+		assertFalse(second.exists(Paths.get("/remote/missing.js")));
+		assertEquals(2, this.requests.get());
+	}
+
+	@Test
+	public void namesCachedContentsByTheirHash() throws Exception {
+		Path cache = this.folder.getRoot().toPath();
+		this.files.put("/lib/latin1.js", "export var e = '\u00e9';");
+		HttpResourceLoader loader = new HttpResourceLoader(this.base, this.mount, cache, Long.MAX_VALUE);
+		loader.loadResource(Paths.get("/remote/b.js"));
+		loader.loadResource(Paths.get("/remote/latin1.js"));
+		try (DirectoryStream<Path> objects = Files.newDirectoryStream(cache.resolve("objects"))) {
+			int count = 0;
+			for (Path object : objects) {
+				assertEquals(ContentHash.sha256(Files.readAllBytes(object)), object.getFileName().toString());
+				++count;
+			}
+			assertEquals(2, count);
+		}
+	}
+
+	@Test
+	public void revalidatesExpiredEntries() throws Exception {
+		Path cache = this.folder.getRoot().toPath();
+		new HttpResourceLoader(this.base, this.mount, cache, 0).loadResource(Paths.get("/remote/b.js"));
+		assertEquals("export var b = 41;", new HttpResourceLoader(this.base, this.mount, cache, 0).loadResource(Paths.get("/remote/b.js")));
+		assertEquals(1, this.notModified.get());
+
+		this.files.put("/lib/b.js", "export var b = 42;");
+		assertEquals("export var b = 42;", new HttpResourceLoader(this.base, this.mount, cache, 0).loadResource(Paths.get("/remote/b.js")));
+		assertEquals(3, this.requests.get());
+	}
+
+	@Test
+	public void usesStaleEntriesWhileOffline() throws Exception {
+		Path cache = this.folder.getRoot().toPath();
+		new HttpResourceLoader(this.base, this.mount, cache, 0).loadResource(Paths.get("/remote/b.js"));
+		this.server.stop(0);
+		assertEquals("export var b = 41;", new HttpResourceLoader(this.base, this.mount, cache, 0).loadResource(Paths.get("/remote/b.js")));
+	}
+
+	@Test(expected = IOException.class)
+	public void reportsUnreachableServers() throws Exception {
+		this.server.stop(0);
+		HttpResourceLoader loader = new HttpResourceLoader(this.base, this.mount);
+		assertFalse(loader.exists(Paths.get("/remote/b.js")));
+		loader.loadResource(Paths.get("/remote/b.js"));
+	}
+
+	@Test
+	public void doesNotCacheClientErrors() throws Exception {
+		Path cache = this.folder.getRoot().toPath();
+		for (int i = 1; i <= 2; ++i) {
+			HttpResourceLoader loader = new HttpResourceLoader(this.base, this.mount, cache, Long.MAX_VALUE);
+			try {
+				loader.loadResource(Paths.get("/remote/limited.js"));
+				fail("expected the status to be reported");
+			} catch (IOException e) {
+				assertTrue(e.getMessage().contains("429"));
+			}
+			assertEquals(i, this.requests.get());
+		}
+	}
+
+	@Test
+	public void remembersServerErrors() throws Exception {
+		HttpResourceLoader loader = new HttpResourceLoader(this.base, this.mount);
+		assertFalse(loader.exists(Paths.get("/remote/broken.js")));
+		for (int i = 0; i < 2; ++i) {
+			try {
+				loader.loadResource(Paths.get("/remote/broken.js"));
+				fail("expected the server error to be reported");
+			} catch (IOException e) {
+				assertTrue(e.getMessage().contains("503"));
+			}
+		}
+		assertEquals(1, this.requests.get());
+	}
+
+	@Test
+	public void prefetchesInParallel() throws Exception {
+		HttpResourceLoader loader = new HttpResourceLoader(this.base, this.mount);
+		ExecutorService executor = Executors.newFixedThreadPool(2);
+		try {
+			loader.prefetch(Arrays.asList(Paths.get("/remote/main.js"), Paths.get("/remote/b.js")), executor).get();
+		} finally {
+			executor.shutdown();
+		}
+		assertEquals(2, this.requests.get());
+		assertEquals("export var b = 41;", loader.loadResource(Paths.get("/remote/b.js")));
+		assertEquals(2, this.requests.get());
+	}
+}
@@ -0,0 +1,100 @@
+/*
+ * Copyright 2016 Shape Security, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.shapesecurity.bandolier.loader;
+
+import com.shapesecurity.functional.data.Maybe;
+
+import org.jetbrains.annotations.NotNull;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ManifestResolverTest {
+
+	class MapLoader implements IResourceLoader {
+		private final Map<String, String> fs = new HashMap<>();
+
+		MapLoader() {
+			this.fs.put("/app/src/util.js", "");
+			this.fs.put("/app/node_modules/lib/package.json", "{\"main\": \"lib/main.js\", \"sideEffects\": false}");
+			this.fs.put("/app/node_modules/lib/lib/main.js", "");
+		}
+
+		@NotNull
+		@Override
+		public Boolean exists(@NotNull Path path) {
+			return this.fs.containsKey(path.toString());
+		}
+
+		@NotNull
+		@Override
+		public String loadResource(@NotNull Path path) throws IOException {
+			return this.fs.get(path.toString());
+		}
+	}
+
+	class FailingResolver implements IResolver {
+		@NotNull
+		@Override
+		public String resolve(@NotNull Path root, @NotNull String path) {
+			fail("unexpected fallback for " + path);
+			return path;
+		}
+	}
+
+	@Test
+	public void replaysRecordedResolutions() throws Exception {
+		RecordingResolver recorder = new RecordingResolver(new NodeResolver(new MapLoader()));
+		assertEquals("/app/src/util.js", recorder.resolve(Paths.get("/app/src"), "./util"));
+		assertEquals("/app/node_modules/lib/lib/main.js", recorder.resolve(Paths.get("/app/src"), "lib"));
+		assertFalse(recorder.hasSideEffects("/app/node_modules/lib/lib/main.js"));
+		assertTrue(recorder.hasSideEffects("/app/src/util.js"));
+
+		StringWriter manifest = new StringWriter();
+		recorder.writeManifest(manifest);
+
+		IResolver replay = ManifestResolver.read(new StringReader(manifest.toString()), Maybe.of(new FailingResolver()));
+		assertEquals("/app/src/util.js", replay.resolve(Paths.get("/app/src"), "./util"));
+		assertEquals("/app/node_modules/lib/lib/main.js", replay.resolve(Paths.get("/app/src"), "lib"));
+		assertFalse(replay.hasSideEffects("/app/node_modules/lib/lib/main.js"));
+		assertTrue(replay.hasSideEffects("/app/src/util.js"));
+	}
+
+	@Test
+	public void fallsBackForUnknownImports() throws Exception {
+		IResolver replay = ManifestResolver.read(new StringReader("{\"version\": 1}"), Maybe.empty());
+		assertEquals("fs", replay.resolve(Paths.get("/app"), "fs"));
+
+		replay = ManifestResolver.read(new StringReader("{\"version\": 1}"), Maybe.of(new FileSystemResolver()));
+		assertEquals("/app/x.js", replay.resolve(Paths.get("/app"), "./x.js"));
+	}
+
+	@Test(expected = IOException.class)
+	public void rejectsUnknownVersions() throws Exception {
+		ManifestResolver.read(new StringReader("{\"version\": 2}"), Maybe.empty());
+	}
+}
@@ -0,0 +1,99 @@
+/*
+ * Copyright 2016 Shape Security, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.shapesecurity.bandolier.loader;
+
+import com.shapesecurity.bandolier.Bundler;
+import com.shapesecurity.shift.codegen.CodeGen;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class MemoryLoaderTest {
+
+	@Test
+	public void storesFilesAndDirectories() throws Exception {
+		Map<String, String> files = new HashMap<>();
+		files.put("/app/main.js", "import {x} from 'lib';");
+		files.put("/app/node_modules/lib/index.js", "export var x = 1;");
+		MemoryLoader loader = new MemoryLoader().putAll(files).put("/app/./other/../util.js", "");
+
+		assertTrue(loader.exists(Paths.get("/app/main.js")));
+		assertTrue(loader.exists(Paths.get("/app/util.js")));
+		assertTrue(loader.exists(Paths.get("/app/node_modules/lib")));
+		assertFalse(loader.exists(Paths.get("/app/node_modules/lib/package.json")));
+		assertFalse(loader.exists(Paths.get("/app/main.js/index.js")));
+		assertEquals("export var x = 1;", loader.loadResource(Paths.get("/app/node_modules/lib/../lib/index.js")));
+		assertEquals("/app/node_modules/lib/index.js", new NodeResolver(loader).resolve(Paths.get("/app"), "lib"));
+	}
+
+	@Test(expected = IOException.class)
+	public void doesNotLoadDirectories() throws Exception {
+		new MemoryLoader().put("/app/main.js", "").loadResource(Paths.get("/app"));
+	}
+
+	@Test
+	public void loadsZipArchives() throws Exception {
+		MemoryLoader loader = new MemoryLoader().putZip("/app", zip("main.js", "export var a = 1;", "lib/b.js", "export var b = 2;"));
+		assertEquals("export var a = 1;", loader.loadResource(Paths.get("/app/main.js")));
+		assertEquals("export var b = 2;", loader.loadResource(Paths.get("/app/lib/b.js")));
+	}
+
+	@Test(expected = IOException.class)
+	public void rejectsZipEntriesOutsideDirectory() throws Exception {
+		new MemoryLoader().putZip("/app", zip("../etc/x.js", ""));
+	}
+
+	@Test
+	public void layersOverOtherLoaders() throws Exception {
+		MemoryLoader shared = new MemoryLoader()
+			.put("/app/node_modules/lib/index.js", "export var x = 'shared';")
+			.put("/app/main.js", "export var x = 'shared';");
+		MemoryLoader request = new MemoryLoader().put("/app/main.js", "import {x} from 'lib'; export var y = x;");
+		LayeredLoader loader = new LayeredLoader(request, shared);
+
+		assertEquals("import {x} from 'lib'; export var y = x;", loader.loadResource(Paths.get("/app/main.js")));
+		assertEquals("export var x = 'shared';", loader.loadResource(Paths.get("/app/node_modules/lib/index.js")));
+		assertFalse(loader.exists(Paths.get("/app/missing.js")));
+
+		String bundle = CodeGen.codeGen(Bundler.bundle(Paths.get("/app/main.js"), new NodeResolver(loader), loader));
+		assertTrue(bundle.contains("'shared'") || bundle.contains("\"shared\""));
+	}
+
+	private static ByteArrayInputStream zip(String... entries) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try (ZipOutputStream zip = new ZipOutputStream(bytes)) {
+			for (int i = 0; i < entries.length; i += 2) {
+				zip.putNextEntry(new ZipEntry(entries[i]));
+				zip.write(entries[i + 1].getBytes(StandardCharsets.UTF_8));
+				zip.closeEntry();
+			}
+		}
+		return new ByteArrayInputStream(bytes.toByteArray());
+	}
+}
@@ -23,10 +23,20 @@ import org.junit.Test;
 import java.io.IOException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 
 public class NodeResolverTest {
 
@@ -69,4 +79,102 @@ public class NodeResolverTest {
 		assertEquals("/my/dir/index.js", this.resolver.resolve(Paths.get("/my"), "./dir"));
 
 	}
+
+	@Test
+	public void sideEffectsTest() {
+		Map<String, String> fs = new HashMap<>();
+		fs.put("/app/index.js", "");
+		fs.put("/app/node_modules/pure/package.json", "{\"main\": \"index.js\", \"sideEffects\": false}");
+		fs.put("/app/node_modules/pure/index.js", "");
+		fs.put("/app/node_modules/pure/lib/icons.js", "");
+		fs.put("/app/node_modules/some/package.json", "{\"sideEffects\": [\"*.css\", \"./lib/polyfill.js\"]}");
+		fs.put("/app/node_modules/some/lib/polyfill.js", "");
+		fs.put("/app/node_modules/some/lib/util.js", "");
+		fs.put("/app/node_modules/some/styles/main.css", "");
+		fs.put("/app/node_modules/styled/package.json", "{\"sideEffects\": [\"*.{css,scss}\"]}");
+		fs.put("/app/node_modules/styled/lib/theme.scss", "");
+		fs.put("/app/node_modules/styled/lib/button.js", "");
+		fs.put("/app/node_modules/malformed/package.json", "{\"sideEffects\": [\"[\"]}");
+		fs.put("/app/node_modules/malformed/index.js", "");
+		fs.put("/app/node_modules/impure/package.json", "{\"main\": \"index.js\"}");
+		fs.put("/app/node_modules/impure/index.js", "");
+		NodeResolver resolver = new NodeResolver(new MapLoader(fs));
+
+		assertTrue(resolver.hasSideEffects("/app/index.js"));
+		assertFalse(resolver.hasSideEffects(resolver.resolve(Paths.get("/app"), "pure")));
+		assertFalse(resolver.hasSideEffects("/app/node_modules/pure/lib/icons.js"));
+		assertTrue(resolver.hasSideEffects("/app/node_modules/some/lib/polyfill.js"));
+		assertTrue(resolver.hasSideEffects("/app/node_modules/some/styles/main.css"));
+		assertFalse(resolver.hasSideEffects("/app/node_modules/some/lib/util.js"));
+		assertTrue(resolver.hasSideEffects("/app/node_modules/impure/index.js"));
+		assertTrue(resolver.hasSideEffects("/app/node_modules/styled/lib/theme.scss"));
+		assertFalse(resolver.hasSideEffects("/app/node_modules/styled/lib/button.js"));
+		// a malformed pattern may name any module
+		assertTrue(resolver.hasSideEffects("/app/node_modules/malformed/index.js"));
+	}
+
+	@Test
+	public void concurrentResolveTest() throws Exception {
+		Map<String, String> fs = new HashMap<>();
+		int packages = 50;
+		for (int i = 0; i < packages; ++i) {
+			fs.put("/app/node_modules/p" + i + "/package.json", "{\"main\": \"lib/main.js\", \"sideEffects\": " + (i % 2 == 0) + "}");
+			fs.put("/app/node_modules/p" + i + "/lib/main.js", "");
+		}
+		Map<String, AtomicInteger> loads = new ConcurrentHashMap<>();
+		NodeResolver resolver = new NodeResolver(new MapLoader(fs) {
+			@NotNull
+			@Override
+			public String loadResource(@NotNull Path path) throws IOException {
+				loads.computeIfAbsent(path.toString(), p -> new AtomicInteger()).incrementAndGet();
+				return super.loadResource(path);
+			}
+		});
+
+		ExecutorService executor = Executors.newFixedThreadPool(8);
+		try {
+			List<Callable<Boolean>> tasks = new ArrayList<>();
+			for (int t = 0; t < 400; ++t) {
+				int i = t % packages;
+				tasks.add(() -> {
+					String resolved = resolver.resolve(Paths.get("/app/src"), "p" + i);
+					assertEquals("/app/node_modules/p" + i + "/lib/main.js", resolved);
+					assertEquals(i % 2 == 0, resolver.hasSideEffects(resolved));
+					return true;
+				});
+			}
+			for (Future<Boolean> result : executor.invokeAll(tasks)) {
+				assertTrue(result.get());
+			}
+		} finally {
+			executor.shutdown();
+		}
+		assertEquals(packages, loads.size());
+		for (AtomicInteger count : loads.values()) {
+			assertEquals(1, count.get());
+		}
+	}
+
+	class MapLoader implements IResourceLoader {
+		private final Map<String, String> fs;
+
+		MapLoader(Map<String, String> fs) {
+			this.fs = fs;
+		}
+
+		@NotNull
+		@Override
+		public Boolean exists(@NotNull Path path) {
+			return this.fs.containsKey(path.toString());
+		}
+
+		@NotNull
+		@Override
+		public String loadResource(@NotNull Path path) throws IOException {
+			if (!this.fs.containsKey(path.toString())) {
+				throw new IOException(path.toString());
+			}
+			return this.fs.get(path.toString());
+		}
+	}
 }